@@ -45,7 +45,7 @@ var qz = (function() {
 
         //stream types
         streams: {
-            serial: 'SERIAL', usb: 'USB', hid: 'HID'
+            serial: 'SERIAL', usb: 'USB', hid: 'HID', print: 'PRINT'
         },
 
 
@@ -173,6 +173,8 @@ var qz = (function() {
                 /** Finish setting calls on successful connection, sets web socket calls that won't settle the promise. */
                 openConnection: function(openPromise) {
                     _qz.websocket.connection.established = true;
+                    _qz.websocket.connection.binary = false;
+                    _qz.websocket.connection.binaryType = 'arraybuffer';
 
                     //called when an open connection is closed
                     _qz.websocket.connection.onclose = function(evt) {
@@ -242,13 +244,13 @@ var qz = (function() {
                                     _qz.log.trace("Signature for call", signature);
                                     obj.signature = signature;
                                     _qz.signContent = undefined;
-                                    _qz.websocket.connection.send(_qz.tools.stringify(obj));
+                                    sendObject(obj);
                                 });
                             } else {
                                 _qz.log.trace("Signature for call", obj.signature);
 
                                 //called for pre-signed content and (unsigned) setup calls
-                                _qz.websocket.connection.send(_qz.tools.stringify(obj));
+                                sendObject(obj);
                             }
                         }
                         catch(err) {
@@ -261,9 +263,15 @@ var qz = (function() {
                         }
                     };
 
+                    //sends as a binary frame when the call carries binary data and qz supports it
+                    function sendObject(obj) {
+                        var frame = _qz.websocket.connection.binary ? _qz.binary.pack(obj) : null;
+                        _qz.websocket.connection.send(frame || _qz.tools.stringify(obj));
+                    }
+
                     //receive message from qz
                     _qz.websocket.connection.onmessage = function(evt) {
-                        var returned = JSON.parse(evt.data);
+                        var returned = (typeof evt.data === 'string') ? JSON.parse(evt.data) : _qz.binary.unpack(evt.data);
 
                         if (returned.uid == null) {
                             if (returned.type == null) {
@@ -290,6 +298,9 @@ var qz = (function() {
                                     case _qz.streams.hid:
                                         _qz.hid.callHid(JSON.parse(returned.event));
                                         break;
+                                    case _qz.streams.print:
+                                        _qz.jobs.callJob(JSON.parse(returned.event));
+                                        break;
                                     default:
                                         _qz.log.warn("Cannot determine stream type for callback", returned);
                                         break;
@@ -320,7 +331,22 @@ var qz = (function() {
                     //also gives the user a chance to deny the connection
                     function sendCert(cert) {
                         if (cert === undefined) { cert = null; }
-                        _qz.websocket.connection.sendData({ certificate: cert, promise: openPromise });
+
+                        var setup = { certificate: cert, promise: openPromise };
+                        if (_qz.binary.supported) {
+                            //older versions of qz ignore the request and reply without capabilities
+                            setup.capabilities = [_qz.binary.capability];
+                            setup.promise = {
+                                resolve: function(result) {
+                                    var agreed = (result && result.capabilities) || [];
+                                    _qz.websocket.connection.binary = agreed.indexOf(_qz.binary.capability) !== -1;
+                                    openPromise.resolve();
+                                },
+                                reject: openPromise.reject
+                            };
+                        }
+
+                        _qz.websocket.connection.sendData(setup);
                     }
 
                     _qz.security.callCert().then(sendCert).catch(sendCert);
@@ -402,9 +428,217 @@ var qz = (function() {
                 units: 'in',
 
                 altPrinting: false,
+                copyStrategy: 'loop',
                 encoding: null,
                 endOfDoc: null,
-                perSpool: 1
+                keepAlive: 0,
+                perSpool: 1,
+                singleConnection: false,
+                waitTimeout: 0
+            },
+
+            /** Builds the params of a print call, changing relative links to absolute. */
+            params: function(config, data) {
+                for(var i = 0; i < data.length; i++) {
+                    if (data[i].constructor === Object) {
+                        if ((!data[i].format && data[i].type && (data[i].type.toUpperCase() !== 'RAW' && data[i].type.toUpperCase() !== 'DIRECT')) //unspecified format and not raw -> assume file
+                            || (data[i].format && (data[i].format.toUpperCase() === 'FILE'
+                                || (data[i].format.toUpperCase() === 'IMAGE' && !(data[i].data.indexOf("data:image/") === 0 && data[i].data.indexOf(";base64,") !== 0))
+                                || data[i].format.toUpperCase() === 'XML'))) {
+                            data[i].data = _qz.tools.absolute(data[i].data);
+                        }
+                        if (data[i].options && typeof data[i].options.overlay === 'string') {
+                            data[i].options.overlay = _qz.tools.absolute(data[i].options.overlay);
+                        }
+                    }
+                }
+
+                return {
+                    printer: config.getPrinter(),
+                    options: config.getOptions(),
+                    data: data
+                };
+            }
+        },
+
+
+        jobs: {
+            /** List of functions called when a queued print job changes status. */
+            jobCallbacks: [],
+            /** Calls all functions registered to listen for print job events. */
+            callJob: function(streamEvent) {
+                if (Array.isArray(_qz.jobs.jobCallbacks)) {
+                    for(var i = 0; i < _qz.jobs.jobCallbacks.length; i++) {
+                        _qz.jobs.jobCallbacks[i](streamEvent);
+                    }
+                } else {
+                    _qz.jobs.jobCallbacks(streamEvent);
+                }
+            }
+        },
+
+
+        binary: {
+            /** Whether binary frames can be built and read in this environment. */
+            supported: typeof ArrayBuffer !== 'undefined' && typeof Uint8Array !== 'undefined' && typeof DataView !== 'undefined'
+                && typeof atob === 'function' && typeof btoa === 'function',
+            /** Capability name requested from QZ Tray when connecting. */
+            capability: 'binary',
+            /** Smallest base64 print data worth sending in a binary frame. */
+            minSize: 1024,
+
+            /** Checks for base64 that encodes back to the exact same text, so signatures made over the text still match. */
+            isBase64: function(data) {
+                return typeof data === 'string' && data.length % 4 === 0 && /^[A-Za-z0-9+\/]*={0,2}$/.test(data);
+            },
+
+            fromBase64: function(data) {
+                var raw = atob(data);
+                var bytes = new Uint8Array(raw.length);
+                for(var i = 0; i < raw.length; i++) {
+                    bytes[i] = raw.charCodeAt(i);
+                }
+                return bytes;
+            },
+
+            toBase64: function(bytes) {
+                var raw = '';
+                for(var i = 0; i < bytes.length; i += 0x8000) {
+                    raw += String.fromCharCode.apply(null, bytes.subarray(i, i + 0x8000));
+                }
+                return btoa(raw);
+            },
+
+            toHex: function(bytes) {
+                var hex = [];
+                for(var i = 0; i < bytes.length; i++) {
+                    hex.push(('0' + bytes[i].toString(16)).slice(-2));
+                }
+                return hex;
+            },
+
+            utf8Encode: function(text) {
+                return _qz.binary.fromBase64(btoa(unescape(encodeURIComponent(text))));
+            },
+
+            utf8Decode: function(bytes) {
+                var raw = '';
+                for(var i = 0; i < bytes.length; i += 0x8000) {
+                    raw += String.fromCharCode.apply(null, bytes.subarray(i, i + 0x8000));
+                }
+                return decodeURIComponent(escape(raw));
+            },
+
+            /** Converts byte array data of a device call to base64 (which is then sent as binary), other data is left as-is. */
+            deviceParams: function(deviceInfo) {
+                var data = deviceInfo.data;
+                if (typeof ArrayBuffer === 'undefined' || !(data instanceof ArrayBuffer || (ArrayBuffer.isView && ArrayBuffer.isView(data)))) {
+                    return deviceInfo;
+                }
+                if (!_qz.websocket.connection || !_qz.websocket.connection.binary) {
+                    throw new Error("Sending byte arrays requires a version of QZ Tray with binary support");
+                }
+
+                var params = {};
+                for(var key in deviceInfo) {
+                    if (deviceInfo.hasOwnProperty(key)) { params[key] = deviceInfo[key]; }
+                }
+
+                var bytes = (data instanceof ArrayBuffer) ? new Uint8Array(data) : new Uint8Array(data.buffer, data.byteOffset, data.byteLength);
+                params.data = _qz.binary.toBase64(bytes);
+                params.format = 'base64';
+
+                return params;
+            },
+
+            /**
+             * Builds a binary frame for a call, moving its base64 print data and device data out of the JSON.
+             * Frames hold a 4 byte header length, the JSON header, then the data referenced by <code>{ $binary: [offset, length] }</code> values.
+             * Returns null if the call has nothing to send as binary.
+             */
+            pack: function(obj) {
+                var params = obj.params;
+                if (!params) { return null; }
+
+                var payloads = [];
+                var offset = 0;
+
+                function reference(data) {
+                    var bytes = _qz.binary.fromBase64(data);
+                    payloads.push(bytes);
+
+                    var ref = { $binary: [offset, bytes.length] };
+                    offset += bytes.length;
+                    return ref;
+                }
+
+                function isBase64Format(format) {
+                    return typeof format === 'string' && format.toLowerCase() === 'base64';
+                }
+
+                //copy just what changes, so the caller's objects are left alone
+                var header = {}, key;
+                for(key in obj) {
+                    if (obj.hasOwnProperty(key)) { header[key] = obj[key]; }
+                }
+                header.params = {};
+                for(key in params) {
+                    if (params.hasOwnProperty(key)) { header.params[key] = params[key]; }
+                }
+
+                if ((obj.call === 'print' || obj.call === 'print.queue') && Array.isArray(params.data)) {
+                    header.params.data = [];
+                    for(var i = 0; i < params.data.length; i++) {
+                        var item = params.data[i];
+                        if (item && typeof item === 'object' && isBase64Format(item.format)
+                            && typeof item.data === 'string' && item.data.length >= _qz.binary.minSize && _qz.binary.isBase64(item.data)) {
+                            var copy = {};
+                            for(key in item) {
+                                if (item.hasOwnProperty(key)) { copy[key] = item[key]; }
+                            }
+                            copy.data = reference(item.data);
+                            item = copy;
+                        }
+                        header.params.data.push(item);
+                    }
+                } else if ((obj.call === 'usb.sendData' || obj.call === 'hid.sendData') && isBase64Format(params.format) && _qz.binary.isBase64(params.data)) {
+                    header.params.data = reference(params.data);
+                }
+
+                if (payloads.length === 0) { return null; }
+
+                var text = _qz.binary.utf8Encode(_qz.tools.stringify(header));
+                var frame = new Uint8Array(4 + text.length + offset);
+                new DataView(frame.buffer).setUint32(0, text.length);
+                frame.set(text, 4);
+
+                var position = 4 + text.length;
+                for(var p = 0; p < payloads.length; p++) {
+                    frame.set(payloads[p], position);
+                    position += payloads[p].length;
+                }
+
+                return frame.buffer;
+            },
+
+            /** Reads a binary frame from qz, stream output is converted to the same hex arrays text messages use. */
+            unpack: function(buffer) {
+                var length = new DataView(buffer).getUint32(0);
+                var returned = JSON.parse(_qz.binary.utf8Decode(new Uint8Array(buffer, 4, length)));
+                var start = 4 + length;
+
+                if (typeof returned.event === 'string') {
+                    var event = JSON.parse(returned.event);
+                    for(var key in event) {
+                        if (event.hasOwnProperty(key) && event[key] && event[key].$binary) {
+                            var range = event[key].$binary;
+                            event[key] = _qz.binary.toHex(new Uint8Array(buffer, start + range[0], range[1]));
+                        }
+                    }
+                    returned.event = JSON.stringify(event);
+                }
+
+                return returned;
             }
         },
 
@@ -855,9 +1089,18 @@ var qz = (function() {
              *  @param {string} [options.units='in'] Page units, applies to paper size, margins, and density. Valid value <code>[in | cm | mm]</code>
              *
              *  @param {boolean} [options.altPrinting=false] Print the specified file using CUPS command line arguments.  Has no effect on Windows.
+             *  @param {string} [options.copyStrategy='loop'] How raw copies are made. Valid values <code>[loop | concatenate | native | command | auto]</code>.
+             *      <code>[loop]</code> sends each copy separately, <code>[concatenate]</code> sends every copy as one job or connection,
+             *      <code>[native]</code> gives the copy count to the print job, and <code>[command]</code> uses <code>^PQ</code> or <code>P</code> with <code>[options.language]</code> ZPL or EPL.
+             *      <code>[auto]</code> uses the cheapest of these the printer and data allow.
+             *      Native and command copies print each label's copies together (A A B B rather than A B A B), and so may <code>[auto]</code>.
              *  @param {string} [options.encoding=null] Character set
              *  @param {string} [options.endOfDoc=null]
+             *  @param {number} [options.keepAlive=0] Seconds to keep a connection to a host printer open for reuse. Set to 0 to close after each spool.
+             *  @param {string} [options.language=null] Printer language of the raw data, such as <code>[ZPL | EPL | ESCPOS]</code>.
              *  @param {number} [options.perSpool=1] Number of pages per spool.
+             *  @param {boolean} [options.singleConnection=false] Send every spool and copy to a host printer over one connection.
+             *  @param {number} [options.waitTimeout=0] Seconds to wait for the print service to accept a raw job. Set to 0 to wait indefinitely.
              *
              * @memberof qz.configs
              */
@@ -911,6 +1154,13 @@ var qz = (function() {
          *   @param {number} [data.options.x] Optional with <code>[raw]</code> type <code>[image]</code> format. The X position of the image.
          *   @param {number} [data.options.y] Optional with <code>[raw]</code> type <code>[image]</code> format. The Y position of the image.
          *   @param {string|number} [data.options.dotDensity] Optional with <code>[raw]</code> type <code>[image]</code> format.
+         *   @param {string} [data.options.imageMode='column'] Optional with <code>[raw]</code> type <code>[image]</code> format and <code>[ESCPOS]</code> language.
+         *      Valid values include <code>[column | raster]</code>, for <code>ESC *</code> bit images or <code>GS v 0</code> raster images.
+         *   @param {string} [data.options.dithering] Optional with <code>[raw]</code> type <code>[image]</code> format.
+         *      Dithering used to print gray levels, valid values include <code>[floyd-steinberg | atkinson | bayer]</code>. Defaults to none.
+         *   @param {string} [data.options.compression='auto'] Optional with <code>[raw]</code> type <code>[image]</code> format and <code>[ZPL]</code> language.
+         *      Graphic field encoding, valid values include <code>[auto | none | acs | b64 | z64]</code>. <code>[auto]</code> picks the smaller of
+         *      <code>[none]</code> and <code>[acs]</code>, which work with all firmware. <code>[b64]</code> and <code>[z64]</code> need firmware x.14 or newer.
          *   @param {number} [data.precision=128] Optional with <code>[raw]</code> type <code>[image]</code> format. Bit precision of the ribbons.
          *   @param {boolean|string|Array<Array<number>>} [data.options.overlay=false] Optional with <code>[raw]</code> type <code>[image]</code> format.
          *      Boolean sets entire layer, string sets mask image, Array sets array of rectangles in format <code>[x1,y1,x2,y2]</code>.
@@ -920,34 +1170,81 @@ var qz = (function() {
          * @param {boolean} [signature] Pre-signed signature of JSON string containing <code>call</code>, <code>params</code>, and <code>timestamp</code>.
          * @param {number} [signingTimestamp] Required with <code>signature</code>. Timestamp used with pre-signed content.
          *
-         * @returns {Promise<null|Error>}
+         * @returns {Promise<Object|null|Error>} For <code>[raw]</code> printing, <code>{number} copies</code> and the
+         *                                       <code>{string} copyStrategy</code> used to print them.
+         *                                       For <code>[html]</code> printing, <code>{Array<number>} readyTimes</code>,
+         *                                       the milliseconds each page took to finish layout after loading.
          *
          * @see qz.config.create
          *
          * @memberof qz
          */
         print: function(config, data, signature, signingTimestamp) {
-            //change relative links to absolute
-            for(var i = 0; i < data.length; i++) {
-                if (data[i].constructor === Object) {
-                    if ((!data[i].format && data[i].type && (data[i].type.toUpperCase() !== 'RAW' && data[i].type.toUpperCase() !== 'DIRECT')) //unspecified format and not raw -> assume file
-                        || (data[i].format && (data[i].format.toUpperCase() === 'FILE'
-                            || (data[i].format.toUpperCase() === 'IMAGE' && !(data[i].data.indexOf("data:image/") === 0 && data[i].data.indexOf(";base64,") !== 0))
-                            || data[i].format.toUpperCase() === 'XML'))) {
-                        data[i].data = _qz.tools.absolute(data[i].data);
-                    }
-                    if (data[i].options && typeof data[i].options.overlay === 'string') {
-                        data[i].options.overlay = _qz.tools.absolute(data[i].options.overlay);
-                    }
-                }
-            }
+            return _qz.websocket.dataPromise('print', _qz.printing.params(config, data), signature, signingTimestamp);
+        },
+
 
-            var params = {
-                printer: config.getPrinter(),
-                options: config.getOptions(),
-                data: data
-            };
-            return _qz.websocket.dataPromise('print', params, signature, signingTimestamp);
+        /**
+         * Calls related to queued printing, where print requests are processed in the background.
+         * @namespace qz.jobs
+         */
+        jobs: {
+            /**
+             * Queue data to be printed in the background. Jobs sent to the same printer are printed in order.
+             * The promise for this method resolves as soon as the job is queued, status changes are sent to the job callbacks.
+             *
+             * @param {Object<Config>} config Previously created config object.
+             * @param {Array<Object|string>} data Array of data being sent to the printer. Same format as {@link qz.print}.
+             * @param {boolean} [signature] Pre-signed signature of JSON string containing <code>call</code>, <code>params</code>, and <code>timestamp</code>.
+             * @param {number} [signingTimestamp] Required with <code>signature</code>. Timestamp used with pre-signed content.
+             *
+             * @returns {Promise<string|Error>} Id of the queued print job.
+             *
+             * @see qz.jobs.setJobCallbacks
+             *
+             * @memberof qz.jobs
+             */
+            queue: function(config, data, signature, signingTimestamp) {
+                return _qz.websocket.dataPromise('print.queue', _qz.printing.params(config, data), signature, signingTimestamp);
+            },
+
+            /**
+             * @param {string} [jobId] Id of a queued print job. If omitted, returns the state of each printer queue.
+             *
+             * @returns {Promise<Object|Error>} Status of the print job.
+             *
+             * @memberof qz.jobs
+             */
+            status: function(jobId) {
+                return _qz.websocket.dataPromise('print.status', { jobId: jobId });
+            },
+
+            /**
+             * Cancel a queued print job that has not started printing.
+             *
+             * @param {string} jobId Id of a queued print job.
+             *
+             * @returns {Promise<null|Error>}
+             *
+             * @memberof qz.jobs
+             */
+            cancel: function(jobId) {
+                return _qz.websocket.dataPromise('print.cancel', { jobId: jobId });
+            },
+
+            /**
+             * List of functions called when a queued print job changes status.
+             * Event data will contain <code>{string} jobId</code>, <code>{string} printer</code> and
+             * <code>{string} status</code> <code>[QUEUED | PROCESSING | COMPLETE | CANCELED | ERROR]</code>.
+             *  For ERROR types, <code>{string} exception</code>. For COMPLETE types, the <code>{Object} result</code> of the print, if any.
+             *
+             * @param {Function|Array<Function>} calls Single or array of <code>Function({Object} eventData)</code> calls.
+             *
+             * @memberof qz.jobs
+             */
+            setJobCallbacks: function(calls) {
+                _qz.jobs.jobCallbacks = calls;
+            }
         },
 
 
@@ -1165,6 +1462,8 @@ var qz = (function() {
              *  @param deviceInfo.productId Hex string of USB device's product ID.
              *  @param deviceInfo.endpoint Hex string of endpoint on the claimed interface for the USB device.
              *  @param deviceInfo.data Bytes to send over specified endpoint.
+             *                        An <code>ArrayBuffer</code> or typed array is sent as raw binary, when supported by QZ Tray.
+             *  @param {string} [deviceInfo.format] Set to <code>'base64'</code> when <code>data</code> is a base64 encoded string.
              * @returns {Promise<null|Error>}
              *
              * @memberof qz.usb
@@ -1180,6 +1479,13 @@ var qz = (function() {
                     };
                 }
 
+                try {
+                    deviceInfo = _qz.binary.deviceParams(deviceInfo);
+                }
+                catch(err) {
+                    return _qz.tools.promise(function(resolve, reject) { reject(err); });
+                }
+
                 return _qz.websocket.dataPromise('usb.sendData', deviceInfo);
             },
 
@@ -1394,6 +1700,8 @@ var qz = (function() {
              *  @param deviceInfo.usagePage Hex string of HID device's usage page when multiple are present.
              *  @param deviceInfo.serial Serial ID of HID device.
              *  @param deviceInfo.data Bytes to send over specified endpoint.
+             *                        An <code>ArrayBuffer</code> or typed array is sent as raw binary, when supported by QZ Tray.
+             *  @param {string} [deviceInfo.format] Set to <code>'base64'</code> when <code>data</code> is a base64 encoded string.
              *  @param deviceInfo.endpoint=0x00 First byte of the data packet signifying the HID report ID.
              *                             Must be 0x00 for devices only supporting a single report.
              *  @param deviceInfo.reportId=0x00 Alias for <code>deviceInfo.endpoint</code>. Not used if endpoint is provided.
@@ -1413,6 +1721,13 @@ var qz = (function() {
                     };
                 }
 
+                try {
+                    deviceInfo = _qz.binary.deviceParams(deviceInfo);
+                }
+                catch(err) {
+                    return _qz.tools.promise(function(resolve, reject) { reject(err); });
+                }
+
                 return _qz.websocket.dataPromise('hid.sendData', deviceInfo);
             },
 
@@ -261,13 +261,19 @@ public class Certificate {
      * @return true if signature valid, false if not
      */
     public boolean isSignatureValid(String signature, String data) {
+        return isHashSignatureValid(signature, DigestUtils.sha256Hex(data));
+    }
+
+    /**
+     * Checks a signature against the SHA-256 hex {@code hash} of already digested data
+     */
+    public boolean isHashSignatureValid(String signature, String hash) {
         if (!signature.isEmpty()) {
             RSATool tool = RSAToolFactory.getRSATool();
             RSAKey thePublicKey = new RSAKeyImpl(theCertificate.getPublicKey());
 
             //On errors, assume failure.
             try {
-                String hash = DigestUtils.sha256Hex(data);
                 return tool.verifyWithKey(StringUtils.getBytesUtf8(hash), Base64.decode(signature), thePublicKey);
             }
             catch(Exception e) {
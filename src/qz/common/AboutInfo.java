@@ -5,7 +5,13 @@ import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qz.printer.CupsMetadata;
+import qz.printer.ImageCommandCache;
+import qz.printer.PageCache;
+import qz.printer.PrintServiceRegistry;
+import qz.printer.action.WebApp;
 import qz.utils.SystemUtilities;
+import qz.ws.PrintSocketClient;
 import qz.ws.PrintSocketServer;
 
 import java.security.KeyStore;
@@ -31,6 +37,12 @@ public class AboutInfo {
             about.put("environment", environment());
             about.put("ssl", ssl(keyStore));
             about.put("libraries", libraries());
+            about.put("connections", PrintSocketClient.getConnectionStatsJSON());
+            about.put("printers", PrintServiceRegistry.getStatsJSON());
+            about.put("printerMetadata", CupsMetadata.getStatsJSON());
+            about.put("imageCache", ImageCommandCache.getStatsJSON());
+            about.put("pageCache", PageCache.getStatsJSON());
+            about.put("htmlRenderers", htmlRenderers());
         }
         catch(JSONException | KeyStoreException e) {
             log.error("Failed to write JSON data", e);
@@ -92,6 +104,16 @@ public class AboutInfo {
         return ssl;
     }
 
+    private static JSONObject htmlRenderers() throws JSONException {
+        try {
+            return WebApp.getStatsJSON();
+        }
+        catch(NoClassDefFoundError e) {
+            //JavaFX libraries not found
+            return new JSONObject();
+        }
+    }
+
     private static JSONObject libraries() throws JSONException {
         JSONObject libraries = new JSONObject();
 
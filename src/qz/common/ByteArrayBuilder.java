@@ -12,28 +12,42 @@
 
 package qz.common;
 
-import org.apache.commons.lang3.ArrayUtils;
-
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Provides a simple and efficient way for concatenating byte arrays, similar
  * in purpose to <code>StringBuilder</code>. Objects of this class are not
  * thread safe and include no synchronization
+ * <p/>
+ * Contents are kept in a single primitive <code>byte</code> array (or a direct
+ * <code>ByteBuffer</code> when created with <code>direct</code> set), which grows
+ * by half its size when full.  Bytes cleared from the front are dropped by moving
+ * a start offset rather than shifting the remaining contents.
  *
  * @author Antoni Ten Monro's
  */
 @SuppressWarnings("UnusedDeclaration") //Library class
 public final class ByteArrayBuilder {
 
-    private List<Byte> buffer;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private byte[] buffer;      //heap storage, null if direct
+    private ByteBuffer direct;  //off-heap storage, null if not direct
+
+    private int start = 0;      //index of the first stored byte, inclusive
+    private int end = 0;        //index of the last stored byte, exclusive
 
 
     /**
-     * Creates a new <code>ByteArrayBuilder</code> and sets initial capacity to 10
+     * Creates a new <code>ByteArrayBuilder</code> and sets initial capacity to 16
      */
     public ByteArrayBuilder() {
         this(null);
@@ -50,13 +64,24 @@ public final class ByteArrayBuilder {
     }
 
     /**
-     * Creates a new <code>ByteArrayBuilder</code>, sets initial capacity to 10
+     * Creates a new <code>ByteArrayBuilder</code>, sets initial capacity to
+     * <code>initialCapacity</code> and optionally stores contents off-heap
+     *
+     * @param initialCapacity the initial capacity of the <code>ByteArrayBuilder</code>
+     * @param direct          whether contents are stored in a direct <code>ByteBuffer</code>
+     */
+    public ByteArrayBuilder(int initialCapacity, boolean direct) {
+        this(null, initialCapacity, direct);
+    }
+
+    /**
+     * Creates a new <code>ByteArrayBuilder</code>, sets initial capacity to 16
      * and appends <code>initialContents</code>
      *
      * @param initialContents the initial contents of the ByteArrayBuilder
      */
     public ByteArrayBuilder(byte[] initialContents) {
-        this(initialContents, 16);
+        this(initialContents, DEFAULT_CAPACITY);
     }
 
     /**
@@ -67,27 +92,71 @@ public final class ByteArrayBuilder {
      * @param initialCapacity the initial capacity of the <code>ByteArrayBuilder</code>
      */
     public ByteArrayBuilder(byte[] initialContents, int initialCapacity) {
-        buffer = new ArrayList<>(initialCapacity);
+        this(initialContents, initialCapacity, false);
+    }
+
+    /**
+     * Creates a new <code>ByteArrayBuilder</code>, sets initial capacity to
+     * <code>initialContents</code> and appends <code>initialContents</code>
+     *
+     * @param initialContents the initial contents of the <code>ByteArrayBuilder</code>
+     * @param initialCapacity the initial capacity of the <code>ByteArrayBuilder</code>
+     * @param direct          whether contents are stored in a direct <code>ByteBuffer</code>
+     */
+    public ByteArrayBuilder(byte[] initialContents, int initialCapacity, boolean direct) {
+        if (initialCapacity < 0) { throw new IllegalArgumentException("Capacity cannot be negative"); }
+        if (initialContents != null) {
+            initialCapacity = Math.max(initialCapacity, initialContents.length);
+        }
+
+        if (direct) {
+            this.direct = ByteBuffer.allocateDirect(initialCapacity);
+        } else {
+            buffer = new byte[initialCapacity];
+        }
+
         if (initialContents != null) {
             append(initialContents);
         }
     }
 
+    /**
+     * @return whether contents are stored in a direct <code>ByteBuffer</code>
+     */
+    public boolean isDirect() {
+        return direct != null;
+    }
+
     /**
      * Empties the <code>ByteArrayBuilder</code>
      */
     public void clear() {
-        buffer.clear();
+        start = 0;
+        end = 0;
     }
 
     /**
-     * Clear a portion of the <code>ByteArrayBuilder</code>
+     * Clear a portion of the <code>ByteArrayBuilder</code>.
+     * Clearing from the start or through to the end of the contents does not move any data.
      *
      * @param startIndex Starting index, inclusive
      * @param endIndex   Ending index, exclusive
      */
     public final void clearRange(int startIndex, int endIndex) {
-        buffer.subList(startIndex, endIndex).clear();
+        if (startIndex < 0 || endIndex > getLength() || startIndex > endIndex) {
+            throw new IndexOutOfBoundsException(String.format("Range [%d, %d) is outside of [0, %d)", startIndex, endIndex, getLength()));
+        }
+
+        if (startIndex == 0) {
+            start += endIndex;
+        } else if (endIndex == getLength()) {
+            end = start + startIndex;
+        } else {
+            move(start + endIndex, start + startIndex, end - (start + endIndex));
+            end -= endIndex - startIndex;
+        }
+
+        if (start == end) { clear(); }
     }
 
     /**
@@ -96,7 +165,41 @@ public final class ByteArrayBuilder {
      * @return the number of bytes in the <code>ByteArrayBuilder</code>
      */
     public int getLength() {
-        return buffer.size();
+        return end - start;
+    }
+
+    /**
+     * Returns the byte stored at <code>index</code>
+     *
+     * @param index position of the byte, relative to the start of the contents
+     * @return the byte at <code>index</code>
+     */
+    public byte get(int index) {
+        if (index < 0 || index >= getLength()) {
+            throw new IndexOutOfBoundsException(String.format("Index %d is outside of [0, %d)", index, getLength()));
+        }
+
+        return direct == null? buffer[start + index]:direct.get(start + index);
+    }
+
+    /**
+     * Appends a single byte to this <code>ByteArrayBuilder</code>.
+     * Returns this same object to allow chaining calls
+     *
+     * @param b the byte to append
+     * @return this <code>ByteArrayBuilder</code>
+     */
+    public final ByteArrayBuilder append(byte b) {
+        ensureCapacity(1);
+
+        if (direct == null) {
+            buffer[end] = b;
+        } else {
+            direct.put(end, b);
+        }
+        end++;
+
+        return this;
     }
 
     /**
@@ -107,16 +210,74 @@ public final class ByteArrayBuilder {
      * @return this <code>ByteArrayBuilder</code>
      */
     public final ByteArrayBuilder append(byte[] bytes) {
-        for(byte b : bytes) {
-            buffer.add(b);
+        return append(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Appends <code>len</code> bytes of <code>bytes</code>, starting at <code>off</code>,
+     * to this <code>ByteArrayBuilder</code>.
+     * Returns this same object to allow chaining calls
+     *
+     * @param bytes the byte array to append from
+     * @param off   offset of the first byte to append
+     * @param len   number of bytes to append
+     * @return this <code>ByteArrayBuilder</code>
+     */
+    public final ByteArrayBuilder append(byte[] bytes, int off, int len) {
+        if (off < 0 || len < 0 || off + len > bytes.length || off + len < 0) {
+            throw new IndexOutOfBoundsException(String.format("Range [%d, %d) is outside of [0, %d)", off, off + len, bytes.length));
         }
+
+        ensureCapacity(len);
+
+        if (direct == null) {
+            System.arraycopy(bytes, off, buffer, end, len);
+        } else {
+            ByteBuffer dest = direct.duplicate();
+            dest.position(end);
+            dest.put(bytes, off, len);
+        }
+        end += len;
+
         return this;
     }
 
     public final ByteArrayBuilder append(List<Byte> bytes) {
+        ensureCapacity(bytes.size());
         for(byte b : bytes) {
-            buffer.add(b);
+            append(b);
+        }
+        return this;
+    }
+
+    /**
+     * Appends the full contents of another <code>ByteArrayBuilder</code>.
+     * Returns this same object to allow chaining calls
+     *
+     * @param other the <code>ByteArrayBuilder</code> to append
+     * @return this <code>ByteArrayBuilder</code>
+     */
+    public final ByteArrayBuilder append(ByteArrayBuilder other) {
+        if (other == this) {
+            //making room may move the contents being copied, so take them first
+            return append(getByteArray());
         }
+        if (other.direct == null) {
+            return append(other.buffer, other.start, other.getLength());
+        }
+
+        ensureCapacity(other.getLength());
+
+        ByteBuffer src = other.asByteBuffer();
+        if (direct == null) {
+            src.get(buffer, end, src.remaining());
+        } else {
+            ByteBuffer dest = direct.duplicate();
+            dest.position(end);
+            dest.put(src);
+        }
+        end += other.getLength();
+
         return this;
     }
 
@@ -147,10 +308,118 @@ public final class ByteArrayBuilder {
     /**
      * Returns the full contents of this <code>ByteArrayBuilder</code> as
      * a single <code>byte</code> array.
+     * <p/>
+     * This always copies the contents, prefer <code>asByteBuffer()</code> or
+     * <code>writeTo(OutputStream)</code> when a copy is not needed.
      *
      * @return The contents of this <code>ByteArrayBuilder</code> as a single <code>byte</code> array
      */
     public byte[] getByteArray() {
-        return ArrayUtils.toPrimitive(buffer.toArray(new Byte[buffer.size()]));
+        byte[] bytes = new byte[getLength()];
+        if (direct == null) {
+            System.arraycopy(buffer, start, bytes, 0, bytes.length);
+        } else {
+            asByteBuffer().get(bytes);
+        }
+
+        return bytes;
     }
+
+    /**
+     * Returns a read-only view of the contents of this <code>ByteArrayBuilder</code>, without copying.
+     * The view is only valid until the next modification of this builder.
+     *
+     * @return The contents of this <code>ByteArrayBuilder</code> as a <code>ByteBuffer</code>
+     */
+    public ByteBuffer asByteBuffer() {
+        ByteBuffer view;
+        if (direct == null) {
+            view = ByteBuffer.wrap(buffer, start, getLength());
+        } else {
+            view = direct.duplicate();
+            view.limit(end).position(start);
+        }
+
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the full contents of this <code>ByteArrayBuilder</code> to <code>out</code>, without copying heap contents.
+     *
+     * @param out the stream to write to
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (direct == null) {
+            out.write(buffer, start, getLength());
+        } else {
+            ByteBuffer view = asByteBuffer();
+            WritableByteChannel channel = Channels.newChannel(out);
+            while(view.hasRemaining()) {
+                channel.write(view);
+            }
+        }
+    }
+
+
+    /**
+     * Makes room for <code>extra</code> bytes after the current contents,
+     * reclaiming cleared space at the front before growing the storage.
+     */
+    private void ensureCapacity(int extra) {
+        int capacity = direct == null? buffer.length:direct.capacity();
+        if (end + extra <= capacity) { return; }
+
+        int length = getLength();
+        if (length + extra < 0 || length + extra > MAX_CAPACITY) {
+            throw new OutOfMemoryError("Required capacity exceeds maximum array size");
+        }
+
+        if (length + extra <= capacity && start >= capacity / 2) {
+            //enough cleared space at the front, shift contents back instead of growing
+            move(start, 0, length);
+        } else {
+            int grown = capacity + (capacity >> 1);
+            if (grown < 0 || grown > MAX_CAPACITY) { grown = MAX_CAPACITY; }
+            int newCapacity = Math.max(Math.max(grown, length + extra), DEFAULT_CAPACITY);
+
+            if (direct == null) {
+                byte[] resized = new byte[newCapacity];
+                System.arraycopy(buffer, start, resized, 0, length);
+                buffer = resized;
+            } else {
+                ByteBuffer resized = ByteBuffer.allocateDirect(newCapacity);
+                resized.put(asByteBuffer());
+                direct = resized;
+            }
+        }
+
+        start = 0;
+        end = length;
+    }
+
+    /**
+     * Moves <code>len</code> stored bytes from index <code>from</code> down to index <code>to</code>,
+     * regions may overlap.
+     */
+    private void move(int from, int to, int len) {
+        if (len <= 0 || from == to) { return; }
+
+        if (direct == null) {
+            System.arraycopy(buffer, from, buffer, to, len);
+        } else {
+            //copying front to back in chunks is safe as long as data only moves towards the front
+            byte[] chunk = new byte[Math.min(len, Constants.BYTE_BUFFER_SIZE)];
+            ByteBuffer src = direct.duplicate();
+            src.limit(from + len).position(from);
+            ByteBuffer dest = direct.duplicate();
+            dest.position(to);
+
+            while(src.hasRemaining()) {
+                int count = Math.min(chunk.length, src.remaining());
+                src.get(chunk, 0, count);
+                dest.put(chunk, 0, count);
+            }
+        }
+    }
+
 }
@@ -12,6 +12,7 @@ public class Constants {
     public static final String HEXES = "0123456789ABCDEF";
     public static final char[] HEXES_ARRAY = HEXES.toCharArray();
     public static final int BYTE_BUFFER_SIZE = 8192;
+    public static final int SPOOL_THRESHOLD = 256 * 1024; // message string values longer than this many chars are kept on disk
     public static final Version VERSION = Version.valueOf("2.0.7");
     public static final Version JAVA_VERSION = SystemUtilities.getJavaVersion();
 
@@ -53,6 +54,35 @@ public class Constants {
     public static final Color TRUSTED_COLOR = Color.BLUE;
 
     public static final long MEMORY_PER_PRINT = 512; //MB
+    public static final long PDF_MAIN_MEMORY = 16 * 1024 * 1024; // bytes of each parsed PDF kept in memory, the rest goes to a scratch file
+
+    public static final int PRINT_QUEUE_SIZE = 64;      // jobs waiting per printer
+    public static final int PRINT_QUEUE_IDLE = 60;      // seconds before an idle printer worker stops
+    public static final int PRINT_QUEUE_HISTORY = 100;  // finished jobs kept for status calls
+
+    public static final int PRINT_WAIT_TIMEOUT = 0;     // seconds to wait on the print service for a job to finish, 0 for no limit
+
+    public static final int OUTBOUND_BACKLOG = 256;                 // stream messages waiting per connection before the policy applies
+    public static final String OUTBOUND_STREAM_POLICY = "coalesce"; // drop-newest, drop-oldest or coalesce
+
+    public static final int HOST_POOL_MAX_IDLE = 4;                 // idle raw printing sockets kept per host:port
+    public static final long HOST_POOL_EVICTION_INTERVAL = 5000;    // millis between idle socket checks
+    public static final int HOST_SEND_BUFFER_SIZE = 65536;          // bytes
+
+    public static final int PRINTER_REFRESH_INTERVAL = 60;          // seconds between background printer list refreshes, 0 to look up on every call
+    public static final int PRINTER_METADATA_TTL = 300;             // seconds before cached CUPS printer descriptions and densities are refreshed in the background
+    public static final int CUPS_PORT = 631;                        // port of the local CUPS scheduler, for IPP requests
+
+    public static final long IMAGE_CACHE_SIZE = 8 * 1024 * 1024;        // bytes of converted raw image commands kept in memory, 0 to disable
+    public static final long IMAGE_CACHE_DISK_SIZE = 64 * 1024 * 1024;  // bytes of converted raw image commands kept on disk, when enabled
+    public static final String IMAGE_CACHE_DIR = "image-cache";
+
+    public static final int HTML_RENDERERS = 2;                         // pages of html rendered at once, each with its own WebView
+    public static final long HTML_READY_TIMEOUT = 5000;                 // millis to wait for loaded html to finish layout before capturing anyway
+    public static final long HTML_CAPTURE_TIMEOUT = 60000;              // millis to wait for a page of html to load and be captured before giving up on it
+    public static final int HTML_TILE_HEIGHT = 2048;                    // pixels of html captured per snapshot, taller pages are captured in tiles
+
+    public static final long PAGE_CACHE_SIZE = 128 * 1024 * 1024;       // bytes of transformed image and html pages kept per print job, 0 to disable
 
     public static final String RAW_PRINT = ABOUT_TITLE + " Raw Print";
     public static final String IMAGE_PRINT = ABOUT_TITLE + " Pixel Print";
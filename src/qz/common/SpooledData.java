@@ -0,0 +1,581 @@
+package qz.common;
+
+import org.apache.commons.codec.binary.Base64InputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ReaderInputStream;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.codehaus.jettison.json.JSONString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A large JSON string value kept in a temp file instead of the heap.
+ * <p/>
+ * The file holds the value as it was written in the message, still JSON escaped, and is unescaped as it is read back.
+ * Values sent in binary frames are kept as raw bytes instead, and read back as text in base64.
+ * Values are placed in parsed messages in place of the original string, and are transparent to code that calls
+ * {@code toString()} on them, although streaming them with {@link #openReader()} or {@link #openStream(Object)} avoids
+ * loading them at all.
+ */
+public class SpooledData implements JSONString {
+
+    private static final Logger log = LoggerFactory.getLogger(SpooledData.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    //marks where a spooled value sits in serialized or placeholder text
+    private static final char MARKER = '\u0000';
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final AtomicLong nextId = new AtomicLong(1);
+    private static final ConcurrentHashMap<Long,SpooledData> spooled = new ConcurrentHashMap<>();
+
+    private final long id;
+    private final boolean binary;
+    private final File file;
+    private final Writer writer;
+    private final byte[] bytes;
+    private long length;
+
+
+    private SpooledData() throws IOException {
+        id = nextId.getAndIncrement();
+        binary = false;
+        file = createTempFile();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8), Constants.BYTE_BUFFER_SIZE);
+        bytes = null;
+
+        spooled.put(id, this);
+    }
+
+    private SpooledData(File file, byte[] bytes, long length) {
+        id = nextId.getAndIncrement();
+        binary = true;
+        this.file = file;
+        writer = null;
+        this.bytes = bytes;
+        this.length = length;
+
+        spooled.put(id, this);
+    }
+
+    private static File createTempFile() throws IOException {
+        File file = File.createTempFile("qz-data-", ".tmp");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Reads {@code length} raw bytes from {@code in}, keeping them in memory if small enough and on disk otherwise
+     */
+    public static SpooledData readBinary(InputStream in, long length) throws IOException {
+        if (length <= Constants.SPOOL_THRESHOLD) {
+            byte[] bytes = new byte[(int)length];
+            IOUtils.readFully(in, bytes);
+            return new SpooledData(null, bytes, length);
+        }
+
+        File file = createTempFile();
+        try(OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[Constants.BYTE_BUFFER_SIZE];
+            long remaining = length;
+            while(remaining > 0) {
+                int len = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                if (len == -1) { throw new EOFException("Binary frame ended before all data was read"); }
+                out.write(buffer, 0, len);
+                remaining -= len;
+            }
+        }
+        catch(IOException e) {
+            if (!file.delete()) { log.warn("Unable to delete {}", file); }
+            throw e;
+        }
+
+        log.debug("Spooled {} bytes to {}", length, file);
+        return new SpooledData(file, null, length);
+    }
+
+
+    /**
+     * Copies a message from {@code reader}, moving string values longer than {@link Constants#SPOOL_THRESHOLD}
+     * into temp files as they are read.  The returned text is valid JSON with a placeholder in place of each spooled value,
+     * which {@link #resolve(Object, Map)} swaps for the {@code SpooledData} once parsed.
+     * <p/>
+     * Placeholders carry a random token made for this message, so a string sent by a client can't stand in for one.
+     *
+     * @param spools Filled with the values spooled from this message, keyed by their placeholder
+     */
+    public static String readMessage(Reader reader, Map<String,SpooledData> spools) throws IOException {
+        StringBuilder message = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        SpooledData current = null;
+        String token = null;
+
+        boolean inString = false;
+        boolean escaped = false;
+
+        char[] buffer = new char[Constants.BYTE_BUFFER_SIZE];
+        int len;
+        try {
+            while((len = reader.read(buffer)) != -1) {
+                for(int i = 0; i < len; i++) {
+                    char c = buffer[i];
+
+                    if (!inString) {
+                        message.append(c);
+                        if (c == '"') {
+                            inString = true;
+                            literal.setLength(0);
+                        }
+                        continue;
+                    }
+
+                    if (!escaped && c == '"') {
+                        inString = false;
+                        if (current != null) {
+                            current.close();
+                            if (token == null) { token = Long.toHexString(random.nextLong()); }
+
+                            String placeholder = MARKER + token + ":" + current.id;
+                            spools.put(placeholder, current);
+                            message.append("\\u0000").append(token).append(':').append(current.id).append('"');
+                            current = null;
+                        } else {
+                            message.append(literal).append('"');
+                        }
+                        continue;
+                    }
+                    escaped = !escaped && c == '\\';
+
+                    if (current != null) {
+                        current.writer.write(c);
+                        current.length++;
+                    } else {
+                        literal.append(c);
+                        if (literal.length() > Constants.SPOOL_THRESHOLD && !escaped) {
+                            current = new SpooledData();
+                            current.writer.append(literal);
+                            current.length = literal.length();
+                            literal.setLength(0);
+                        }
+                    }
+                }
+            }
+        }
+        catch(IOException e) {
+            if (current != null) { current.release(); }
+            releaseAll(spools);
+            throw e;
+        }
+
+        if (current != null) {
+            //unterminated string, let the JSON parser complain about it
+            current.release();
+            message.append(literal);
+        } else if (inString) {
+            message.append(literal);
+        }
+
+        return message.toString();
+    }
+
+    /**
+     * Replaces placeholders left by {@link #readMessage(Reader, Map)} with their spooled values, throughout a parsed message.
+     * Each value is removed from {@code spools} as it is placed, and any string that isn't one of them is left as it was.
+     */
+    public static void resolve(Object json, Map<String,SpooledData> spools) throws JSONException {
+        if (spools.isEmpty()) { return; }
+
+        if (json instanceof JSONObject) {
+            JSONObject obj = (JSONObject)json;
+            Iterator keys = obj.keys();
+            while(keys.hasNext()) {
+                String key = (String)keys.next();
+                SpooledData data = lookup(obj.get(key), spools);
+                if (data != null) {
+                    obj.put(key, data);
+                } else {
+                    resolve(obj.get(key), spools);
+                }
+            }
+        } else if (json instanceof JSONArray) {
+            JSONArray arr = (JSONArray)json;
+            for(int i = 0; i < arr.length(); i++) {
+                SpooledData data = lookup(arr.get(i), spools);
+                if (data != null) {
+                    arr.put(i, data);
+                } else {
+                    resolve(arr.get(i), spools);
+                }
+            }
+        }
+    }
+
+    private static SpooledData lookup(Object value, Map<String,SpooledData> spools) {
+        if (value instanceof String && ((String)value).startsWith(String.valueOf(MARKER))) {
+            return spools.remove(value);
+        }
+
+        return null;
+    }
+
+    /**
+     * Deletes the temp files of spooled values, such as those {@link #resolve(Object, Map)} didn't place in a message
+     */
+    public static void releaseAll(Map<String,SpooledData> spools) {
+        for(SpooledData data : spools.values()) {
+            data.release();
+        }
+        spools.clear();
+    }
+
+    /**
+     * Deletes the temp files of all spooled values in a parsed message
+     */
+    public static void releaseAll(Object json) {
+        if (json instanceof SpooledData) {
+            ((SpooledData)json).release();
+        } else if (json instanceof JSONObject) {
+            JSONObject obj = (JSONObject)json;
+            Iterator keys = obj.keys();
+            while(keys.hasNext()) {
+                releaseAll(obj.opt((String)keys.next()));
+            }
+        } else if (json instanceof JSONArray) {
+            JSONArray arr = (JSONArray)json;
+            for(int i = 0; i < arr.length(); i++) {
+                releaseAll(arr.opt(i));
+            }
+        }
+    }
+
+    /**
+     * Opens a value from a parsed message as UTF-8 bytes, streaming it from disk if it was spooled
+     */
+    public static InputStream openStream(Object value) throws IOException {
+        if (value instanceof SpooledData) {
+            return new ReaderInputStream(((SpooledData)value).openReader(), UTF8, Constants.BYTE_BUFFER_SIZE);
+        }
+
+        return new ByteArrayInputStream(String.valueOf(value).getBytes(UTF8));
+    }
+
+    /**
+     * Opens a base64 value from a parsed message as the bytes it encodes.
+     * Values sent in binary frames are already decoded and are returned as-is.
+     */
+    public static InputStream openBase64(Object value) throws IOException {
+        if (value instanceof SpooledData && ((SpooledData)value).binary) {
+            return ((SpooledData)value).openRaw();
+        }
+
+        return new Base64InputStream(openStream(value));
+    }
+
+    /**
+     * SHA-256 hex digest of serialized JSON as used for request signatures, with any {@code \/} escapes removed.
+     * Spooled values are streamed into the digest as they would have been serialized, rather than loaded.
+     */
+    public static String sha256Hex(String json) throws IOException {
+        try {
+            DigestWriter digest = new DigestWriter(MessageDigest.getInstance("SHA-256"));
+
+            for(int i = 0; i < json.length(); i++) {
+                char c = json.charAt(i);
+                if (c == MARKER) {
+                    int end = json.indexOf(MARKER, i + 1);
+                    SpooledData data = (end > 0? find(json.substring(i + 1, end)):null);
+                    if (data != null) {
+                        data.writeQuoted(digest);
+                        i = end;
+                        continue;
+                    }
+                }
+
+                digest.write(c);
+            }
+
+            return digest.toHex();
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+
+    /**
+     * Finds a value by the id in its {@link #toJSONString()} marker. Serialized client strings never hold a raw marker,
+     * since control characters are always escaped, so these markers only come from values in the message itself.
+     */
+    private static SpooledData find(String id) {
+        try { return spooled.get(Long.parseLong(id)); }
+        catch(NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Number of characters in the value as escaped in the original message, or number of bytes if binary
+     */
+    public long length() {
+        return length;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Reads the unescaped value back from disk, binary values are read as base64
+     */
+    public Reader openReader() throws IOException {
+        if (binary) {
+            return new InputStreamReader(new Base64InputStream(openRaw(), true, 0, null), "US-ASCII");
+        }
+
+        return new UnescapingReader(new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8), Constants.BYTE_BUFFER_SIZE));
+    }
+
+    private InputStream openRaw() throws IOException {
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        return new BufferedInputStream(new FileInputStream(file), Constants.BYTE_BUFFER_SIZE);
+    }
+
+    /**
+     * Deletes the temp file, the value can no longer be read afterward
+     */
+    public void release() {
+        if (spooled.remove(id) != null && file != null) {
+            if (writer != null) {
+                try { writer.close(); } catch(IOException ignore) {}
+            }
+            if (!file.delete()) {
+                log.warn("Unable to delete {}", file);
+            }
+        }
+    }
+
+    private void close() throws IOException {
+        writer.close();
+        log.debug("Spooled {} characters to {}", length, file);
+    }
+
+    /**
+     * Writes the value quoted and escaped as {@code JSONObject.quote} would
+     */
+    private void writeQuoted(Writer out) throws IOException {
+        out.write('"');
+        try(Reader reader = openReader()) {
+            int c;
+            while((c = reader.read()) != -1) {
+                switch(c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        out.write('\\');
+                        out.write(c);
+                        break;
+                    case '\b':
+                        out.write("\\b");
+                        break;
+                    case '\t':
+                        out.write("\\t");
+                        break;
+                    case '\n':
+                        out.write("\\n");
+                        break;
+                    case '\f':
+                        out.write("\\f");
+                        break;
+                    case '\r':
+                        out.write("\\r");
+                        break;
+                    default:
+                        if (c < ' ') {
+                            out.write(String.format("\\u%04x", c));
+                        } else {
+                            out.write(c);
+                        }
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Loads the whole value into memory, for code that cannot stream it
+     */
+    @Override
+    public String toString() {
+        StringBuilder value = new StringBuilder((int)Math.min(length, Integer.MAX_VALUE));
+        try(Reader reader = openReader()) {
+            char[] buffer = new char[Constants.BYTE_BUFFER_SIZE];
+            int len;
+            while((len = reader.read(buffer)) != -1) {
+                value.append(buffer, 0, len);
+            }
+        }
+        catch(IOException e) {
+            log.error("Unable to read spooled data from {}", file, e);
+        }
+
+        return value.toString();
+    }
+
+    /**
+     * Serialized JSON holds a marker in place of the value, see {@link #sha256Hex(String)}
+     */
+    @Override
+    public String toJSONString() {
+        return MARKER + String.valueOf(id) + MARKER;
+    }
+
+
+    /**
+     * Unescapes JSON string content as it is read
+     */
+    private static class UnescapingReader extends Reader {
+
+        private final Reader in;
+
+        UnescapingReader(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = in.read();
+            if (c != '\\') { return c; }
+
+            c = in.read();
+            switch(c) {
+                case 'b': return '\b';
+                case 't': return '\t';
+                case 'n': return '\n';
+                case 'f': return '\f';
+                case 'r': return '\r';
+                case 'u':
+                    char[] hex = new char[4];
+                    for(int i = 0; i < hex.length; i++) {
+                        int h = in.read();
+                        if (h == -1) { throw new EOFException("Incomplete unicode escape"); }
+                        hex[i] = (char)h;
+                    }
+                    try { return Integer.parseInt(new String(hex), 16); }
+                    catch(NumberFormatException e) {
+                        throw new IOException("Invalid unicode escape \\u" + new String(hex));
+                    }
+                default:
+                    return c; // \" \\ \/
+            }
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int count = 0;
+            while(count < len) {
+                int c = read();
+                if (c == -1) { break; }
+                cbuf[off + count++] = (char)c;
+            }
+
+            return (count == 0 && len > 0)? -1:count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+    }
+
+    /**
+     * Feeds characters into a digest as UTF-8, dropping the escape from any {@code \/}
+     */
+    private static class DigestWriter extends Writer {
+
+        private final MessageDigest digest;
+        private final StringBuilder pending = new StringBuilder();
+        private boolean backslash = false;
+
+        DigestWriter(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void write(int c) {
+            if (backslash) {
+                backslash = false;
+                if (c != '/') { update('\\'); }
+                if (c == '\\') {
+                    backslash = true;
+                    return;
+                }
+            } else if (c == '\\') {
+                backslash = true;
+                return;
+            }
+
+            update((char)c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for(int i = off; i < off + len; i++) {
+                write(cbuf[i]);
+            }
+        }
+
+        private void update(char c) {
+            pending.append(c);
+            //don't split surrogate pairs between updates
+            if (pending.length() >= Constants.BYTE_BUFFER_SIZE && !Character.isHighSurrogate(c)) {
+                flush();
+            }
+        }
+
+        @Override
+        public void flush() {
+            digest.update(pending.toString().getBytes(UTF8));
+            pending.setLength(0);
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+
+        String toHex() {
+            if (backslash) {
+                backslash = false;
+                update('\\');
+            }
+            flush();
+
+            StringBuilder hex = new StringBuilder();
+            for(byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+
+            return hex.toString();
+        }
+
+    }
+
+}
@@ -80,15 +80,16 @@ public class SerialIO {
 
                 if (width == null) {
                     //delimited response
-                    Integer[] beginPos = ByteUtilities.indicesOfMatches(data.getByteArray(), dataBegin);
-                    Integer[] endPos = ByteUtilities.indicesOfMatches(data.getByteArray(), dataEnd);
+                    byte[] buffered = data.getByteArray();
+                    Integer[] beginPos = ByteUtilities.indicesOfMatches(buffered, dataBegin);
+                    Integer[] endPos = ByteUtilities.indicesOfMatches(buffered, dataEnd);
 
                     if (beginPos.length > 0 && endPos.length > 0) {
                         int begin = beginPos[0] + 1;
                         int end = endPos[0];
 
                         byte[] output = new byte[end - begin];
-                        System.arraycopy(data.getByteArray(), begin, output, 0, end - begin);
+                        System.arraycopy(buffered, begin, output, 0, end - begin);
 
                         data.clearRange(begin - 1, end + 1); //begin/end indexes don't include delimiters
                         return StringUtils.newStringUtf8(output);
@@ -96,7 +97,9 @@ public class SerialIO {
                 } else if (data.getLength() >= width) {
                     //fixed width response
                     byte[] output = new byte[width];
-                    System.arraycopy(data.getByteArray(), 0, output, 0, width);
+                    for(int i = 0; i < width; i++) {
+                        output[i] = data.get(i);
+                    }
 
                     data.clearRange(0, width);
                     return StringUtils.newStringUtf8(output);
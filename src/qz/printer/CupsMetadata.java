@@ -0,0 +1,355 @@
+package qz.printer;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.common.Constants;
+import qz.utils.ShellUtilities;
+import qz.utils.SystemUtilities;
+import qz.ws.PrintSocketServer;
+
+import javax.print.attribute.standard.PrinterResolution;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cached CUPS printer ids, descriptions and default densities, for CUPS capable OSs.
+ * <p/>
+ * Printers are listed with a single IPP {@code CUPS-Get-Printers} request when the scheduler can be reached, or
+ * with the command line tools otherwise. Densities the scheduler doesn't report are looked up with {@code lpoptions}
+ * the first time each printer's density is asked for.
+ * <p/>
+ * Only the first lookup waits for the metadata. Once it is older than {@code printer.metadata.ttl} seconds, calls
+ * return the cached values while a refresh runs in the background. Asking for a printer that isn't known refreshes
+ * right away, so a newly added printer is picked up, and names still unknown afterwards aren't refreshed for again
+ * until the metadata expires.
+ */
+public class CupsMetadata {
+
+    private static final Logger log = LoggerFactory.getLogger(CupsMetadata.class);
+
+    //minimum age of the metadata before an unknown printer refreshes it again
+    private static final long MISS_REFRESH_AGE = 1000;
+    //shell commands run at once when falling back to the command line tools
+    private static final int SHELL_THREADS = 8;
+
+    private static final Object refreshLock = new Object();
+    private static volatile Snapshot snapshot;
+    private static final AtomicBoolean refreshing = new AtomicBoolean(false);
+    //print service name -> time a refresh last failed to find it
+    private static final ConcurrentHashMap<String,Long> misses = new ConcurrentHashMap<>();
+
+    private static ExecutorService executor;
+    private static int ttl = -1;
+
+    private static final AtomicLong refreshes = new AtomicLong(0);
+    private static final AtomicLong backgroundRefreshes = new AtomicLong(0);
+
+
+    private CupsMetadata() {}
+
+    /**
+     * Gets the printerId for use with CUPS
+     *
+     * @param printerName Name of the print service
+     * @return Id of the printer, which is its name unless the OS names printers by their description
+     */
+    public static String getPrinterId(String printerName) {
+        Snapshot current = getSnapshot();
+        String id = current.ids.get(printerName);
+
+        if (id == null && isWorthRefreshing(printerName, current)) {
+            log.debug("No CUPS printer matching {}, refreshing printer metadata", printerName);
+            current = refresh(System.currentTimeMillis());
+            id = current.ids.get(printerName);
+
+            if (id == null) {
+                misses.put(printerName, current.completed);
+            }
+        }
+
+        if (id == null) {
+            if (SystemUtilities.isMac()) {
+                log.warn("Could not locate printerId matching {}", printerName);
+            }
+            return printerName;
+        }
+
+        return id;
+    }
+
+    /**
+     * @return The default density of the printer, or {@code null} if it isn't known
+     */
+    public static PrinterResolution getDensity(final String printerId) {
+        Snapshot current = getSnapshot();
+
+        PrinterResolution density = current.densities.get(printerId);
+        if (density != null) { return density; }
+
+        //not reported by the scheduler, so looked up on its own the first time it's needed
+        FutureTask<PrinterResolution> lookup = new FutureTask<>(new Callable<PrinterResolution>() {
+            @Override
+            public PrinterResolution call() {
+                return ShellUtilities.getCupsDensity(printerId);
+            }
+        });
+        Future<PrinterResolution> existing = current.shellDensities.putIfAbsent(printerId, lookup);
+        if (existing == null) {
+            lookup.run();
+            existing = lookup;
+        }
+
+        try {
+            return existing.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch(ExecutionException e) {
+            log.warn("Failed to fetch density of {}", printerId, e.getCause());
+            return null;
+        }
+    }
+
+    public static JSONObject getStatsJSON() throws JSONException {
+        Snapshot current = snapshot;
+
+        JSONObject stats = new JSONObject()
+                .put("refreshes", refreshes.get())
+                .put("backgroundRefreshes", backgroundRefreshes.get())
+                .put("ttl", getTtl());
+
+        if (current != null) {
+            stats.put("printers", current.ids.size())
+                    .put("densities", current.densities.size())
+                    .put("densityLookups", current.shellDensities.size())
+                    .put("source", current.source)
+                    .put("age", System.currentTimeMillis() - current.completed)
+                    .put("lookupTime", current.lookupTime);
+        }
+
+        return stats;
+    }
+
+
+    private static Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return refresh(System.currentTimeMillis());
+        }
+
+        if (System.currentTimeMillis() - current.completed > getTtl() * 1000L && refreshing.compareAndSet(false, true)) {
+            final long requested = System.currentTimeMillis();
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh(requested);
+                        backgroundRefreshes.incrementAndGet();
+                    }
+                    catch(Exception e) {
+                        log.warn("Failed to refresh printer metadata", e);
+                    }
+                    finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        }
+
+        return current;
+    }
+
+    /**
+     * Whether looking for an unknown printer should fetch the metadata again
+     */
+    private static boolean isWorthRefreshing(String printerName, Snapshot current) {
+        long now = System.currentTimeMillis();
+        if (now - current.completed <= MISS_REFRESH_AGE) { return false; }
+
+        Long missed = misses.get(printerName);
+        return missed == null || now - missed > getTtl() * 1000L;
+    }
+
+    /**
+     * Fetches the metadata again, unless a fetch already finished after {@code requested}
+     */
+    private static Snapshot refresh(long requested) {
+        synchronized(refreshLock) {
+            Snapshot current = snapshot;
+            if (current != null && current.completed >= requested) {
+                return current;
+            }
+
+            long start = System.currentTimeMillis();
+            current = null;
+            if (IppClient.isAvailable()) {
+                try {
+                    current = fromIpp(start);
+                }
+                catch(IOException e) {
+                    log.warn("Unable to list printers over IPP, using lpstat", e);
+                }
+            }
+            if (current == null) {
+                current = fromShell(start);
+            }
+            log.debug("Found metadata for {} CUPS printers in {}ms", current.ids.size(), current.lookupTime);
+
+            snapshot = current;
+            refreshes.incrementAndGet();
+
+            //forget misses old enough to be looked for again
+            Iterator<Map.Entry<String,Long>> it = misses.entrySet().iterator();
+            while(it.hasNext()) {
+                if (current.completed - it.next().getValue() > getTtl() * 1000L) { it.remove(); }
+            }
+
+            return current;
+        }
+    }
+
+    private static Snapshot fromIpp(long start) throws IOException {
+        Map<String,String> ids = new HashMap<>();
+        Map<String,PrinterResolution> densities = new HashMap<>();
+
+        for(IppClient.Printer printer : IppClient.getPrinters()) {
+            ids.put(getServiceName(printer.getName(), printer.getInfo()), printer.getName());
+
+            if (printer.getResolution() != null) {
+                densities.put(printer.getName(), printer.getResolution());
+            }
+        }
+
+        return new Snapshot("ipp", ids, densities, start);
+    }
+
+    private static Snapshot fromShell(long start) {
+        final List<String> printerIds = ShellUtilities.getCupsPrinterIds();
+
+        Map<String,String> ids = new HashMap<>();
+        if (SystemUtilities.isMac()) {
+            List<Callable<String>> tasks = new ArrayList<>();
+            for(final String printerId : printerIds) {
+                tasks.add(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return ShellUtilities.getCupsDescription(printerId);
+                    }
+                });
+            }
+
+            List<String> descriptions = invokeAll(tasks);
+            for(int i = 0; i < printerIds.size(); i++) {
+                ids.put(getServiceName(printerIds.get(i), descriptions.get(i)), printerIds.get(i));
+            }
+        } else {
+            for(String printerId : printerIds) {
+                ids.put(printerId, printerId);
+            }
+        }
+
+        return new Snapshot("shell", ids, Collections.<String,PrinterResolution>emptyMap(), start);
+    }
+
+    /**
+     * Mac names print services after the printer description, other OSs use the CUPS printer id
+     */
+    private static String getServiceName(String printerId, String description) {
+        return SystemUtilities.isMac() && description != null? description:printerId;
+    }
+
+    /**
+     * Runs the tasks on the shell pool, with {@code null} for any that failed
+     */
+    private static <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (tasks.isEmpty()) { return results; }
+
+        try {
+            for(Future<T> future : getExecutor().invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                }
+                catch(ExecutionException e) {
+                    log.warn("Failed to fetch printer metadata", e.getCause());
+                    results.add(null);
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            while(results.size() < tasks.size()) {
+                results.add(null);
+            }
+        }
+
+        return results;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(SHELL_THREADS, new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "printer-metadata-" + ++count);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        return executor;
+    }
+
+    private static synchronized int getTtl() {
+        if (ttl < 0) {
+            ttl = Constants.PRINTER_METADATA_TTL;
+
+            Properties props = PrintSocketServer.getTrayProperties();
+            if (props != null && props.containsKey("printer.metadata.ttl")) {
+                try { ttl = Integer.parseInt(props.getProperty("printer.metadata.ttl").trim()); }
+                catch(NumberFormatException e) {
+                    log.warn("Invalid printer.metadata.ttl {}, using {}", props.getProperty("printer.metadata.ttl"), ttl);
+                }
+            }
+        }
+
+        return ttl;
+    }
+
+
+    /**
+     * Metadata from a single fetch
+     */
+    private static class Snapshot {
+
+        private final String source;
+        //print service name -> CUPS printer id
+        private final Map<String,String> ids;
+        //CUPS printer id -> default density reported by the scheduler
+        private final Map<String,PrinterResolution> densities;
+        //CUPS printer id -> default density looked up with lpoptions
+        private final ConcurrentHashMap<String,Future<PrinterResolution>> shellDensities = new ConcurrentHashMap<>();
+        private final long completed;
+        private final long lookupTime;
+
+        Snapshot(String source, Map<String,String> ids, Map<String,PrinterResolution> densities, long started) {
+            this.source = source;
+            this.ids = ids;
+            this.densities = densities;
+            this.completed = System.currentTimeMillis();
+            this.lookupTime = completed - started;
+        }
+
+    }
+
+}
@@ -0,0 +1,195 @@
+package qz.printer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.common.ByteArrayBuilder;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds ESC/POS image commands from packed monochrome rows.
+ * <ul>
+ * <li><code>COLUMN</code>: <code>ESC *</code> bit images, one band of 8 or 24 dots high per line, each byte a slice of a column</li>
+ * <li><code>RASTER</code>: <code>GS v 0</code> raster blocks, which take the packed rows as they are</li>
+ * </ul>
+ * The packed rows already match the raster format, so only column bands need encoding.
+ * Every column band is encoded into its own region of a single preallocated array, in parallel for large images, and the
+ * array is appended once all bands are done. Nothing is streamed to the printer early, as the commands are sent as a whole.
+ * <p/>
+ * See also: http://android-essential-devtopics.blogspot.com/2013/02/sending-bit-image-to-epson-printer.html
+ */
+public class EscPosRaster {
+
+    private static final Logger log = LoggerFactory.getLogger(EscPosRaster.class);
+
+    //images with fewer pixels than this are encoded on the calling thread
+    private static final int PARALLEL_PIXELS = 1 << 18;
+    //rows per GS v 0 block, kept small enough for printers with limited receive buffers
+    private static final int RASTER_ROWS = 256;
+
+    public enum Mode {
+        COLUMN, RASTER;
+
+        public static Mode parse(String value, Mode fallback) {
+            if (value != null && !value.isEmpty()) {
+                try { return Mode.valueOf(value.trim().toUpperCase()); }
+                catch(IllegalArgumentException e) {
+                    log.warn("Unknown ESC/POS image mode {}, using {}", value, fallback);
+                }
+            }
+
+            return fallback;
+        }
+    }
+
+    private final byte[] packed;
+    private final int width;
+    private final int height;
+    private final int rowBytes;
+
+
+    /**
+     * @param packed Image rows, packed one bit per dot with black as 1's
+     */
+    public EscPosRaster(byte[] packed, int width, int height) {
+        this.packed = packed;
+        this.width = width;
+        this.height = height;
+        this.rowBytes = (width + 7) / 8;
+    }
+
+    /**
+     * Appends {@code ESC *} bands, with the line spacing set to the band height while printing
+     *
+     * @param density Value of {@code m}; 0 and 1 are 8-dot modes, others are 24-dot modes
+     */
+    public void appendColumns(ByteArrayBuilder builder, final int density) {
+        final int sliceBytes = (density == 0 || density == 1)? 1:3;
+        final int bandRows = sliceBytes * 8;
+        final int bandLength = 5 + width * sliceBytes + 1;
+        int bands = (height + bandRows - 1) / bandRows;
+
+        // Set the line spacing to the band height, so bands print without gaps between them
+        builder.append(new byte[] {0x1B, 0x33, (byte)bandRows});
+
+        encode(builder, bands, bandLength, new Encoder() {
+            @Override
+            public void encode(int band, byte[] out, int offset) {
+                out[offset] = 0x1B;
+                out[offset + 1] = 0x2A;
+                out[offset + 2] = (byte)density;
+                out[offset + 3] = (byte)(width % 256);
+                out[offset + 4] = (byte)(width / 256);
+                int data = offset + 5;
+
+                // Each column takes sliceBytes bytes, top dot in the high bit of the first byte.
+                // Rows are read in order, setting their bit in every column, so the packed data is read sequentially.
+                int top = band * bandRows;
+                for(int r = 0; r < bandRows && top + r < height; r++) {
+                    int in = (top + r) * rowBytes;
+                    int slice = r >> 3;
+                    int bit = 0x80 >> (r & 7);
+
+                    for(int xb = 0; xb < rowBytes; xb++) {
+                        int dots = packed[in + xb] & 0xFF;
+                        if (dots == 0) { continue; }
+
+                        int x = xb << 3;
+                        for(int mask = 0x80; mask != 0 && x < width; mask >>= 1, x++) {
+                            if ((dots & mask) != 0) {
+                                out[data + x * sliceBytes + slice] |= bit;
+                            }
+                        }
+                    }
+                }
+
+                out[offset + bandLength - 1] = 10; // newline to move to the next band
+            }
+        });
+
+        // Restore the line spacing to the default of 30 dots
+        builder.append(new byte[] {0x1B, 0x33, 30});
+    }
+
+    /**
+     * Appends {@code GS v 0} blocks of up to {@value #RASTER_ROWS} rows at normal scale
+     */
+    public void appendRaster(ByteArrayBuilder builder) {
+        int bands = (height + RASTER_ROWS - 1) / RASTER_ROWS;
+        int lastRows = height - (bands - 1) * RASTER_ROWS;
+
+        for(int band = 0; band < bands; band++) {
+            int rows = (band == bands - 1)? lastRows:RASTER_ROWS;
+            builder.append(new byte[] {0x1D, 0x76, 0x30, 0,
+                                       (byte)(rowBytes % 256), (byte)(rowBytes / 256),
+                                       (byte)(rows % 256), (byte)(rows / 256)});
+            builder.append(packed, band * RASTER_ROWS * rowBytes, rows * rowBytes);
+        }
+    }
+
+
+    private interface Encoder {
+        /**
+         * Writes a band into {@code out} starting at {@code offset}, the region is zeroed beforehand
+         */
+        void encode(int band, byte[] out, int offset);
+    }
+
+    /**
+     * Encodes fixed length bands into one array, then appends it to the builder
+     */
+    private void encode(ByteArrayBuilder builder, int bands, int bandLength, Encoder encoder) {
+        byte[] out = new byte[bands * bandLength];
+
+        if ((long)width * height < PARALLEL_PIXELS || bands < 2) {
+            for(int band = 0; band < bands; band++) {
+                encoder.encode(band, out, band * bandLength);
+            }
+        } else {
+            MonochromePacker.getPool().invoke(new Bands(encoder, out, bandLength, 0, bands));
+        }
+
+        builder.append(out);
+    }
+
+
+    /**
+     * Range of bands, split in half until small enough to encode directly
+     */
+    private static class Bands extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        //bands encoded by a single task
+        private static final int BAND_BATCH = 4;
+
+        private final Encoder encoder;
+        private final byte[] out;
+        private final int bandLength;
+        private final int fromBand;
+        private final int toBand;
+
+        Bands(Encoder encoder, byte[] out, int bandLength, int fromBand, int toBand) {
+            this.encoder = encoder;
+            this.out = out;
+            this.bandLength = bandLength;
+            this.fromBand = fromBand;
+            this.toBand = toBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBand - fromBand <= BAND_BATCH) {
+                for(int band = fromBand; band < toBand; band++) {
+                    encoder.encode(band, out, band * bandLength);
+                }
+                return;
+            }
+
+            int mid = (fromBand + toBand) >>> 1;
+            invokeAll(new Bands(encoder, out, bandLength, fromBand, mid), new Bands(encoder, out, bandLength, mid, toBand));
+        }
+
+    }
+
+}
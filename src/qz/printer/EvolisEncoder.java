@@ -0,0 +1,206 @@
+package qz.printer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.common.ByteArrayBuilder;
+
+import java.awt.image.BufferedImage;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the Evolis {@code Db} ribbon panel commands for an image: yellow, magenta and cyan at the requested precision,
+ * then black and the optional overlay at precision 2.
+ * <p/>
+ * Each panel reads the image's raster a row at a time into a byte per pixel, then packs those values into the panel data.
+ * Panels are independent, so for large images they are built in parallel and appended in order.
+ */
+public class EvolisEncoder {
+
+    private static final Logger log = LoggerFactory.getLogger(EvolisEncoder.class);
+
+    //images with fewer pixels than this are encoded on the calling thread
+    private static final int PARALLEL_PIXELS = 1 << 18;
+
+    private static final int RED = 16;
+    private static final int GREEN = 8;
+    private static final int BLUE = 0;
+    private static final int BLACK = -1;
+
+    private final BufferedImage image;
+    private final int width;
+    private final int height;
+    private final Charset charset;
+
+
+    public EvolisEncoder(BufferedImage image, Charset charset) {
+        this.image = image;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.charset = charset;
+    }
+
+    /**
+     * @param precision Levels per color panel
+     * @param overlay   Overlay panel, 1 to coat a pixel and 0 to leave it, or {@code null} for no overlay panel
+     */
+    public void append(ByteArrayBuilder builder, int precision, byte[] overlay) throws UnsupportedEncodingException {
+        List<Panel> panels = new ArrayList<>();
+        panels.add(new Panel('y', precision, BLUE, null));
+        panels.add(new Panel('m', precision, GREEN, null));
+        panels.add(new Panel('c', precision, RED, null));
+
+        //K(black) and O(overlay) are always precision 2
+        panels.add(new Panel('k', 2, BLACK, null));
+        if (overlay != null) {
+            panels.add(new Panel('o', 2, BLACK, overlay));
+        }
+
+        List<Future<byte[]>> results = new ArrayList<>();
+        boolean parallel = (long)width * height >= PARALLEL_PIXELS && MonochromePacker.isThreadSafe(image.getColorModel());
+        for(Panel panel : panels) {
+            if (parallel) {
+                results.add(MonochromePacker.getPool().submit(panel));
+            }
+        }
+
+        for(int i = 0; i < panels.size(); i++) {
+            Panel panel = panels.get(i);
+            log.debug("Building ribbon 'Db;{};{};..'", panel.ribbon, panel.precision);
+
+            byte[] data;
+            try {
+                data = parallel? results.get(i).get():panel.call();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while encoding image", e);
+            }
+            catch(ExecutionException e) {
+                throw new IllegalStateException("Failed to encode image", e.getCause());
+            }
+
+            builder.append("\u001BDb;" + panel.ribbon + ";" + panel.precision + ";", charset);
+            builder.append(data);
+            builder.append((byte)0x0D);
+        }
+    }
+
+
+    private class Panel implements Callable<byte[]> {
+
+        private final char ribbon;
+        private final int precision;
+        private final int channel;
+        private final byte[] values;
+
+        /**
+         * @param channel Bit offset of the color channel this panel inverts, or {@code BLACK} for pure black pixels
+         * @param values  Values to use instead of reading the image
+         */
+        Panel(char ribbon, int precision, int channel, byte[] values) {
+            this.ribbon = ribbon;
+            this.precision = precision;
+            this.channel = channel;
+            this.values = values;
+        }
+
+        @Override
+        public byte[] call() {
+            return compactBits(precision, values != null? values:readValues());
+        }
+
+        /**
+         * Reads a value per pixel at this panel's precision. Pure black pixels only print on the black panel.
+         */
+        private byte[] readValues() {
+            byte[] levels = new byte[256];
+            for(int c = 0; c < levels.length; c++) {
+                //same float math the levels have always used, so output stays byte for byte the same
+                levels[c] = byteValue(1.0f - c / 255f, precision);
+            }
+            byte black = byteValue(1.0f, precision);
+
+            byte[] out = new byte[width * height];
+            int[] row = new int[width];
+            MonochromePacker.RowReader reader = MonochromePacker.createReader(image);
+            int i = 0;
+            for(int y = 0; y < height; y++) {
+                reader.read(y, row);
+
+                for(int x = 0; x < width; x++, i++) {
+                    int rgb = row[x] & 0xFFFFFF;
+                    if (channel == BLACK) {
+                        out[i] = rgb == 0? black:0;
+                    } else {
+                        out[i] = rgb == 0? 0:levels[(rgb >> channel) & 0xFF];
+                    }
+                }
+            }
+
+            return out;
+        }
+
+    }
+
+    /**
+     * Packs panel values into bytes, {@code precisionBits(precision)} bits per value
+     */
+    static byte[] compactBits(int precision, byte[] colorData) {
+        byte[] bytes = new byte[colorData.length];
+        int length = 0;
+
+        int bits = precisionBits(precision);
+        int empty = 8 - bits;
+
+        for(int i = 0; i < colorData.length; i++) {
+            byte b = 0;
+            int captured = 0;
+
+            b |= colorData[i] << empty;
+            captured += 8 - empty;
+
+            while(captured < 8 && (i + 1) < colorData.length) {
+                int excess = bits - empty;
+
+                if (excess > 0) { //because negative shifts don't go backwards
+                    b |= colorData[i + 1] >> excess;
+                } else {
+                    b |= colorData[i + 1] << Math.abs(excess);
+                }
+                captured += bits - Math.max(0, excess);
+                if (captured < 8 && excess <= 0) { i++; } //if we've eaten an entire color point but haven't filled the byte, increase index looking at
+
+                empty = 8 - excess;
+                if (empty > 8) { empty -= 8; } //wrap around so we never shift over a byte length
+            }
+
+            bytes[length++] = b;
+        }
+
+        byte[] packed = new byte[length];
+        System.arraycopy(bytes, 0, packed, 0, length);
+        return packed;
+    }
+
+    private static int precisionBits(int precision) {
+        precision--;  // "128" is actually 0-127, subtract one
+        int ones = 0;
+        while(precision > 0) {
+            if (precision % 2 != 0) { ones++; }
+            precision /= 2;
+        }
+
+        return ones;
+    }
+
+    private static byte byteValue(float value, int precision) {
+        return (byte)(value * (precision - 1));
+    }
+
+}
@@ -0,0 +1,264 @@
+package qz.printer;
+
+import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.EvictionConfig;
+import org.apache.commons.pool2.impl.EvictionPolicy;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.common.ByteArrayBuilder;
+import qz.common.Constants;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Keyed pool of open sockets for raw printing to {@code host:port} targets.
+ * <p/>
+ * Connections borrowed with a keep-alive of {@code 0} are closed when released, matching the
+ * previous one-socket-per-write behavior.  Otherwise they are kept open and reused until idle
+ * for longer than their keep-alive.
+ */
+public class HostConnectionPool {
+
+    private static final Logger log = LoggerFactory.getLogger(HostConnectionPool.class);
+
+    //bytes from the printer looked past when checking a connection
+    private static final int REPLY_BUFFER_SIZE = 1024;
+
+    private static GenericKeyedObjectPool<String,Connection> pool;
+
+
+    private HostConnectionPool() {}
+
+    private static synchronized GenericKeyedObjectPool<String,Connection> getPool() {
+        if (pool == null) {
+            pool = new GenericKeyedObjectPool<>(new ConnectionFactory());
+            pool.setMaxTotal(-1);
+            pool.setMaxTotalPerKey(-1);
+            pool.setMaxIdlePerKey(Constants.HOST_POOL_MAX_IDLE);
+            pool.setBlockWhenExhausted(false);
+            pool.setTestOnBorrow(true);
+            pool.setTestWhileIdle(false);
+            pool.setNumTestsPerEvictionRun(-1); //check all idle connections each run
+            pool.setTimeBetweenEvictionRunsMillis(Constants.HOST_POOL_EVICTION_INTERVAL);
+            pool.setEvictionPolicyClassName(KeepAlivePolicy.class.getName());
+        }
+
+        return pool;
+    }
+
+    /**
+     * Borrows an open connection to {@code host:port}, reusing an idle connection when available
+     *
+     * @param keepAlive Seconds to keep the connection open for reuse once released, {@code 0} to close on release
+     */
+    public static Connection borrow(String host, int port, int keepAlive) throws IOException {
+        try {
+            Connection connection = getPool().borrowObject(host + ":" + port);
+            connection.keepAlive = keepAlive;
+
+            return connection;
+        }
+        catch(IOException e) {
+            throw e;
+        }
+        catch(Exception e) {
+            throw new IOException(String.format("Unable to connect to %s:%s", host, port), e);
+        }
+    }
+
+    /**
+     * Returns a connection for reuse, or closes it if it isn't being kept alive
+     */
+    public static void release(Connection connection) {
+        if (connection.keepAlive > 0 && connection.isOpen()) {
+            getPool().returnObject(connection.key, connection);
+        } else {
+            invalidate(connection);
+        }
+    }
+
+    /**
+     * Closes a connection without returning it to the pool
+     */
+    public static void invalidate(Connection connection) {
+        if (connection.invalidated) { return; }
+        connection.invalidated = true;
+
+        try {
+            getPool().invalidateObject(connection.key, connection);
+        }
+        catch(Exception e) {
+            log.warn("Failed to close connection to {}", connection.key, e);
+        }
+    }
+
+    /**
+     * Writes {@code data} over a borrowed connection.
+     * A reused connection is checked before anything is sent, and replaced with a new connection if the printer closed it.
+     * Once sending has started a failed write is not retried, as the printer may already have printed part of the data.
+     *
+     * @return The connection used for the write, which may differ from the one provided
+     */
+    public static Connection write(Connection connection, ByteArrayBuilder data) throws IOException {
+        if (connection.uses == 0 || connection.isOpen()) {
+            connection.write(data);
+            return connection;
+        }
+
+        log.warn("Connection to {} was closed, reconnecting", connection.key);
+        int keepAlive = connection.keepAlive;
+        invalidate(connection);
+
+        Connection replaced = borrow(connection.host, connection.port, keepAlive);
+        try {
+            replaced.write(data);
+        }
+        catch(IOException e) {
+            invalidate(replaced);
+            throw e;
+        }
+
+        return replaced;
+    }
+
+
+    /**
+     * A single open socket to a raw printing host
+     */
+    public static class Connection {
+
+        private final String key;
+        private final String host;
+        private final int port;
+        private final Socket socket;
+        private final OutputStream out;
+        //bytes the printer sends back are put back after checking the connection, so they aren't lost to whatever reads them
+        private final PushbackInputStream in;
+
+        private int keepAlive = 0;
+        private int uses = 0;
+        private volatile boolean invalidated;
+
+        private Connection(String host, int port) throws IOException {
+            this.key = host + ":" + port;
+            this.host = host;
+            this.port = port;
+
+            socket = new Socket();
+            socket.setTcpNoDelay(true); //whole documents are written at once, no benefit to coalescing
+            socket.setSendBufferSize(Constants.HOST_SEND_BUFFER_SIZE);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port));
+
+            out = socket.getOutputStream();
+            in = new PushbackInputStream(socket.getInputStream(), REPLY_BUFFER_SIZE);
+        }
+
+        private void write(ByteArrayBuilder data) throws IOException {
+            data.writeTo(out);
+            out.flush();
+            uses++;
+        }
+
+        /**
+         * Checks that the socket is still connected and the printer hasn't closed its end, without consuming anything it sent
+         */
+        private boolean isOpen() {
+            if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+                return false;
+            }
+            if (uses == 0) { return true; }
+
+            //read past anything the printer sent to look for the end of stream, then put it all back
+            byte[] replies = new byte[REPLY_BUFFER_SIZE];
+            int length = 0;
+            try {
+                while(length < REPLY_BUFFER_SIZE && in.available() > 0) {
+                    int read = in.read(replies, length, Math.min(in.available(), REPLY_BUFFER_SIZE - length));
+                    if (read == -1) { return false; }
+                    length += read;
+                }
+                if (length == REPLY_BUFFER_SIZE) {
+                    return true; //the printer is still sending, so it's still connected
+                }
+
+                socket.setSoTimeout(1);
+                try {
+                    int read = in.read();
+                    if (read == -1) { return false; }
+
+                    replies[length++] = (byte)read;
+                    return true;
+                }
+                finally {
+                    socket.setSoTimeout(0);
+                }
+            }
+            catch(SocketTimeoutException e) {
+                return true; //nothing more to read, but still connected
+            }
+            catch(IOException e) {
+                return false;
+            }
+            finally {
+                try { in.unread(replies, 0, length); } catch(IOException ignore) {}
+            }
+        }
+
+        private void close() {
+            try { socket.close(); } catch(IOException ignore) {}
+        }
+
+    }
+
+    private static class ConnectionFactory extends BaseKeyedPooledObjectFactory<String,Connection> {
+
+        @Override
+        public Connection create(String key) throws Exception {
+            int split = key.lastIndexOf(':');
+            String host = key.substring(0, split);
+            int port = Integer.parseInt(key.substring(split + 1));
+
+            log.debug("Opening connection to {}", key);
+            return new Connection(host, port);
+        }
+
+        @Override
+        public PooledObject<Connection> wrap(Connection connection) {
+            return new DefaultPooledObject<>(connection);
+        }
+
+        @Override
+        public boolean validateObject(String key, PooledObject<Connection> p) {
+            return p.getObject().isOpen();
+        }
+
+        @Override
+        public void destroyObject(String key, PooledObject<Connection> p) throws Exception {
+            log.debug("Closing connection to {}", key);
+            p.getObject().close();
+        }
+
+    }
+
+    /**
+     * Evicts idle connections once they pass their own keep-alive time
+     */
+    public static class KeepAlivePolicy implements EvictionPolicy<Connection> {
+
+        @Override
+        public boolean evict(EvictionConfig config, PooledObject<Connection> underTest, int idleCount) {
+            return underTest.getIdleTimeMillis() > underTest.getObject().keepAlive * 1000L;
+        }
+
+    }
+
+}
@@ -0,0 +1,257 @@
+package qz.printer;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.common.Constants;
+import qz.utils.ByteUtilities;
+import qz.utils.SystemUtilities;
+import qz.ws.PrintSocketServer;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of printer commands generated from raw images, so an image printed again, such as a
+ * logo on every receipt, skips decoding and conversion.
+ * <p/>
+ * Entries are keyed by a hash of the image content and its conversion options. Memory use is limited by
+ * {@code image.cache.size} bytes. Setting {@code image.cache.disk=true} also keeps commands in the data directory,
+ * up to {@code image.cache.disk.size} bytes, so they survive restarts.
+ */
+public class ImageCommandCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageCommandCache.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final LinkedHashMap<String,byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long bytes;
+
+    private static boolean configured;
+    private static long maxSize;
+    private static long maxDiskSize;
+    private static File directory;
+
+    private static final AtomicLong hits = new AtomicLong(0);
+    private static final AtomicLong diskHits = new AtomicLong(0);
+    private static final AtomicLong misses = new AtomicLong(0);
+    private static final AtomicLong evictions = new AtomicLong(0);
+
+
+    private ImageCommandCache() {}
+
+    /**
+     * @param content Raw bytes of the image file
+     * @param options Everything that affects the conversion, such as the language and raw options
+     * @return Key for the converted commands
+     */
+    public static String key(byte[] content, String options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content);
+            digest.update((byte)0);
+            digest.update(options.getBytes(UTF8));
+
+            return ByteUtilities.bytesToHex(digest.digest(), false);
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return Cached commands, which must not be modified, or {@code null} if none are cached for the key
+     */
+    public static byte[] get(String key) {
+        if (!isEnabled()) { return null; }
+
+        byte[] commands;
+        synchronized(entries) {
+            commands = entries.get(key);
+        }
+        if (commands != null) {
+            hits.incrementAndGet();
+            return commands;
+        }
+
+        commands = readDisk(key);
+        if (commands != null) {
+            diskHits.incrementAndGet();
+            store(key, commands);
+            return commands;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public static void put(String key, byte[] commands) {
+        if (!isEnabled()) { return; }
+
+        store(key, commands);
+        writeDisk(key, commands);
+    }
+
+    private static void store(String key, byte[] commands) {
+        if (commands.length > maxSize) { return; }
+
+        synchronized(entries) {
+            byte[] previous = entries.put(key, commands);
+            bytes += commands.length - (previous == null? 0:previous.length);
+
+            Iterator<Map.Entry<String,byte[]>> it = entries.entrySet().iterator();
+            while(bytes > maxSize && it.hasNext()) {
+                bytes -= it.next().getValue().length;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized(entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public static JSONObject getStatsJSON() throws JSONException {
+        JSONObject stats = new JSONObject()
+                .put("hits", hits.get())
+                .put("diskHits", diskHits.get())
+                .put("misses", misses.get())
+                .put("evictions", evictions.get());
+
+        synchronized(entries) {
+            stats.put("entries", entries.size())
+                    .put("bytes", bytes);
+        }
+
+        return stats.put("maxBytes", isEnabled()? maxSize:0)
+                .put("disk", directory != null);
+    }
+
+
+    private static synchronized boolean isEnabled() {
+        if (!configured) {
+            maxSize = Constants.IMAGE_CACHE_SIZE;
+            maxDiskSize = Constants.IMAGE_CACHE_DISK_SIZE;
+
+            Properties props = PrintSocketServer.getTrayProperties();
+            if (props != null) {
+                maxSize = parseSize(props, "image.cache.size", maxSize);
+                maxDiskSize = parseSize(props, "image.cache.disk.size", maxDiskSize);
+
+                if (Boolean.parseBoolean(props.getProperty("image.cache.disk", "false")) && maxSize > 0 && maxDiskSize > 0) {
+                    File dir = new File(SystemUtilities.getDataDirectory(), Constants.IMAGE_CACHE_DIR);
+                    if (dir.isDirectory() || dir.mkdirs()) {
+                        directory = dir;
+                    } else {
+                        log.warn("Unable to create image cache directory {}", dir);
+                    }
+                }
+            }
+
+            configured = true;
+        }
+
+        return maxSize > 0;
+    }
+
+    private static long parseSize(Properties props, String name, long fallback) {
+        if (props.containsKey(name)) {
+            try { return Long.parseLong(props.getProperty(name).trim()); }
+            catch(NumberFormatException e) {
+                log.warn("Invalid {} {}, using {}", name, props.getProperty(name), fallback);
+            }
+        }
+
+        return fallback;
+    }
+
+    private static byte[] readDisk(String key) {
+        if (directory == null) { return null; }
+
+        File file = new File(directory, key);
+        if (!file.isFile()) { return null; }
+
+        try {
+            byte[] commands = Files.readAllBytes(file.toPath());
+            //modification time tracks use, for pruning
+            file.setLastModified(System.currentTimeMillis());
+            return commands;
+        }
+        catch(IOException e) {
+            log.warn("Unable to read cached image commands {}", file, e);
+            return null;
+        }
+    }
+
+    private static void writeDisk(String key, byte[] commands) {
+        if (directory == null || commands.length > maxDiskSize) { return; }
+
+        File temp = null;
+        try {
+            //written under another name first, so a partial file is never read back
+            temp = File.createTempFile(key, TEMP_SUFFIX, directory);
+            Files.write(temp.toPath(), commands);
+            Files.move(temp.toPath(), new File(directory, key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(IOException e) {
+            log.warn("Unable to write cached image commands", e);
+            if (temp != null && !temp.delete()) { temp.deleteOnExit(); }
+            return;
+        }
+
+        pruneDisk();
+    }
+
+    /**
+     * Deletes the least recently used files until the directory is back under its limit.
+     * Files still being written by another thread are left alone.
+     */
+    private static synchronized void pruneDisk() {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !file.getName().endsWith(TEMP_SUFFIX);
+            }
+        });
+        if (files == null) { return; }
+
+        long total = 0;
+        for(File file : files) {
+            total += file.length();
+        }
+        if (total <= maxDiskSize) { return; }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+
+        for(File file : files) {
+            if (total <= maxDiskSize) { break; }
+
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+}
@@ -25,7 +25,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Abstract wrapper for images to be printed with thermal printers.
@@ -70,14 +70,14 @@ public class ImageWrapper {
     public static final int CHECK_ALPHA = 2;
 
     private int lumaThreshold = 127;
-    private boolean[] imageAsBooleanArray;        //Image representation as an array of boolean, with true values representing imageAsBooleanArray dots
-    private int[] imageAsIntArray;                //Image representation as an array of ints, with each bit representing a imageAsBooleanArray dot
+    private byte[] imageAsBytes;                  //Image representation packed one bit per dot, each row starting on a new byte
     private ByteArrayBuilder byteBuffer = new ByteArrayBuilder();
     private int alphaThreshold = 127;
     private BufferedImage bufferedImage;
     private LanguageType languageType;
     private Charset charset = Charset.defaultCharset();
     private int imageQuantizationMethod = CHECK_LUMA;
+    private Quantizer.Type dithering;  // Dithering used instead of the quantization method, null for none
     private int xPos = 0;   // X coordinate used for EPL2, CPCL.  Irrelevant for ZPLII, ESC/POS, etc
     private int yPos = 0;   // Y coordinate used for EPL2, CPCL.  Irrelevant for ZPLII, ESC/POS, etc
     private int dotDensity = 32;  // Generally 32 = Single (normal) 33 = Double (higher res) for ESC/POS.  Irrelevant for all other languages.
@@ -191,6 +191,27 @@ public class ImageWrapper {
         this.alphaThreshold = alphaThreshold;
     }
 
+    /**
+     * Returns the dithering applied when converting the image to monochrome,
+     * or {@code null} if the quantization method is used instead.
+     *
+     * @return the current dithering type
+     */
+    public Quantizer.Type getDithering() {
+        return dithering;
+    }
+
+    /**
+     * Sets the dithering applied when converting the image to monochrome.
+     * Dithering replaces the quantization method, and uses the luma threshold
+     * as the gray level to dither around.
+     *
+     * @param dithering the dithering type to set, {@code null} for none
+     */
+    public void setDithering(Quantizer.Type dithering) {
+        this.dithering = dithering;
+    }
+
     public int getDotDensity() {
         return dotDensity;
     }
@@ -216,61 +237,24 @@ public class ImageWrapper {
     }
 
     /**
-     * Tests if a given pixel should be black. Multiple quantization algorithms
-     * are available. The quantization method should be adjusted with
-     * setQuantizationMethod. Should an invalid value be set as the
-     * quantization method, CHECK_BLACK will be used
-     *
-     * @param rgbPixel the color of the pixel as defined in getRGB()
-     * @return true if the pixel should be black, false otherwise
-     */
-    private boolean isBlack(int rgbPixel) {
-        Color color = new Color(rgbPixel, true);
-
-        int r = color.getRed();
-        int g = color.getGreen();
-        int b = color.getBlue();
-        int a = color.getAlpha();
-        switch(getImageQuantizationMethod()) {
-            case CHECK_LUMA:
-                if (a < getLumaThreshold()) {
-                    return false; // assume pixels that are less opaque than the luma threshold should be considered to be white
-                }
-
-                int luma = ((r * 299) + (g * 587) + (b * 114)) / 1000; //luma formula
-                return luma < getLumaThreshold(); //pixels that have less luma than the threshold are black
-            case CHECK_ALPHA:
-                return a > getAlphaThreshold(); //pixels that are more opaque than the threshold are black
-            case CHECK_BLACK: //only fully black pixels are black
-            default:
-                return color.equals(Color.BLACK); //The default
-
-        }
-    }
-
-    /**
-     * Sets ImageAsBooleanArray. boolean is used instead of int for memory
-     * considerations.
+     * Converts the image to monochrome, packing each row into bytes.
+     * <p/>
+     * It makes most sense to have black pixels as 1's and white pixels
+     * as zero's, however some printer manufacturers had this reversed
+     * and used 0's for the black pixels.  EPL is a common language that
+     * uses 0's for black pixels.
+     * See also: https://support.zebra.com/cpws/docs/eltron/gw_command.htm
      */
-    private boolean[] generateBlackPixels(BufferedImage bi) {
+    private byte[] generateBlackPixels(BufferedImage bi) {
         log.info("Converting image to monochrome");
-        int h = bi.getHeight();
-        int w = bi.getWidth();
-        int[] rgbPixels = bi.getRGB(0, 0, w, h, null, 0, w);
-
-       /*
-        * It makes most sense to have black pixels as 1's and white pixels
-        * as zero's, however some printer manufacturers had this reversed
-        * and used 0's for the black pixels.  EPL is a common language that
-        * uses 0's for black pixels.
-        * See also: https://support.zebra.com/cpws/docs/eltron/gw_command.htm
-        */
-        boolean[] pixels = new boolean[rgbPixels.length];
-        for(int i = 0; i < rgbPixels.length; i++) {
-            pixels[i] = languageType.requiresImageOutputInverted() != isBlack(rgbPixels[i]);
+        Quantizer quantizer = null;
+        if (dithering != null) {
+            log.info("Dithering with {}", dithering);
+            quantizer = Quantizer.create(dithering, bi.getWidth(), getLumaThreshold());
         }
 
-        return pixels;
+        return new MonochromePacker(bi, getImageQuantizationMethod(), getLumaThreshold(), getAlphaThreshold(),
+                                    languageType.requiresImageOutputInverted(), quantizer).pack();
     }
 
     /**
@@ -280,25 +264,7 @@ public class ImageWrapper {
      * @return The raw bytes that compose the image
      */
     private byte[] getBytes() {
-        log.info("Generating byte array");
-        int[] ints = getImageAsIntArray();
-        byte[] bytes = new byte[ints.length];
-        for(int i = 0; i < ints.length; i++) {
-            bytes[i] = (byte)ints[i];
-        }
-
-        return bytes;
-    }
-
-    private void generateIntArray() {
-        log.info("Packing bits");
-        imageAsIntArray = new int[imageAsBooleanArray.length / 8];
-        // Convert every eight zero's to a full byte, in decimal
-        for(int i = 0; i < imageAsIntArray.length; i++) {
-            for(int k = 0; k < 8; k++) {
-                imageAsIntArray[i] += (imageAsBooleanArray[8 * i + k]? 1:0) << 7 - k;
-            }
-        }
+        return getImageAsBytes();
     }
 
     /**
@@ -315,18 +281,17 @@ public class ImageWrapper {
             case ESCP:
             case ESCP2:
             case ESCPOS:
-                appendEpsonSlices(getByteBuffer());
+                EscPosRaster raster = new EscPosRaster(getImageAsBytes(), getWidth(), getHeight());
+                if (EscPosRaster.Mode.parse(opt.optString("imageMode", null), EscPosRaster.Mode.COLUMN) == EscPosRaster.Mode.RASTER) {
+                    raster.appendRaster(getByteBuffer());
+                } else {
+                    raster.appendColumns(getByteBuffer(), getDotDensity());
+                }
                 break;
             case ZPL:
             case ZPLII:
-                String zplHexAsString = ByteUtilities.getHexString(getImageAsIntArray());
-                int byteLen = zplHexAsString.length() / 2;
-                int perRow = byteLen / getHeight();
-                StringBuilder zpl = new StringBuilder("^GFA,")
-                        .append(byteLen).append(",").append(byteLen).append(",")
-                        .append(perRow).append(",").append(zplHexAsString);
-
-                getByteBuffer().append(zpl, charset);
+                ZplGraphic.Compression compression = ZplGraphic.Compression.parse(opt.optString("compression", null), ZplGraphic.Compression.AUTO);
+                getByteBuffer().append(ZplGraphic.encode(getImageAsBytes(), (getWidth() + 7) / 8, compression), charset);
                 break;
             case EPL:
             case EPL2:
@@ -339,7 +304,7 @@ public class ImageWrapper {
                 getByteBuffer().append(epl, charset).append(getBytes()).append(new byte[] {10});
                 break;
             case CPCL:
-                String cpclHexAsString = ByteUtilities.getHexString(getImageAsIntArray());
+                String cpclHexAsString = ByteUtilities.bytesToHex(getImageAsBytes());
                 StringBuilder cpcl = new StringBuilder("EG ")
                         .append(getWidth() / 8).append(" ")
                         .append(getHeight()).append(" ")
@@ -350,28 +315,18 @@ public class ImageWrapper {
                 getByteBuffer().append(cpcl, charset).append(new byte[] {13, 10});
                 break;
             case EVOLIS:
-                try {
-                    ArrayList<float[]> cymkData = convertToCYMK();
-                    int precision = opt.optInt("precision", 128);
-
-                    // Y,M,C,K,O ribbon
-                    generateRibbonData('y', precision, cymkData.get(1));
-                    generateRibbonData('m', precision, cymkData.get(2));
-                    generateRibbonData('c', precision, cymkData.get(0));
-
-                    //K(black) and O(overlay) are always precision 2
-                    generateRibbonData('k', 2, cymkData.get(3));
-
-                    if (opt.has("overlay")) {
-                        try { generateRibbonData('o', 2, parseOverlay(opt.get("overlay"))); }
-                        catch(Exception e) {
-                            log.error("Failed to parse overlay data: {}", e.getMessage());
-                        }
+                int precision = opt.optInt("precision", 128);
+
+                byte[] overlay = null;
+                if (opt.has("overlay")) {
+                    try { overlay = parseOverlay(opt.get("overlay")); }
+                    catch(Exception e) {
+                        log.error("Failed to parse overlay data: {}", e.getMessage());
                     }
                 }
-                catch(IOException ioe) {
-                    throw new InvalidRawImageException(ioe.getMessage(), ioe);
-                }
+
+                // Y,M,C,K,O ribbon
+                new EvolisEncoder(bufferedImage, charset).append(getByteBuffer(), precision, overlay);
 
                 break;
             default:
@@ -396,31 +351,13 @@ public class ImageWrapper {
     }
 
     /**
-     * @return the image as an array of booleans
+     * @return the image packed one bit per dot, converted on first use so quantization settings can still be changed
      */
-    private boolean[] getImageAsBooleanArray() {
-        return imageAsBooleanArray;
-    }
-
-    /**
-     * @param imageAsBooleanArray the imageAsBooleanArray to set
-     */
-    private void setImageAsBooleanArray(boolean[] imageAsBooleanArray) {
-        this.imageAsBooleanArray = imageAsBooleanArray;
-    }
-
-    /**
-     * @return the imageAsIntArray
-     */
-    private int[] getImageAsIntArray() {
-        return imageAsIntArray;
-    }
-
-    /**
-     * @param imageAsIntArray the imageAsIntArray to set
-     */
-    private void setImageAsIntArray(int[] imageAsIntArray) {
-        this.imageAsIntArray = imageAsIntArray;
+    private byte[] getImageAsBytes() {
+        if (imageAsBytes == null) {
+            imageAsBytes = generateBlackPixels(bufferedImage);
+        }
+        return imageAsBytes;
     }
 
     /**
@@ -432,8 +369,7 @@ public class ImageWrapper {
      */
     private void init() {
         log.info("Initializing Image Fields");
-        setImageAsBooleanArray(generateBlackPixels(bufferedImage));
-        generateIntArray();
+        imageAsBytes = null;
     }
 
     public Charset getCharset() {
@@ -465,138 +401,8 @@ public class ImageWrapper {
         bufferedImage = buffer;
     }
 
-    /**
-     * http://android-essential-devtopics.blogspot.com/2013/02/sending-bit-image-to-epson-printer.html
-     *
-     * @param builder the ByteArrayBuilder to use
-     */
-    private void appendEpsonSlices(ByteArrayBuilder builder) {
-        //        BitSet dots = data.getDots();
-        //        outputStream.write(PrinterCommands.INIT);
-
-
-        // So we have our bitmap data sitting in a bit array called "dots."
-        // This is one long array of 1s (black) and 0s (white) pixels arranged
-        // as if we had scanned the bitmap from top to bottom, left to right.
-        // The printer wants to see these arranged in bytes stacked three high.
-        // So, essentially, we need to read 24 bits for x = 0, generate those
-        // bytes, and send them to the printer, then keep increasing x. If our
-        // image is more than 24 dots high, we have to send a second bit image
-        // command to draw the next slice of 24 dots in the image.
-
-        // Set the line spacing to 24 dots, the height of each "stripe" of the
-        // image that we're drawing. If we don't do this, and we need to
-        // draw the bitmap in multiple passes, then we'll end up with some
-        // whitespace between slices of the image since the default line
-        // height--how much the printer moves on a newline--is 30 dots.
-        builder.append(new byte[] {0x1B, 0x33, 24});
-
-        // OK. So, starting from x = 0, read 24 bits down and send that data
-        // to the printer. The offset variable keeps track of our global 'y'
-        // position in the image. For example, if we were drawing a bitmap
-        // that is 48 pixels high, then this while loop will execute twice,
-        // once for each pass of 24 dots. On the first pass, the offset is
-        // 0, and on the second pass, the offset is 24. We keep making
-        // these 24-dot stripes until we've execute past the height of the
-        // bitmap.
-        int offset = 0;
-
-        while(offset < getHeight()) {
-            // The third and fourth parameters to the bit image command are
-            // 'nL' and 'nH'. The 'L' and the 'H' refer to 'low' and 'high', respectively.
-            // All 'n' really is is the width of the image that we're about to draw.
-            // Since the width can be greater than 255 dots, the parameter has to
-            // be split across two bytes, which is why the documentation says the
-            // width is 'nL' + ('nH' * 256).
-            //builder.append(new byte[] {0x1B, 0x2A, 33, -128, 0});
-            byte nL = (byte)((int)(getWidth() % 256));
-            byte nH = (byte)((int)(getWidth() / 256));
-            builder.append(new byte[] {0x1B, 0x2A, (byte)dotDensity, nL, nH});
-
-            for(int x = 0; x < getWidth(); ++x) {
-                // Remember, 24 dots = 24 bits = 3 bytes.
-                // The 'k' variable keeps track of which of those
-                // three bytes that we're currently scribbling into.
-                for(int k = 0; k < 3; ++k) {
-                    byte slice = 0;
-
-                    // A byte is 8 bits. The 'b' variable keeps track
-                    // of which bit in the byte we're recording.
-                    for(int b = 0; b < 8; ++b) {
-                        // Calculate the y position that we're currently
-                        // trying to draw. We take our offset, divide it
-                        // by 8 so we're talking about the y offset in
-                        // terms of bytes, add our current 'k' byte
-                        // offset to that, multiple by 8 to get it in terms
-                        // of bits again, and add our bit offset to it.
-                        int y = (((offset / 8) + k) * 8) + b;
-
-                        // Calculate the location of the pixel we want in the bit array.
-                        // It'll be at (y * width) + x.
-                        int i = (y * getWidth()) + x;
-
-                        // If the image (or this stripe of the image)
-                        // is shorter than 24 dots, pad with zero.
-                        boolean v = false;
-                        if (i < getImageAsBooleanArray().length) {
-                            v = getImageAsBooleanArray()[i];
-                        }
-
-                        // Finally, store our bit in the byte that we're currently
-                        // scribbling to. Our current 'b' is actually the exact
-                        // opposite of where we want it to be in the byte, so
-                        // subtract it from 7, shift our bit into place in a temp
-                        // byte, and OR it with the target byte to get it into there.
-                        slice |= (byte)((v? 1:0) << (7 - b));
-                    }
-
-                    // Phew! Write the damn byte to the buffer
-                    builder.append(new byte[] {slice});
-                }
-            }
-
-            // We're done with this 24-dot high pass. Render a newline
-            // to bump the print head down to the next line
-            // and keep on trucking.
-            offset += 24;
-            builder.append(new byte[] {10});
-        }
-
-        // Restore the line spacing to the default of 30 dots.
-        builder.append(new byte[] {0x1B, 0x33, 30});
-
-    }
-
-    private ArrayList<float[]> convertToCYMK() throws IOException {
-        int[] pixels = bufferedImage.getRGB(0, 0, getWidth(), getHeight(), null, 0, getWidth());
-
-        float[] cyan = new float[pixels.length];
-        float[] yellow = new float[pixels.length];
-        float[] magenta = new float[pixels.length];
-        float[] black = new float[pixels.length];
-
-        for(int i = 0; i < pixels.length; i++) {
-            float rgb[] = new Color(pixels[i]).getRGBColorComponents(null);
-            if (rgb[0] == 0.0f && rgb[1] == 0.0f && rgb[2] == 0.0f) {
-                black[i] = 1.0f;
-            } else {
-                cyan[i] = 1.0f - rgb[0];
-                magenta[i] = 1.0f - rgb[1];
-                yellow[i] = 1.0f - rgb[2];
-            }
-        }
-
-        ArrayList<float[]> colorData = new ArrayList<>();
-        colorData.add(cyan);
-        colorData.add(yellow);
-        colorData.add(magenta);
-        colorData.add(black);
-
-        return colorData;
-    }
-
-    private float[] parseOverlay(Object overlay) throws IOException, JSONException {
-        float[] overlayData = new float[getWidth() * getHeight()];
+    private byte[] parseOverlay(Object overlay) throws IOException, JSONException {
+        byte[] overlayData = new byte[getWidth() * getHeight()];
 
         if (overlay instanceof JSONArray) {
             //array of rectangles
@@ -608,7 +414,7 @@ public class ImageWrapper {
                         int off = (y * getWidth());
                         for(int x = block.getInt(0) - 1; x < block.getInt(2); x++) {
                             if ((off + x) >= 0 && (off + x) < overlayData.length) {
-                                overlayData[off + x] = 1.0f;
+                                overlayData[off + x] = 1;
                             }
                         }
                     }
@@ -616,77 +422,22 @@ public class ImageWrapper {
             }
         } else if (overlay instanceof String) {
             //image mask
-            boolean[] mask = generateBlackPixels(ImageIO.read(new URL((String)overlay)));
-            for(int i = 0; i < overlayData.length; i++) {
-                overlayData[i] = (mask[i]? 1.0f:0.0f);
+            BufferedImage maskImage = ImageIO.read(new URL((String)overlay));
+            byte[] mask = generateBlackPixels(maskImage);
+            int maskRowBytes = (maskImage.getWidth() + 7) / 8;
+            for(int y = 0; y < Math.min(getHeight(), maskImage.getHeight()); y++) {
+                for(int x = 0; x < Math.min(getWidth(), maskImage.getWidth()); x++) {
+                    overlayData[y * getWidth() + x] = (byte)(MonochromePacker.isSet(mask, maskRowBytes, x, y)? 1:0);
+                }
             }
         } else if (overlay instanceof Boolean && (boolean)overlay) {
             //boolean coat
-            for(int i = 0; i < overlayData.length; i++) {
-                overlayData[i] = 1.0f;
-            }
+            Arrays.fill(overlayData, (byte)1);
         }
 
         return overlayData;
     }
 
-    private void generateRibbonData(char ribbon, int precision, float[] colorData) throws UnsupportedEncodingException {
-        log.debug("Building ribbon 'Db;{};{};..'", ribbon, precision);
-
-        getByteBuffer().append("\u001BDb;" + ribbon + ";" + precision + ";", charset);
-        getByteBuffer().append(compactBits(precision, colorData));
-        getByteBuffer().append(new byte[] {0x0D});
-    }
-
-    private ArrayList<Byte> compactBits(int precision, float[] colorData) {
-        ArrayList<Byte> bytes = new ArrayList<>();
-
-        int bits = precisionBits(precision);
-        int empty = 8 - bits;
-
-        for(int i = 0; i < colorData.length; i++) {
-            byte b = 0;
-            int captured = 0;
-
-            b |= byteValue(colorData[i], precision) << empty;
-            captured += 8 - empty;
-
-            while(captured < 8 && (i + 1) < colorData.length) {
-                int excess = bits - empty;
-
-                if (excess > 0) { //because negative shifts don't go backwards
-                    b |= byteValue(colorData[i + 1], precision) >> excess;
-                } else {
-                    b |= byteValue(colorData[i + 1], precision) << Math.abs(excess);
-                }
-                captured += bits - Math.max(0, excess);
-                if (captured < 8 && excess <= 0) { i++; } //if we've eaten an entire color point but haven't filled the byte, increase index looking at
-
-                empty = 8 - excess;
-                if (empty > 8) { empty -= 8; } //wrap around so we never shift over a byte length
-            }
-
-            bytes.add(b);
-        }
-
-        return bytes;
-    }
-
-    private int precisionBits(int precision) {
-        precision--;  // "128" is actually 0-127, subtract one
-        int ones = 0;
-        while(precision > 0) {
-            if (precision % 2 != 0) { ones++; }
-            precision /= 2;
-        }
-
-        return ones;
-    }
-
-    private byte byteValue(float value, int precision) {
-        return (byte)(value * (precision - 1));
-    }
-
     /**
      * Checks if the image width is a multiple of 8, and if it's not,
      * pads the image on the right side with blank pixels. <br />
@@ -0,0 +1,463 @@
+package qz.printer;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.common.ByteArrayBuilder;
+import qz.common.Constants;
+
+import javax.print.attribute.standard.PrinterResolution;
+import java.io.*;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Minimal IPP/1.1 client for the local CUPS scheduler, used to print raw data without running {@code lp}.
+ * <p/>
+ * Requests go over HTTP to {@code localhost:631}, or the host and port in the {@code CUPS_SERVER} environment variable.
+ * Documents are streamed in the body of a {@code Print-Job} request, and connections are kept alive between requests
+ * by {@link HttpURLConnection}. If the scheduler can't be reached, {@link #isAvailable()} stays {@code false} for a
+ * while so callers can fall back to the command line tools.
+ */
+public class IppClient {
+
+    private static final Logger log = LoggerFactory.getLogger(IppClient.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    //operations
+    private static final int PRINT_JOB = 0x0002;
+    private static final int CUPS_GET_PRINTERS = 0x4002;
+
+    //delimiter tags
+    private static final int OPERATION_ATTRIBUTES = 0x01;
+    private static final int JOB_ATTRIBUTES = 0x02;
+    private static final int END_OF_ATTRIBUTES = 0x03;
+    private static final int PRINTER_ATTRIBUTES = 0x04;
+
+    //value tags
+    private static final int INTEGER = 0x21;
+    private static final int BOOLEAN = 0x22;
+    private static final int ENUM = 0x23;
+    private static final int RESOLUTION = 0x32;
+    private static final int TEXT_WITH_LANGUAGE = 0x35;
+    private static final int NAME_WITH_LANGUAGE = 0x36;
+    private static final int TEXT = 0x41;
+    private static final int NAME = 0x42;
+    private static final int KEYWORD = 0x44;
+    private static final int URI = 0x45;
+    private static final int CHARSET = 0x47;
+    private static final int LANGUAGE = 0x48;
+    private static final int MIME_TYPE = 0x49;
+
+    private static final String[] JOB_STATES = {"pending", "pending-held", "processing", "processing-stopped", "canceled", "aborted", "completed"};
+
+    //millis to wait before trying the scheduler again after failing to connect
+    private static final long RETRY_DELAY = 60000;
+    private static final int CONNECT_TIMEOUT = 2000;
+    private static final int READ_TIMEOUT = 60000;
+
+    private static volatile long unavailableUntil;
+    private static int requestId;
+
+
+    private IppClient() {}
+
+    /**
+     * @return Whether requests are worth trying, {@code false} shortly after the scheduler couldn't be reached
+     */
+    public static boolean isAvailable() {
+        return System.currentTimeMillis() >= unavailableUntil;
+    }
+
+    /**
+     * Sends a raw document to a CUPS queue as a single {@code Print-Job}
+     *
+     * @param printer CUPS queue name
+     * @param copies  Copies for the scheduler to print
+     * @return The job created by the scheduler
+     * @throws ConnectException If the scheduler couldn't be reached, in which case nothing was sent
+     */
+    public static Job printJob(String printer, String jobName, int copies, ByteArrayBuilder document) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        writeHeader(out, PRINT_JOB);
+        String path = "/printers/" + URLEncoder.encode(printer, "UTF-8");
+        writeAttribute(out, URI, "printer-uri", "ipp://localhost" + path);
+        writeAttribute(out, NAME, "requesting-user-name", System.getProperty("user.name"));
+        writeAttribute(out, NAME, "job-name", jobName);
+        writeAttribute(out, MIME_TYPE, "document-format", "application/vnd.cups-raw");
+        if (copies > 1) {
+            out.writeByte(JOB_ATTRIBUTES);
+            writeAttribute(out, INTEGER, "copies", copies);
+        }
+        out.writeByte(END_OF_ATTRIBUTES);
+
+        Response response = send(path, header.toByteArray(), document);
+        if (!response.isSuccess()) {
+            throw new IOException(String.format("CUPS refused print job for %s: %s", printer, response.getStatusMessage()));
+        }
+
+        Map<String,List<Object>> job = response.getGroup(JOB_ATTRIBUTES);
+        if (job == null || !job.containsKey("job-id")) {
+            throw new IOException("CUPS did not return a job for " + printer);
+        }
+
+        Job created = new Job(printer, (Integer)job.get("job-id").get(0), getFirst(job, "job-state"), job.get("job-state-reasons"));
+        log.debug("Created CUPS job {}", created);
+
+        return created;
+    }
+
+    /**
+     * Lists the scheduler's queues with {@code CUPS-Get-Printers}, in a single request
+     */
+    public static List<Printer> getPrinters() throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        writeHeader(out, CUPS_GET_PRINTERS);
+        writeAttribute(out, KEYWORD, "requested-attributes", "printer-name");
+        writeAdditionalValue(out, KEYWORD, "printer-info");
+        writeAdditionalValue(out, KEYWORD, "printer-resolution-default");
+        out.writeByte(END_OF_ATTRIBUTES);
+
+        Response response = send("/", header.toByteArray(), null);
+        if (!response.isSuccess() && response.status != 0x0406) { //not-found is returned when there are no printers
+            throw new IOException("CUPS refused printer list: " + response.getStatusMessage());
+        }
+
+        List<Printer> printers = new ArrayList<>();
+        for(Group group : response.groups) {
+            if (group.tag != PRINTER_ATTRIBUTES || !group.attributes.containsKey("printer-name")) { continue; }
+
+            Object info = getFirst(group.attributes, "printer-info");
+            Object resolution = getFirst(group.attributes, "printer-resolution-default");
+            printers.add(new Printer(String.valueOf(getFirst(group.attributes, "printer-name")),
+                                     info instanceof String? (String)info:null,
+                                     resolution instanceof PrinterResolution? (PrinterResolution)resolution:null));
+        }
+
+        return printers;
+    }
+
+
+    private static synchronized int nextRequestId() {
+        return ++requestId;
+    }
+
+    private static void writeHeader(DataOutputStream out, int operation) throws IOException {
+        out.writeShort(0x0101); //version 1.1, which every CUPS version accepts
+        out.writeShort(operation);
+        out.writeInt(nextRequestId());
+
+        out.writeByte(OPERATION_ATTRIBUTES);
+        writeAttribute(out, CHARSET, "attributes-charset", "utf-8");
+        writeAttribute(out, LANGUAGE, "attributes-natural-language", "en");
+    }
+
+    private static void writeAttribute(DataOutputStream out, int tag, String name, String value) throws IOException {
+        writeName(out, tag, name);
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeAttribute(DataOutputStream out, int tag, String name, int value) throws IOException {
+        writeName(out, tag, name);
+        out.writeShort(4);
+        out.writeInt(value);
+    }
+
+    private static void writeAdditionalValue(DataOutputStream out, int tag, String value) throws IOException {
+        writeAttribute(out, tag, "", value);
+    }
+
+    private static void writeName(DataOutputStream out, int tag, String name) throws IOException {
+        byte[] bytes = name.getBytes(UTF8);
+        out.writeByte(tag);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Response send(String path, byte[] request, ByteArrayBuilder document) throws IOException {
+        if (!isAvailable()) {
+            throw new ConnectException("CUPS scheduler was recently unreachable");
+        }
+
+        HttpURLConnection connection = (HttpURLConnection)new URL("http", getHost(), getPort(), path).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/ipp");
+            connection.setFixedLengthStreamingMode(request.length + (document == null? 0:document.getLength()));
+
+            try { connection.connect(); }
+            catch(ConnectException | SocketTimeoutException e) {
+                log.warn("Unable to reach CUPS at {}:{}, not retrying for {} seconds", getHost(), getPort(), RETRY_DELAY / 1000);
+                unavailableUntil = System.currentTimeMillis() + RETRY_DELAY;
+
+                ConnectException unreachable = new ConnectException("Unable to reach CUPS: " + e.getMessage());
+                unreachable.initCause(e);
+                throw unreachable;
+            }
+
+            //past this point the request may have reached the scheduler, so timeouts are not reported as connect failures
+            try {
+                try(OutputStream out = connection.getOutputStream()) {
+                    out.write(request);
+                    if (document != null) {
+                        document.writeTo(out);
+                    }
+                }
+
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    throw new IOException(String.format("CUPS returned HTTP %d %s", connection.getResponseCode(), connection.getResponseMessage()));
+                }
+
+                //the body is read to its end so the connection can be reused
+                try(InputStream in = connection.getInputStream()) {
+                    return Response.parse(new DataInputStream(new BufferedInputStream(in)));
+                }
+            }
+            catch(ConnectException | SocketTimeoutException e) {
+                throw new IOException("CUPS stopped responding to the request", e);
+            }
+        }
+        catch(IOException e) {
+            //drain any error body, also so the connection can be reused
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+                try { while(error.read() != -1) {} error.close(); } catch(IOException ignore) {}
+            }
+            throw e;
+        }
+    }
+
+    private static String getHost() {
+        String server = System.getenv("CUPS_SERVER");
+        if (server != null && !server.isEmpty() && !server.startsWith("/")) {
+            return server.split(":")[0];
+        }
+
+        return "localhost";
+    }
+
+    private static int getPort() {
+        String server = System.getenv("CUPS_SERVER");
+        if (server != null && !server.startsWith("/") && server.contains(":")) {
+            try { return Integer.parseInt(server.substring(server.lastIndexOf(':') + 1)); }
+            catch(NumberFormatException ignore) {}
+        }
+
+        return Constants.CUPS_PORT;
+    }
+
+    private static Object getFirst(Map<String,List<Object>> attributes, String name) {
+        List<Object> values = attributes.get(name);
+        return values == null || values.isEmpty()? null:values.get(0);
+    }
+
+
+    /**
+     * A job accepted by the scheduler
+     */
+    public static class Job {
+
+        private final String printer;
+        private final int id;
+        private final String state;
+        private final String reasons;
+
+        Job(String printer, int id, Object state, List<Object> reasons) {
+            this.printer = printer;
+            this.id = id;
+
+            int index = state instanceof Integer? (Integer)state - 3:-1;
+            this.state = index >= 0 && index < JOB_STATES.length? JOB_STATES[index]:"unknown";
+            this.reasons = reasons == null? null:reasons.toString();
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return The IPP job state name, such as {@code pending} or {@code processing}
+         */
+        public String getState() {
+            return state;
+        }
+
+        public boolean isFailed() {
+            return "canceled".equals(state) || "aborted".equals(state);
+        }
+
+        public JSONObject toJSON() throws JSONException {
+            return new JSONObject()
+                    .put("printer", printer)
+                    .put("id", id)
+                    .put("state", state);
+        }
+
+        @Override
+        public String toString() {
+            return printer + "-" + id + " (" + state + (reasons == null? "":" " + reasons) + ")";
+        }
+
+    }
+
+    /**
+     * A queue listed by the scheduler
+     */
+    public static class Printer {
+
+        private final String name;
+        private final String info;
+        private final PrinterResolution resolution;
+
+        Printer(String name, String info, PrinterResolution resolution) {
+            this.name = name;
+            this.info = info;
+            this.resolution = resolution;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The printer's description, or {@code null} if not set
+         */
+        public String getInfo() {
+            return info == null || info.isEmpty()? null:info;
+        }
+
+        /**
+         * @return The default resolution, or {@code null} if the scheduler doesn't report one
+         */
+        public PrinterResolution getResolution() {
+            return resolution;
+        }
+
+    }
+
+    private static class Group {
+
+        private final int tag;
+        private final Map<String,List<Object>> attributes = new HashMap<>();
+
+        Group(int tag) {
+            this.tag = tag;
+        }
+
+    }
+
+    private static class Response {
+
+        private int status;
+        private final List<Group> groups = new ArrayList<>();
+
+        static Response parse(DataInputStream in) throws IOException {
+            Response response = new Response();
+            in.readShort(); //version
+            response.status = in.readUnsignedShort();
+            in.readInt(); //request id
+
+            Group group = null;
+            List<Object> values = null;
+            int tag;
+            while((tag = in.readUnsignedByte()) != END_OF_ATTRIBUTES) {
+                if (tag < 0x10) {
+                    group = new Group(tag);
+                    response.groups.add(group);
+                    continue;
+                }
+                if (group == null) { throw new IOException("Malformed IPP response"); }
+
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                byte[] value = new byte[in.readUnsignedShort()];
+                in.readFully(value);
+
+                //an empty name is another value of the previous attribute
+                if (name.length > 0 || values == null) {
+                    values = new ArrayList<>();
+                    group.attributes.put(new String(name, UTF8), values);
+                }
+                values.add(decode(tag, value));
+            }
+
+            return response;
+        }
+
+        private static Object decode(int tag, byte[] value) {
+            switch(tag) {
+                case INTEGER:
+                case ENUM:
+                    if (value.length == 4) {
+                        return ((value[0] & 0xFF) << 24) | ((value[1] & 0xFF) << 16) | ((value[2] & 0xFF) << 8) | (value[3] & 0xFF);
+                    }
+                    return null;
+                case BOOLEAN:
+                    return value.length == 1 && value[0] != 0;
+                case RESOLUTION:
+                    if (value.length == 9) {
+                        ByteBuffer buffer = ByteBuffer.wrap(value);
+                        int x = buffer.getInt();
+                        int y = buffer.getInt();
+                        return new PrinterResolution(x, y, buffer.get() == 4? PrinterResolution.DPCM:PrinterResolution.DPI);
+                    }
+                    return null;
+                case TEXT_WITH_LANGUAGE:
+                case NAME_WITH_LANGUAGE:
+                    //the natural language comes first, then the text itself, each with its own length
+                    ByteBuffer buffer = ByteBuffer.wrap(value);
+                    if (buffer.remaining() >= 2) {
+                        int language = buffer.getShort() & 0xFFFF;
+                        if (buffer.remaining() >= language + 2) {
+                            buffer.position(buffer.position() + language);
+                            int length = buffer.getShort() & 0xFFFF;
+                            if (buffer.remaining() >= length) {
+                                return new String(value, buffer.position(), length, UTF8);
+                            }
+                        }
+                    }
+                    return null;
+                default:
+                    if (tag >= TEXT && tag <= MIME_TYPE) {
+                        return new String(value, UTF8);
+                    }
+                    return value;
+            }
+        }
+
+        boolean isSuccess() {
+            return status < 0x0100;
+        }
+
+        String getStatusMessage() {
+            Map<String,List<Object>> operation = getGroup(OPERATION_ATTRIBUTES);
+            Object message = operation == null? null:getFirst(operation, "status-message");
+            return String.format("0x%04X%s", status, message == null? "":" " + message);
+        }
+
+        Map<String,List<Object>> getGroup(int tag) {
+            for(Group group : groups) {
+                if (group.tag == tag) { return group.attributes; }
+            }
+
+            return null;
+        }
+
+    }
+
+}
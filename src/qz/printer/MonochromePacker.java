@@ -0,0 +1,325 @@
+package qz.printer;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts images to packed 1-bit rows, as used by thermal printer image commands.
+ * <p/>
+ * Each row is packed most significant bit first into {@code (width + 7) / 8} bytes, with any unused bits of the last byte left at 0.
+ * Common {@code BufferedImage} types are read straight from their data buffers; other types are read a row at a time with {@code getRGB}.
+ * Large images are split into strips of rows that are packed in parallel, unless a {@link Quantizer} needs rows in order.
+ *
+ * @see ImageWrapper#CHECK_BLACK
+ * @see ImageWrapper#CHECK_LUMA
+ * @see ImageWrapper#CHECK_ALPHA
+ */
+public class MonochromePacker {
+
+    //images with fewer pixels than this are packed on the calling thread
+    private static final int PARALLEL_PIXELS = 1 << 20;
+    //pixels per strip when packing in parallel
+    private static final int STRIP_PIXELS = 1 << 18;
+
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    private final BufferedImage image;
+    private final int width;
+    private final int height;
+    private final int rowBytes;
+
+    private final int method;
+    private final int lumaThreshold;
+    private final int alphaThreshold;
+    private final boolean inverted;
+    private final Quantizer quantizer;
+
+
+    /**
+     * @param method         Quantization method, one of the {@code ImageWrapper.CHECK_*} values
+     * @param lumaThreshold  Threshold used by {@code CHECK_LUMA}
+     * @param alphaThreshold Threshold used by {@code CHECK_ALPHA}
+     * @param inverted       Whether black pixels are written as 0's instead of 1's
+     */
+    public MonochromePacker(BufferedImage image, int method, int lumaThreshold, int alphaThreshold, boolean inverted) {
+        this(image, method, lumaThreshold, alphaThreshold, inverted, null);
+    }
+
+    /**
+     * @param quantizer Dithering used instead of the quantization method, or {@code null} for none
+     */
+    public MonochromePacker(BufferedImage image, int method, int lumaThreshold, int alphaThreshold, boolean inverted, Quantizer quantizer) {
+        this.image = image;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.rowBytes = (width + 7) / 8;
+
+        this.method = method;
+        this.lumaThreshold = lumaThreshold;
+        this.alphaThreshold = alphaThreshold;
+        this.inverted = inverted;
+        this.quantizer = quantizer;
+    }
+
+    /**
+     * Pool shared by the image encoders for their parallel work
+     */
+    static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public int getRowBytes() {
+        return rowBytes;
+    }
+
+    /**
+     * @return The packed image, {@link #getRowBytes()} bytes per row
+     */
+    public byte[] pack() {
+        byte[] packed = new byte[rowBytes * height];
+
+        Strip all = new Strip(packed, 0, height);
+        if ((long)width * height < PARALLEL_PIXELS || !isThreadSafe(image.getColorModel())
+                || (quantizer != null && !quantizer.isRowIndependent())) {
+            all.compute();
+        } else {
+            pool.invoke(all);
+        }
+
+        return packed;
+    }
+
+    /**
+     * Reads a single dot from a packed image
+     *
+     * @return {@code true} if the bit is set, {@code false} if it is not or the position is outside the image
+     */
+    public static boolean isSet(byte[] packed, int rowBytes, int x, int y) {
+        int i = y * rowBytes + (x >> 3);
+        return x >= 0 && y >= 0 && x < rowBytes * 8 && i < packed.length && (packed[i] & (0x80 >> (x & 7))) != 0;
+    }
+
+
+    /**
+     * Tests a pixel against the quantization method
+     *
+     * @param argb the color of the pixel as defined in getRGB()
+     * @return {@code true} if the pixel is black
+     */
+    private boolean isBlack(int argb) {
+        int a = argb >>> 24;
+        switch(method) {
+            case ImageWrapper.CHECK_LUMA:
+                if (a < lumaThreshold) {
+                    return false; // assume pixels that are less opaque than the luma threshold should be considered to be white
+                }
+                //same as comparing the luma, (r * 299 + g * 587 + b * 114) / 1000, to the threshold
+                return ((argb >> 16) & 0xFF) * 299 + ((argb >> 8) & 0xFF) * 587 + (argb & 0xFF) * 114 < lumaThreshold * 1000;
+            case ImageWrapper.CHECK_ALPHA:
+                return a > alphaThreshold;
+            case ImageWrapper.CHECK_BLACK:
+            default:
+                return argb == 0xFF000000;
+        }
+    }
+
+    /**
+     * Gray level of a pixel as it would print on white media, 0 (black) to 255 (white)
+     */
+    private static int gray(int argb) {
+        int a = argb >>> 24;
+        int luma = (((argb >> 16) & 0xFF) * 299 + ((argb >> 8) & 0xFF) * 587 + (argb & 0xFF) * 114) / 1000;
+
+        return (luma * a + 255 * (255 - a)) / 255;
+    }
+
+    private void packRows(byte[] packed, int fromRow, int toRow) {
+        RowReader reader = createReader(image);
+        int[] row = new int[width];
+
+        for(int y = fromRow; y < toRow; y++) {
+            reader.read(y, row);
+
+            if (quantizer == null) {
+                for(int x = 0; x < width; x++) {
+                    row[x] = isBlack(row[x])? 0:255;
+                }
+            } else {
+                for(int x = 0; x < width; x++) {
+                    row[x] = gray(row[x]);
+                }
+                quantizer.quantize(y, row);
+            }
+
+            int out = y * rowBytes;
+            int bits = 0;
+            for(int x = 0; x < width; x++) {
+                bits = (bits << 1) | (inverted != (row[x] == 0)? 1:0);
+                if ((x & 7) == 7) {
+                    packed[out++] = (byte)bits;
+                    bits = 0;
+                }
+            }
+
+            if ((width & 7) != 0) {
+                packed[out] = (byte)(bits << (8 - (width & 7)));
+            }
+        }
+    }
+
+    /**
+     * Picks the fastest way to read rows of an image
+     */
+    static RowReader createReader(final BufferedImage image) {
+        final int width = image.getWidth();
+
+        WritableRaster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        SampleModel model = raster.getSampleModel();
+
+        if (buffer instanceof DataBufferInt && model instanceof SinglePixelPackedSampleModel && buffer.getNumBanks() == 1) {
+            switch(image.getType()) {
+                case BufferedImage.TYPE_INT_ARGB:
+                case BufferedImage.TYPE_INT_RGB:
+                case BufferedImage.TYPE_INT_BGR:
+                    return new IntReader(width, raster, (DataBufferInt)buffer, (SinglePixelPackedSampleModel)model, image.getType());
+            }
+        }
+
+        if (buffer instanceof DataBufferByte && model instanceof PixelInterleavedSampleModel && buffer.getNumBanks() == 1) {
+            ColorModel cm = image.getColorModel();
+            if (cm instanceof ComponentColorModel && cm.getColorSpace().isCS_sRGB() && !cm.isAlphaPremultiplied()
+                    && (model.getNumBands() == 3 || (model.getNumBands() == 4 && cm.hasAlpha()))) {
+                return new ByteReader(width, raster, (DataBufferByte)buffer, (PixelInterleavedSampleModel)model);
+            }
+        }
+
+        //fallback for image types without direct access
+        return new RowReader() {
+            @Override
+            public void read(int y, int[] row) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+            }
+        };
+    }
+
+    /**
+     * Whether {@code getRGB} can be called from several threads at once for this color model.
+     * Conversions from other color spaces go through shared color management transforms.
+     */
+    static boolean isThreadSafe(ColorModel cm) {
+        ColorSpace cs = cm.getColorSpace();
+        return cm instanceof IndexColorModel || cm instanceof DirectColorModel || cs.isCS_sRGB() || cs.getType() == ColorSpace.TYPE_GRAY;
+    }
+
+
+    /**
+     * Reads a row of the image as ARGB values, like {@code getRGB}
+     */
+    interface RowReader {
+        void read(int y, int[] row);
+    }
+
+    private static class IntReader implements RowReader {
+
+        private final int width;
+        private final int[] data;
+        private final int stride;
+        private final int base;
+        private final boolean hasAlpha;
+        private final boolean bgr;
+
+        IntReader(int width, Raster raster, DataBufferInt buffer, SinglePixelPackedSampleModel model, int type) {
+            this.width = width;
+            data = buffer.getData();
+            stride = model.getScanlineStride();
+            base = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+            hasAlpha = type == BufferedImage.TYPE_INT_ARGB;
+            bgr = type == BufferedImage.TYPE_INT_BGR;
+        }
+
+        @Override
+        public void read(int y, int[] row) {
+            int in = base + y * stride;
+            for(int x = 0; x < width; x++) {
+                int p = data[in + x];
+                if (bgr) {
+                    p = (p & 0xFF00) | ((p & 0xFF) << 16) | ((p >> 16) & 0xFF);
+                }
+                row[x] = hasAlpha? p:(p | 0xFF000000);
+            }
+        }
+
+    }
+
+    private static class ByteReader implements RowReader {
+
+        private final int width;
+        private final byte[] data;
+        private final int stride;
+        private final int pixelStride;
+        private final int base;
+        private final int rOff, gOff, bOff, aOff;
+        private final boolean hasAlpha;
+
+        ByteReader(int width, Raster raster, DataBufferByte buffer, PixelInterleavedSampleModel model) {
+            this.width = width;
+            data = buffer.getData();
+            stride = model.getScanlineStride();
+            pixelStride = model.getPixelStride();
+            base = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX() * pixelStride;
+
+            int[] bands = model.getBandOffsets();
+            rOff = bands[0];
+            gOff = bands[1];
+            bOff = bands[2];
+            hasAlpha = bands.length > 3;
+            aOff = hasAlpha? bands[3]:0;
+        }
+
+        @Override
+        public void read(int y, int[] row) {
+            int in = base + y * stride;
+            for(int x = 0; x < width; x++, in += pixelStride) {
+                int a = hasAlpha? data[in + aOff] & 0xFF:0xFF;
+                row[x] = (a << 24) | ((data[in + rOff] & 0xFF) << 16) | ((data[in + gOff] & 0xFF) << 8) | (data[in + bOff] & 0xFF);
+            }
+        }
+
+    }
+
+
+    /**
+     * Range of rows, split in half until small enough to pack directly
+     */
+    private class Strip extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] packed;
+        private final int fromRow;
+        private final int toRow;
+
+        Strip(byte[] packed, int fromRow, int toRow) {
+            this.packed = packed;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = toRow - fromRow;
+            if (rows < 2 || (long)rows * width <= STRIP_PIXELS || !inForkJoinPool()) {
+                packRows(packed, fromRow, toRow);
+                return;
+            }
+
+            int middle = fromRow + rows / 2;
+            invokeAll(new Strip(packed, fromRow, middle), new Strip(packed, middle, toRow));
+        }
+
+    }
+
+}
@@ -0,0 +1,205 @@
+package qz.printer;
+
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.printing.Scaling;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.utils.SystemUtilities;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.print.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Pages of one or more PDF documents, presented as both the {@code Pageable} and the {@code Printable} of a print job.
+ * <p/>
+ * Nothing is copied or split up front. Each page's format is worked out from its bounds when the job asks for it, and
+ * rotation is applied to a page just before it is first printed, so only the pages being rendered are held decoded.
+ */
+public class PDFPageable implements Pageable, Printable {
+
+    private static final Logger log = LoggerFactory.getLogger(PDFPageable.class);
+
+    private final PageFormat prototype;
+    private final PrintOptions.Pixel pxlOpts;
+    private final Scaling scaling;
+    private final float dpi;
+
+    private final List<PDDocument> documents = new ArrayList<>();
+    private final List<PDFWrapper> wrappers = new ArrayList<>();
+    //global index of each document's first page
+    private final List<Integer> starts = new ArrayList<>();
+    private int pageCount = 0;
+
+    //pages already rotated for printing
+    private final BitSet prepared = new BitSet();
+
+
+    /**
+     * @param prototype Page format with the print options applied, copied for each page
+     */
+    public PDFPageable(PageFormat prototype, PrintOptions.Pixel pxlOpts) {
+        this.prototype = prototype;
+        this.pxlOpts = pxlOpts;
+        this.scaling = (pxlOpts.isScaleContent()? Scaling.SCALE_TO_FIT:Scaling.ACTUAL_SIZE);
+        this.dpi = (float)(pxlOpts.getDensity() * pxlOpts.getUnits().as1Inch());
+    }
+
+    public void append(PDDocument document) {
+        documents.add(document);
+        wrappers.add(new PDFWrapper(document, scaling, false, dpi, false, pxlOpts.getOrientation()));
+        starts.add(pageCount);
+
+        pageCount += document.getNumberOfPages();
+    }
+
+    /**
+     * Covers these pages with a {@code Book}, as PrinterJob implementations don't handle a custom {@code Pageable} properly.
+     * The book holds each page's format, and prints every page through this {@code Printable}.
+     */
+    public Book wrapAndPresent() {
+        Book cover = new Book();
+        for(int i = 0; i < pageCount; i++) {
+            cover.append(this, getPageFormat(i));
+        }
+
+        return cover;
+    }
+
+    @Override
+    public int getNumberOfPages() {
+        return pageCount;
+    }
+
+    @Override
+    public PageFormat getPageFormat(int pageIndex) throws IndexOutOfBoundsException {
+        PDPage pd = getPage(pageIndex);
+        PageFormat page = (PageFormat)prototype.clone();
+
+        if (pxlOpts.getOrientation() == null) {
+            PDRectangle bounds = pd.getBBox();
+            if (bounds.getWidth() > bounds.getHeight() || (pd.getRotation() / 90) % 2 == 1) {
+                log.info("Adjusting orientation to print landscape PDF source");
+                page.setOrientation(PrintOptions.Orientation.LANDSCAPE.getAsFormat());
+            }
+        } else if (pxlOpts.getOrientation() != PrintOptions.Orientation.PORTRAIT) {
+            //flip imageable area dimensions when in landscape
+            Paper repap = page.getPaper();
+            repap.setImageableArea(repap.getImageableX(), repap.getImageableY(), repap.getImageableHeight(), repap.getImageableWidth());
+            page.setPaper(repap);
+        }
+
+        return page;
+    }
+
+    @Override
+    public Printable getPrintable(int pageIndex) throws IndexOutOfBoundsException {
+        checkIndex(pageIndex);
+        return this;
+    }
+
+    @Override
+    public int print(Graphics graphics, PageFormat pageFormat, int pageIndex) throws PrinterException {
+        if (pageIndex < 0 || pageIndex >= pageCount) {
+            return NO_SUCH_PAGE;
+        }
+
+        log.trace("Requested page {} for printing", pageIndex);
+
+        int doc = findDocument(pageIndex);
+        int local = pageIndex - starts.get(doc);
+
+        if (!prepared.get(pageIndex)) {
+            prepare(documents.get(doc), documents.get(doc).getPage(local));
+            prepared.set(pageIndex);
+        }
+
+        return wrappers.get(doc).print(graphics, pageFormat, local);
+    }
+
+    /**
+     * Applies the requested rotation, and the reverse landscape fix for OSX, to a page about to be printed
+     */
+    private void prepare(PDDocument doc, PDPage pd) {
+        if (pxlOpts.getRotation() % 360 != 0) {
+            rotatePage(doc, pd, pxlOpts.getRotation());
+        }
+
+        //reverse fix for OSX
+        if (SystemUtilities.isMac() && pxlOpts.getOrientation() == PrintOptions.Orientation.REVERSE_LANDSCAPE) {
+            pd.setRotation(pd.getRotation() + 180);
+        }
+    }
+
+    private void rotatePage(PDDocument doc, PDPage page, double rotation) {
+        try {
+            //copy page to object for manipulation
+            PDFormXObject xobject = new PDFormXObject(doc);
+            InputStream src = page.getContents();
+            OutputStream dest = xobject.getStream().createOutputStream();
+
+            try { IOUtils.copy(src, dest); }
+            finally {
+                IOUtils.closeQuietly(src);
+                IOUtils.closeQuietly(dest);
+            }
+
+            xobject.setResources(page.getResources());
+            xobject.setBBox(page.getBBox());
+
+            //draw our object at a rotated angle
+            AffineTransform transform = new AffineTransform();
+            transform.rotate(Math.toRadians(360 - rotation), xobject.getBBox().getWidth() / 2.0, xobject.getBBox().getHeight() / 2.0);
+            xobject.setMatrix(transform);
+
+            PDPageContentStream stream = new PDPageContentStream(doc, page);
+            stream.drawForm(xobject);
+            stream.close();
+        }
+        catch(IOException e) {
+            log.warn("Failed to rotate PDF page for printing");
+        }
+    }
+
+    private PDPage getPage(int pageIndex) {
+        checkIndex(pageIndex);
+
+        int doc = findDocument(pageIndex);
+        return documents.get(doc).getPage(pageIndex - starts.get(doc));
+    }
+
+    /**
+     * @return Position of the document containing the page
+     */
+    private int findDocument(int pageIndex) {
+        int low = 0, high = starts.size() - 1;
+        while(low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts.get(mid) <= pageIndex) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    private void checkIndex(int pageIndex) {
+        if (pageIndex < 0 || pageIndex >= pageCount) {
+            throw new IndexOutOfBoundsException("Page " + pageIndex + " of " + pageCount);
+        }
+    }
+
+}
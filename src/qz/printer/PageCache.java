@@ -0,0 +1,137 @@
+package qz.printer;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.common.Constants;
+import qz.ws.PrintSocketServer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.print.PageFormat;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transformed page images of a single print job, so the repeated {@code Printable.print} calls the job makes for each
+ * page, for banding and copies, only transform the page once.
+ * <p/>
+ * Entries are keyed by page index and imageable area, and least recently used pages are dropped past
+ * {@code page.cache.size} bytes. Images are held softly, so they are also released if memory runs low.
+ */
+public class PageCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PageCache.class);
+
+    private static long maxSize = -1;
+
+    private static final AtomicLong hits = new AtomicLong(0);
+    private static final AtomicLong transforms = new AtomicLong(0);
+    private static final AtomicLong evictions = new AtomicLong(0);
+
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+
+    /**
+     * @return The cached image for the page, or {@code null} if it was never stored or has since been released
+     */
+    public synchronized BufferedImage get(int pageIndex, PageFormat format) {
+        String key = key(pageIndex, format);
+
+        Entry entry = entries.get(key);
+        BufferedImage image = entry == null? null:entry.image.get();
+        if (image != null) {
+            hits.incrementAndGet();
+            return image;
+        }
+
+        if (entry != null) {
+            entries.remove(key);
+            bytes -= entry.size;
+        }
+
+        return null;
+    }
+
+    /**
+     * Stores the result of a page transform
+     */
+    public synchronized void put(int pageIndex, PageFormat format, BufferedImage image) {
+        transforms.incrementAndGet();
+
+        long size = sizeOf(image);
+        if (size > getMaxSize()) { return; }
+
+        Entry previous = entries.put(key(pageIndex, format), new Entry(image, size));
+        bytes += size - (previous == null? 0:previous.size);
+
+        Iterator<Map.Entry<String,Entry>> it = entries.entrySet().iterator();
+        while(bytes > getMaxSize() && it.hasNext()) {
+            bytes -= it.next().getValue().size;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return Counts across all jobs, where {@code transformsSaved} are the page transforms that didn't need repeating
+     */
+    public static JSONObject getStatsJSON() throws JSONException {
+        return new JSONObject()
+                .put("transformsSaved", hits.get())
+                .put("transforms", transforms.get())
+                .put("evictions", evictions.get())
+                .put("maxBytes", getMaxSize());
+    }
+
+
+    private static String key(int pageIndex, PageFormat format) {
+        return pageIndex + ":" + format.getImageableWidth() + "x" + format.getImageableHeight();
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long)buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private static synchronized long getMaxSize() {
+        if (maxSize < 0) {
+            maxSize = Constants.PAGE_CACHE_SIZE;
+
+            Properties props = PrintSocketServer.getTrayProperties();
+            if (props != null && props.containsKey("page.cache.size")) {
+                try { maxSize = Long.parseLong(props.getProperty("page.cache.size").trim()); }
+                catch(NumberFormatException e) {
+                    log.warn("Invalid page.cache.size {}, using {}", props.getProperty("page.cache.size"), maxSize);
+                }
+            }
+        }
+
+        return maxSize;
+    }
+
+
+    private static class Entry {
+
+        private final SoftReference<BufferedImage> image;
+        private final long size;
+
+        Entry(BufferedImage image, long size) {
+            this.image = new SoftReference<>(image);
+            this.size = size;
+        }
+
+    }
+
+}
@@ -0,0 +1,160 @@
+package qz.printer;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.ws.PrintSocketClient;
+import qz.ws.StreamEvent;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A single print request queued through {@code PrintJobQueue}.
+ * Status changes are pushed to the requesting session as {@code PRINT} stream events.
+ */
+public class PrintJob {
+
+    private static final Logger log = LoggerFactory.getLogger(PrintJob.class);
+
+    public enum Status {
+        QUEUED, PROCESSING, COMPLETE, CANCELED, ERROR;
+
+        public boolean isFinished() {
+            return this == COMPLETE || this == CANCELED || this == ERROR;
+        }
+    }
+
+    private final String id;
+    private final String target;
+    private final Session session;
+    private final PrintOutput output;
+    private final JSONObject params;
+
+    private final AtomicReference<Status> status = new AtomicReference<>(Status.QUEUED);
+    private String error;
+    private JSONObject result;
+
+    private final long queued;
+    private long started;
+    private long finished;
+
+
+    public PrintJob(String id, String target, Session session, PrintOutput output, JSONObject params) {
+        this.id = id;
+        this.target = target;
+        this.session = session;
+        this.output = output;
+        this.params = params;
+
+        queued = System.currentTimeMillis();
+    }
+
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public PrintOutput getOutput() {
+        return output;
+    }
+
+    public JSONObject getParams() {
+        return params;
+    }
+
+    public Status getStatus() {
+        return status.get();
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return Details of how the job was printed, such as the copy strategy used, or {@code null} if there are none
+     */
+    public JSONObject getResult() {
+        return result;
+    }
+
+    /**
+     * Moves a queued job into processing
+     *
+     * @return {@code false} if the job was canceled before it could start
+     */
+    boolean start() {
+        if (status.compareAndSet(Status.QUEUED, Status.PROCESSING)) {
+            started = System.currentTimeMillis();
+            notifyStatus();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Cancels the job if it has not started printing yet
+     *
+     * @return {@code true} if this call canceled the job, {@code false} if it had already started or been canceled
+     */
+    boolean cancel() {
+        if (status.compareAndSet(Status.QUEUED, Status.CANCELED)) {
+            finished = System.currentTimeMillis();
+            notifyStatus();
+            return true;
+        }
+
+        return false;
+    }
+
+    void finish(Status result, String errorMsg) {
+        finish(result, errorMsg, null);
+    }
+
+    void finish(Status result, String errorMsg, JSONObject details) {
+        error = errorMsg;
+        this.result = details;
+        finished = System.currentTimeMillis();
+        status.set(result);
+        notifyStatus();
+    }
+
+    private void notifyStatus() {
+        log.debug("Print job {} on {} is {}", id, target, status.get());
+
+        if (session != null && session.isOpen()) {
+            StreamEvent.Type type = (status.get() == Status.ERROR? StreamEvent.Type.ERROR:StreamEvent.Type.ACTION);
+            PrintSocketClient.sendStream(session, new StreamEvent(StreamEvent.Stream.PRINT, type)
+                    .withData("jobId", id)
+                    .withData("printer", target)
+                    .withData("status", status.get().name())
+                    .withData("exception", error)
+                    .withData("result", result));
+        }
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("jobId", id);
+        json.put("printer", target);
+        json.put("status", status.get().name());
+        json.putOpt("error", error);
+        json.putOpt("result", result);
+        json.put("queued", queued);
+        if (started > 0) { json.put("started", started); }
+        if (finished > 0) { json.put("finished", finished); }
+
+        return json;
+    }
+
+}
@@ -0,0 +1,242 @@
+package qz.printer;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.common.Constants;
+import qz.common.SpooledData;
+import qz.utils.PrintingUtilities;
+
+import java.awt.print.PrinterAbortException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs queued print jobs in the background, with one worker per printing target.
+ * Jobs sent to different printers run in parallel while jobs sent to the same printer keep their order.
+ */
+public class PrintJobQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(PrintJobQueue.class);
+
+    private static final AtomicLong nextId = new AtomicLong(1);
+
+    //target -> worker
+    private static final ConcurrentHashMap<String,ThreadPoolExecutor> workers = new ConcurrentHashMap<>();
+
+    //job id -> job
+    private static final ConcurrentHashMap<String,PrintJob> jobs = new ConcurrentHashMap<>();
+    private static final Queue<String> finishedJobs = new ConcurrentLinkedQueue<>();
+
+
+    private PrintJobQueue() {}
+
+    /**
+     * Queues a print request for background processing
+     *
+     * @param session WebSocket session to report progress to
+     * @param params  Params of the print call from web API
+     * @return The queued job
+     * @throws IllegalArgumentException   if no printer, file or host is given, or the printer cannot be found
+     * @throws RejectedExecutionException if the target printer already has too many jobs waiting
+     */
+    public static PrintJob submit(Session session, JSONObject params) throws JSONException {
+        PrintOutput output = new PrintOutput(params.optJSONObject("printer"));
+        String target = getTarget(output);
+
+        final PrintJob job = new PrintJob(String.valueOf(nextId.getAndIncrement()), target, session, output, params);
+        jobs.put(job.getId(), job);
+
+        try {
+            //under the same lock that removes idle workers, so a job can't land on a worker being dropped
+            synchronized(workers) {
+                getWorker(target).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        process(job);
+                    }
+                });
+            }
+        }
+        catch(RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            SpooledData.releaseAll(params);
+            throw new RejectedExecutionException(String.format("Print queue for %s is full", target), e);
+        }
+
+        log.info("Queued print job {} for {}", job.getId(), target);
+        return job;
+    }
+
+    public static PrintJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Whether {@code params} belong to a job still waiting or printing, and so must not be released yet
+     */
+    public static boolean isQueued(JSONObject params) {
+        if (params == null) { return false; }
+
+        for(PrintJob job : jobs.values()) {
+            if (job.getParams() == params && !job.getStatus().isFinished()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Cancels a job that has not started printing yet
+     *
+     * @return {@code true} if the job will not be printed
+     */
+    public static boolean cancel(PrintJob job) {
+        if (job.cancel()) {
+            retire(job);
+            return true;
+        }
+
+        return job.getStatus() == PrintJob.Status.CANCELED;
+    }
+
+    /**
+     * Cancels any waiting jobs sent from a session, used when a connection closes
+     */
+    public static void cancelAll(Session session) {
+        for(PrintJob job : jobs.values()) {
+            if (job.getSession() == session && job.getStatus() == PrintJob.Status.QUEUED) {
+                cancel(job);
+            }
+        }
+    }
+
+
+    private static void process(PrintJob job) {
+        if (!job.start()) {
+            log.debug("Skipping canceled print job {}", job.getId());
+            return;
+        }
+
+        try {
+            JSONObject result = PrintingUtilities.print(job.getOutput(), job.getParams());
+            log.info("Print job {} complete", job.getId());
+            job.finish(PrintJob.Status.COMPLETE, null, result);
+        }
+        catch(PrinterAbortException e) {
+            log.warn("Print job {} cancelled", job.getId());
+            job.finish(PrintJob.Status.CANCELED, "Printing cancelled");
+        }
+        catch(Exception e) {
+            log.error("Print job {} failed", job.getId(), e);
+            String message = e.getMessage();
+            if (message == null) { message = e.getClass().getSimpleName(); }
+            job.finish(PrintJob.Status.ERROR, message);
+        }
+        finally {
+            retire(job);
+        }
+    }
+
+    /**
+     * Keeps finished jobs around for status calls, dropping the oldest past the history limit
+     */
+    private static void retire(PrintJob job) {
+        SpooledData.releaseAll(job.getParams());
+
+        finishedJobs.add(job.getId());
+        while(finishedJobs.size() > Constants.PRINT_QUEUE_HISTORY) {
+            String expired = finishedJobs.poll();
+            if (expired != null) { jobs.remove(expired); }
+        }
+    }
+
+    private static String getTarget(PrintOutput output) {
+        //same precedence as raw printing uses
+        if (output.isSetHost()) {
+            return output.getHost() + ":" + output.getPort();
+        } else if (output.isSetFile()) {
+            return output.getFile().getAbsolutePath();
+        } else if (output.isSetService()) {
+            return output.getPrintService().getName();
+        } else {
+            throw new IllegalArgumentException("No printer output has been specified");
+        }
+    }
+
+    /**
+     * Only called while holding the {@code workers} lock
+     */
+    private static ThreadPoolExecutor getWorker(final String target) {
+        ThreadPoolExecutor worker = workers.get(target);
+        if (worker == null) {
+            final WorkerThreadFactory factory = new WorkerThreadFactory(target);
+            worker = new ThreadPoolExecutor(1, 1, Constants.PRINT_QUEUE_IDLE, TimeUnit.SECONDS,
+                                            new LinkedBlockingQueue<Runnable>(Constants.PRINT_QUEUE_SIZE), factory);
+            //idle printers don't keep a thread around, and their worker is dropped once its thread stops
+            worker.allowCoreThreadTimeOut(true);
+            factory.worker = worker;
+
+            workers.put(target, worker);
+        }
+
+        return worker;
+    }
+
+    /**
+     * Removes a worker whose thread timed out, unless a job was queued on it in the meantime
+     */
+    private static void removeIdle(String target, ThreadPoolExecutor worker) {
+        synchronized(workers) {
+            if (worker.getPoolSize() == 0 && worker.getQueue().isEmpty() && workers.remove(target, worker)) {
+                log.debug("Stopped idle print worker for {}", target);
+            }
+        }
+    }
+
+    public static JSONObject getStatsJSON() throws JSONException {
+        JSONObject stats = new JSONObject();
+        for(Map.Entry<String,ThreadPoolExecutor> entry : workers.entrySet()) {
+            ThreadPoolExecutor worker = entry.getValue();
+            stats.put(entry.getKey(), new JSONObject()
+                    .put("active", worker.getActiveCount())
+                    .put("waiting", worker.getQueue().size())
+                    .put("completed", worker.getCompletedTaskCount()));
+        }
+
+        return stats;
+    }
+
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final String target;
+        private final AtomicInteger count = new AtomicInteger(1);
+        private volatile ThreadPoolExecutor worker;
+
+        WorkerThreadFactory(String target) {
+            this.target = target;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try { r.run(); }
+                    finally { removeIdle(target, worker); }
+                }
+            }, "print-" + target + "-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+
+    }
+
+}
@@ -0,0 +1,212 @@
+package qz.printer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.print.CancelablePrintJob;
+import javax.print.DocPrintJob;
+import javax.print.PrintException;
+import javax.print.event.PrintJobEvent;
+import javax.print.event.PrintJobListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Tracks a {@code DocPrintJob} until the print service reports it as finished.
+ * <p/>
+ * Waiting threads block on a latch rather than polling, and callbacks can be added to act on the
+ * outcome without blocking at all.
+ */
+public class PrintJobWatcher implements PrintJobListener, Future<PrintJobWatcher.Outcome> {
+
+    private static final Logger log = LoggerFactory.getLogger(PrintJobWatcher.class);
+
+    public enum Outcome {
+        COMPLETED, FAILED, CANCELED, NO_MORE_EVENTS;
+
+        public boolean isSuccess() {
+            return this == COMPLETED || this == NO_MORE_EVENTS;
+        }
+    }
+
+    public interface Callback {
+        void onFinished(PrintJobWatcher watcher, Outcome outcome);
+    }
+
+    private final DocPrintJob printJob;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final List<Callback> callbacks = new ArrayList<>();
+
+    private volatile Outcome outcome;
+
+
+    public PrintJobWatcher(DocPrintJob printJob) {
+        this.printJob = printJob;
+        printJob.addPrintJobListener(this);
+    }
+
+    public DocPrintJob getPrintJob() {
+        return printJob;
+    }
+
+    /**
+     * Adds a callback to run once the job finishes, immediately if it already has
+     */
+    public void addCallback(Callback callback) {
+        synchronized(callbacks) {
+            if (outcome == null) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+
+        callback.onFinished(this, outcome);
+    }
+
+    /**
+     * Waits for the print service to report the job as finished
+     *
+     * @param timeout Seconds to wait, {@code 0} to wait indefinitely
+     * @return The job's outcome, or {@code null} if it did not finish in time
+     */
+    public Outcome await(int timeout) throws InterruptedException {
+        if (timeout > 0) {
+            if (!latch.await(timeout, TimeUnit.SECONDS)) {
+                return null;
+            }
+        } else {
+            latch.await();
+        }
+
+        return outcome;
+    }
+
+    /**
+     * Waits for the job to finish, throwing if it failed or was canceled
+     *
+     * @param timeout Seconds to wait, {@code 0} to wait indefinitely
+     */
+    public void awaitSuccess(int timeout) throws PrintException {
+        Outcome result;
+        try {
+            result = await(timeout);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PrintException("Interrupted while waiting for print job to finish");
+        }
+
+        if (result == null) {
+            //the job was still handed to the print service, some never report back
+            log.warn("No response from print service after {} seconds, assuming job was sent", timeout);
+        } else if (result == Outcome.FAILED) {
+            throw new PrintException("Print job failed");
+        } else if (result == Outcome.CANCELED) {
+            throw new PrintException("Print job was canceled");
+        }
+    }
+
+    private void finish(Outcome result) {
+        List<Callback> toRun;
+        synchronized(callbacks) {
+            if (outcome != null) { return; } //only the first finishing event counts
+            outcome = result;
+
+            toRun = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+
+        latch.countDown();
+
+        for(Callback callback : toRun) {
+            try {
+                callback.onFinished(this, result);
+            }
+            catch(Exception e) {
+                log.error("Print job callback failed", e);
+            }
+        }
+    }
+
+
+    @Override
+    public void printDataTransferCompleted(PrintJobEvent printJobEvent) {
+        log.debug("{}", printJobEvent);
+        finish(Outcome.COMPLETED);
+    }
+
+    @Override
+    public void printJobCompleted(PrintJobEvent printJobEvent) {
+        log.debug("{}", printJobEvent);
+        finish(Outcome.COMPLETED);
+    }
+
+    @Override
+    public void printJobFailed(PrintJobEvent printJobEvent) {
+        log.error("{}", printJobEvent);
+        finish(Outcome.FAILED);
+    }
+
+    @Override
+    public void printJobCanceled(PrintJobEvent printJobEvent) {
+        log.warn("{}", printJobEvent);
+        finish(Outcome.CANCELED);
+    }
+
+    @Override
+    public void printJobNoMoreEvents(PrintJobEvent printJobEvent) {
+        log.debug("{}", printJobEvent);
+        finish(Outcome.NO_MORE_EVENTS);
+    }
+
+    @Override
+    public void printJobRequiresAttention(PrintJobEvent printJobEvent) {
+        log.info("{}", printJobEvent);
+    }
+
+
+    /**
+     * Cancels the job through the print service, if it supports canceling
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone() || !(printJob instanceof CancelablePrintJob)) { return false; }
+
+        try {
+            ((CancelablePrintJob)printJob).cancel();
+            finish(Outcome.CANCELED);
+            return true;
+        }
+        catch(PrintException e) {
+            log.warn("Unable to cancel print job", e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return outcome == Outcome.CANCELED;
+    }
+
+    @Override
+    public boolean isDone() {
+        return outcome != null;
+    }
+
+    @Override
+    public Outcome get() throws InterruptedException {
+        latch.await();
+        return outcome;
+    }
+
+    @Override
+    public Outcome get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException("Print job did not finish in time");
+        }
+
+        return outcome;
+    }
+
+}
@@ -5,6 +5,7 @@ import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qz.common.Constants;
 import qz.utils.PrintingUtilities;
 import qz.utils.SystemUtilities;
 
@@ -52,6 +53,10 @@ public class PrintOptions {
         if (!configOpts.isNull("endOfDoc")) {
             rawOptions.endOfDoc = configOpts.optString("endOfDoc", null);
         }
+        if (!configOpts.isNull("keepAlive")) {
+            try { rawOptions.keepAlive = configOpts.getInt("keepAlive"); }
+            catch(JSONException e) { warn("integer", "keepAlive", configOpts.opt("keepAlive")); }
+        }
         if (!configOpts.isNull("language")) {
             rawOptions.language = configOpts.optString("language", null);
         }
@@ -59,10 +64,21 @@ public class PrintOptions {
             try { rawOptions.perSpool = configOpts.getInt("perSpool"); }
             catch(JSONException e) { warn("integer", "perSpool", configOpts.opt("perSpool")); }
         }
+        if (!configOpts.isNull("singleConnection")) {
+            try { rawOptions.singleConnection = configOpts.getBoolean("singleConnection"); }
+            catch(JSONException e) { warn("boolean", "singleConnection", configOpts.opt("singleConnection")); }
+        }
+        if (!configOpts.isNull("waitTimeout")) {
+            try { rawOptions.waitTimeout = configOpts.getInt("waitTimeout"); }
+            catch(JSONException e) { warn("integer", "waitTimeout", configOpts.opt("waitTimeout")); }
+        }
         if (!configOpts.isNull("copies")) {
             try { rawOptions.copies = configOpts.getInt("copies"); }
             catch(JSONException e) { warn("integer", "copies", configOpts.opt("copies")); }
         }
+        if (!configOpts.isNull("copyStrategy")) {
+            rawOptions.copyStrategy = RawCopies.Strategy.parse(configOpts.optString("copyStrategy"), RawCopies.Strategy.LOOP);
+        }
         if (!configOpts.isNull("jobName")) {
             rawOptions.jobName = configOpts.optString("jobName", null);
         }
@@ -278,9 +294,13 @@ public class PrintOptions {
         private boolean altPrinting = false;    //Alternate printing for linux systems
         private String encoding = null;         //Text encoding / charset
         private String endOfDoc = null;         //End of document character
+        private int keepAlive = 0;              //Seconds to keep host connections open for reuse
         private String language = null;         //Printer language
         private int perSpool = 1;               //Pages per spool
+        private boolean singleConnection = false; //Send all spools over one host connection
+        private int waitTimeout = Constants.PRINT_WAIT_TIMEOUT; //Seconds to wait for the print service to finish a job
         private int copies = 1;                 //Job copies
+        private RawCopies.Strategy copyStrategy = RawCopies.Strategy.LOOP; //How copies are made
         private String jobName = null;          //Job name
 
 
@@ -296,6 +316,10 @@ public class PrintOptions {
             return endOfDoc;
         }
 
+        public int getKeepAlive() {
+            return keepAlive;
+        }
+
         public String getLanguage() {
             return language;
         }
@@ -304,10 +328,22 @@ public class PrintOptions {
             return perSpool;
         }
 
+        public boolean isSingleConnection() {
+            return singleConnection;
+        }
+
+        public int getWaitTimeout() {
+            return waitTimeout;
+        }
+
         public int getCopies() {
             return copies;
         }
 
+        public RawCopies.Strategy getCopyStrategy() {
+            return copyStrategy;
+        }
+
         public String getJobName(String defaultVal) {
             return jobName == null || jobName.isEmpty()? defaultVal:jobName;
         }
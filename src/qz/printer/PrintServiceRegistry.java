@@ -0,0 +1,332 @@
+package qz.printer;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.common.Constants;
+import qz.utils.SystemUtilities;
+import qz.ws.PrintSocketServer;
+
+import javax.print.PrintService;
+import javax.print.PrintServiceLookup;
+import javax.print.attribute.standard.PrinterName;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Cached list of the system's print services, indexed by name for searching.
+ * <p/>
+ * Looking up services can take hundreds of milliseconds on systems with many queues, so the list is refreshed in the
+ * background every {@code printer.refresh.interval} seconds, and sooner when the CUPS configuration changes.
+ * A search that finds nothing forces a refresh, so a newly added printer is picked up right away.
+ */
+public class PrintServiceRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(PrintServiceRegistry.class);
+
+    private static final Path CUPS_DIR = Paths.get("/etc/cups");
+    private static final String[] CUPS_FILES = {"printers.conf", "classes.conf"};
+
+    //minimum age of the list before a failed search refreshes it again
+    private static final long MISS_REFRESH_AGE = 1000;
+
+    private static final Object refreshLock = new Object();
+    private static volatile Snapshot snapshot;
+
+    private static ScheduledExecutorService scheduler;
+    private static int interval = -1;
+    private static volatile boolean watching;
+
+    private static final AtomicLong hits = new AtomicLong(0);
+    private static final AtomicLong misses = new AtomicLong(0);
+    private static final AtomicLong notFound = new AtomicLong(0);
+    private static final AtomicLong refreshes = new AtomicLong(0);
+
+
+    private PrintServiceRegistry() {}
+
+    public static PrintService[] getServices() {
+        return getSnapshot().services.clone();
+    }
+
+    /**
+     * Finds the service best matching {@code search}, preferring exact names, then names starting with it, then names containing it.
+     *
+     * @param search Lowercase search query
+     * @return The matching service, or {@code null} if none match
+     */
+    public static PrintService match(String search) {
+        Snapshot current = getSnapshot();
+
+        PrintService found = current.results.get(search);
+        if (found != null) {
+            hits.incrementAndGet();
+            return found;
+        }
+        misses.incrementAndGet();
+
+        found = current.find(search);
+        if (found == null && System.currentTimeMillis() - current.created > MISS_REFRESH_AGE) {
+            log.debug("No printer matching {}, refreshing printer list", search);
+            current = refresh(System.currentTimeMillis());
+            found = current.find(search);
+        }
+
+        if (found != null) {
+            current.results.putIfAbsent(search, found);
+        } else {
+            notFound.incrementAndGet();
+        }
+
+        return found;
+    }
+
+    /**
+     * Drops cached results, the next call looks up the print services again
+     */
+    public static void invalidate() {
+        snapshot = null;
+    }
+
+    public static JSONObject getStatsJSON() throws JSONException {
+        Snapshot current = snapshot;
+
+        JSONObject stats = new JSONObject()
+                .put("hits", hits.get())
+                .put("misses", misses.get())
+                .put("notFound", notFound.get())
+                .put("refreshes", refreshes.get())
+                .put("interval", getInterval())
+                .put("watching", watching);
+
+        if (current != null) {
+            stats.put("services", current.services.length)
+                    .put("age", System.currentTimeMillis() - current.created)
+                    .put("lookupTime", current.lookupTime);
+        }
+
+        return stats;
+    }
+
+
+    private static Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null || getInterval() <= 0) {
+            current = refresh(System.currentTimeMillis());
+        }
+
+        return current;
+    }
+
+    /**
+     * Looks up the print services again, unless that already happened after {@code requested}
+     */
+    private static Snapshot refresh(long requested) {
+        synchronized(refreshLock) {
+            Snapshot current = snapshot;
+            if (current != null && current.created >= requested) {
+                return current;
+            }
+
+            long start = System.currentTimeMillis();
+            PrintService[] services = PrintServiceLookup.lookupPrintServices(null, null);
+            long lookupTime = System.currentTimeMillis() - start;
+            log.debug("Found {} printers in {}ms", services.length, lookupTime);
+
+            current = new Snapshot(services, start, lookupTime);
+            snapshot = current;
+            refreshes.incrementAndGet();
+
+            startBackground();
+
+            return current;
+        }
+    }
+
+    private static synchronized int getInterval() {
+        if (interval < 0) {
+            interval = Constants.PRINTER_REFRESH_INTERVAL;
+
+            Properties props = PrintSocketServer.getTrayProperties();
+            if (props != null && props.containsKey("printer.refresh.interval")) {
+                try { interval = Integer.parseInt(props.getProperty("printer.refresh.interval").trim()); }
+                catch(NumberFormatException e) {
+                    log.warn("Invalid printer.refresh.interval {}, using {}", props.getProperty("printer.refresh.interval"), interval);
+                }
+            }
+        }
+
+        return interval;
+    }
+
+    private static synchronized void startBackground() {
+        if (scheduler != null || getInterval() <= 0) { return; }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "printer-refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try { refresh(System.currentTimeMillis()); }
+                catch(Exception e) {
+                    log.warn("Failed to refresh printer list", e);
+                }
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+
+        if (!SystemUtilities.isWindows() && Files.isDirectory(CUPS_DIR)) {
+            Thread watcher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    watchCups();
+                }
+            }, "printer-watch");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    /**
+     * Refreshes the list whenever CUPS rewrites its printer or class configuration
+     */
+    private static void watchCups() {
+        try(WatchService watch = FileSystems.getDefault().newWatchService()) {
+            CUPS_DIR.register(watch, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            watching = true;
+
+            while(true) {
+                WatchKey key = watch.take();
+
+                boolean changed = false;
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    changed |= event.kind() == OVERFLOW || isCupsFile(event.context());
+                }
+
+                if (changed) {
+                    //a burst of events only needs one refresh, queued refreshes are skipped once a newer list exists
+                    final long requested = System.currentTimeMillis();
+                    scheduler.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try { refresh(requested); }
+                            catch(Exception e) {
+                                log.warn("Failed to refresh printer list", e);
+                            }
+                        }
+                    });
+                }
+
+                if (!key.reset()) { break; }
+            }
+        }
+        catch(InterruptedException ignore) {}
+        catch(IOException | SecurityException e) {
+            log.warn("Unable to watch {} for printer changes", CUPS_DIR, e);
+        }
+        finally {
+            watching = false;
+        }
+    }
+
+    private static boolean isCupsFile(Object context) {
+        if (context == null) { return false; }
+
+        //CUPS writes to a temporary file then renames it, so include those too
+        String name = context.toString();
+        for(String file : CUPS_FILES) {
+            if (name.startsWith(file)) { return true; }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Print services found by a single lookup, with their lowercase names indexed
+     */
+    private static class Snapshot {
+
+        private final PrintService[] services;
+        private final long created;
+        private final long lookupTime;
+
+        //lowercase name -> index of the first service with that name
+        private final Map<String,Integer> exact = new HashMap<>();
+        //lowercase name -> index of the last service with that name, sorted for prefix searches
+        private final TreeMap<String,Integer> sorted = new TreeMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<Integer> owners = new ArrayList<>();
+
+        //search -> match, valid until the next refresh
+        private final ConcurrentHashMap<String,PrintService> results = new ConcurrentHashMap<>();
+
+        Snapshot(PrintService[] services, long created, long lookupTime) {
+            this.services = services;
+            this.created = created;
+            this.lookupTime = lookupTime;
+
+            for(int i = 0; i < services.length; i++) {
+                index(services[i].getName(), i);
+
+                if (SystemUtilities.isMac()) {
+                    // 1.9 style printer names
+                    PrinterName name = services[i].getAttribute(PrinterName.class);
+                    if (name != null) { index(name.getValue(), i); }
+                }
+            }
+        }
+
+        private void index(String name, int owner) {
+            name = name.toLowerCase();
+
+            if (!exact.containsKey(name)) { exact.put(name, owner); }
+            sorted.put(name, owner);
+            names.add(name);
+            owners.add(owner);
+        }
+
+        /**
+         * Searches the index, when several names start with or contain the search the last listed service is used
+         */
+        PrintService find(String search) {
+            Integer match = exact.get(search);
+            if (match != null) {
+                return services[match];
+            }
+
+            int last = -1;
+            for(Integer owner : sorted.subMap(search, true, search + Character.MAX_VALUE, false).values()) {
+                last = Math.max(last, owner);
+            }
+            if (last >= 0) {
+                return services[last];
+            }
+
+            for(int i = 0; i < names.size(); i++) {
+                if (names.get(i).contains(search)) {
+                    last = Math.max(last, owners.get(i));
+                }
+            }
+            if (last >= 0) {
+                return services[last];
+            }
+
+            return null;
+        }
+
+    }
+
+}
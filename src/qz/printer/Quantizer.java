@@ -0,0 +1,214 @@
+package qz.printer;
+
+import java.util.Arrays;
+
+/**
+ * Dithering stage used when converting images to monochrome, giving the impression of gray levels on printers that only print dots.
+ * <p/>
+ * Gray levels go from 0 (black) to 255 (white).  Error diffusion only keeps error buffers for the next couple of rows,
+ * so memory use depends on the width of the image and not its height.
+ * A new instance is needed for each image, since it holds the error carried between rows.
+ */
+public abstract class Quantizer {
+
+    public enum Type {
+        FLOYD_STEINBERG("floyd-steinberg", "floyd", "fs"),
+        ATKINSON("atkinson"),
+        BAYER("bayer", "ordered");
+
+        private final String[] names;
+
+        Type(String... names) {
+            this.names = names;
+        }
+
+        /**
+         * @return The matching type, or {@code null} for no dithering
+         */
+        public static Type getType(String name) {
+            if (name != null) {
+                name = name.trim().toLowerCase();
+                for(Type type : values()) {
+                    for(String n : type.names) {
+                        if (n.equals(name)) { return type; }
+                    }
+                }
+            }
+
+            return null;
+        }
+    }
+
+    protected final int width;
+    protected final int threshold;
+
+
+    protected Quantizer(int width, int threshold) {
+        this.width = width;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param type      Dithering type
+     * @param width     Width of the image in pixels
+     * @param threshold Gray level below which a pixel prints black, before dithering; 128 is neutral
+     */
+    public static Quantizer create(Type type, int width, int threshold) {
+        switch(type) {
+            case ATKINSON:
+                return new Atkinson(width, threshold);
+            case BAYER:
+                return new Bayer(width, threshold);
+            case FLOYD_STEINBERG:
+            default:
+                return new FloydSteinberg(width, threshold);
+        }
+    }
+
+    /**
+     * Whether rows can be quantized in any order and from several threads; otherwise rows must be given top to bottom
+     */
+    public boolean isRowIndependent() {
+        return false;
+    }
+
+    /**
+     * Replaces each gray level in {@code row} with 0 for a black dot or 255 for white
+     *
+     * @param y   Index of the row in the image
+     * @param row Gray levels of the row
+     */
+    public abstract void quantize(int y, int[] row);
+
+
+    /**
+     * Floyd–Steinberg error diffusion, spreading 7/16 of the error right and 3/16, 5/16 and 1/16 to the row below.
+     * Rows alternate direction to avoid the diagonal artifacts of always scanning left to right.
+     */
+    public static class FloydSteinberg extends Quantizer {
+
+        //errors in 1/16 of a gray level, with a pixel of padding on each side
+        private int[] current;
+        private int[] next;
+
+        public FloydSteinberg(int width, int threshold) {
+            super(width, threshold);
+            current = new int[width + 2];
+            next = new int[width + 2];
+        }
+
+        @Override
+        public void quantize(int y, int[] row) {
+            boolean reverse = (y & 1) == 1;
+            int step = reverse? -1:1;
+            int x = reverse? width - 1:0;
+
+            for(int i = 0; i < width; i++, x += step) {
+                int value = row[x] + ((current[x + 1] + 8) >> 4);
+                int result = value < threshold? 0:255;
+                int error = value - result;
+                row[x] = result;
+
+                current[x + 1 + step] += error * 7;
+                next[x + 1 - step] += error * 3;
+                next[x + 1] += error * 5;
+                next[x + 1 + step] += error;
+            }
+
+            int[] swap = current;
+            current = next;
+            next = swap;
+            Arrays.fill(next, 0);
+        }
+
+    }
+
+    /**
+     * Atkinson error diffusion, spreading 1/8 of the error to six neighbors and dropping the rest.
+     * Keeps more contrast than Floyd–Steinberg, which suits logos and line art.
+     */
+    public static class Atkinson extends Quantizer {
+
+        //errors in 1/8 of a gray level for the current and next two rows, with two pixels of padding on each side
+        private int[] current;
+        private int[] next;
+        private int[] after;
+
+        public Atkinson(int width, int threshold) {
+            super(width, threshold);
+            current = new int[width + 4];
+            next = new int[width + 4];
+            after = new int[width + 4];
+        }
+
+        @Override
+        public void quantize(int y, int[] row) {
+            for(int x = 0; x < width; x++) {
+                int p = x + 2;
+                int value = row[x] + ((current[p] + 4) >> 3);
+                int result = value < threshold? 0:255;
+                int error = value - result;
+                row[x] = result;
+
+                current[p + 1] += error;
+                current[p + 2] += error;
+                next[p - 1] += error;
+                next[p] += error;
+                next[p + 1] += error;
+                after[p] += error;
+            }
+
+            int[] swap = current;
+            current = next;
+            next = after;
+            after = swap;
+            Arrays.fill(after, 0);
+        }
+
+    }
+
+    /**
+     * Ordered dithering against an 8x8 Bayer matrix.  Each pixel is handled on its own, so rows can be done in parallel.
+     */
+    public static class Bayer extends Quantizer {
+
+        private static final int[][] MATRIX = {
+                {0, 32, 8, 40, 2, 34, 10, 42},
+                {48, 16, 56, 24, 50, 18, 58, 26},
+                {12, 44, 4, 36, 14, 46, 6, 38},
+                {60, 28, 52, 20, 62, 30, 54, 22},
+                {3, 35, 11, 43, 1, 33, 9, 41},
+                {51, 19, 59, 27, 49, 17, 57, 25},
+                {15, 47, 7, 39, 13, 45, 5, 37},
+                {63, 31, 55, 23, 61, 29, 53, 21}
+        };
+
+        //thresholds for each matrix cell, centered on the requested threshold
+        private final int[][] thresholds = new int[8][8];
+
+        public Bayer(int width, int threshold) {
+            super(width, threshold);
+
+            for(int y = 0; y < 8; y++) {
+                for(int x = 0; x < 8; x++) {
+                    thresholds[y][x] = MATRIX[y][x] * 4 + 2 + threshold - 128;
+                }
+            }
+        }
+
+        @Override
+        public boolean isRowIndependent() {
+            return true;
+        }
+
+        @Override
+        public void quantize(int y, int[] row) {
+            int[] cells = thresholds[y & 7];
+            for(int x = 0; x < width; x++) {
+                row[x] = row[x] < cells[x & 7]? 0:255;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,189 @@
+package qz.printer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Ways of printing several copies of raw data, from cheapest to most expensive.
+ * <ul>
+ * <li><code>NATIVE</code>: A copy count given to the print job, which the spooler or printer repeats</li>
+ * <li><code>COMMAND</code>: The printer language's own quantity, <code>^PQ</code> for ZPL or <code>P</code> for EPL, written into each label</li>
+ * <li><code>CONCATENATE</code>: Every copy sent one after another as a single job or connection</li>
+ * <li><code>LOOP</code>: Every copy sent as its own job or connection</li>
+ * <li><code>AUTO</code>: The first of the above the printer and data allow</li>
+ * </ul>
+ * Native and command copies print each label's copies together, the others print the whole document once per copy, so
+ * <code>LOOP</code> is the default and the strategies that change the order labels come out in are only used when asked for.
+ */
+public class RawCopies {
+
+    private static final Logger log = LoggerFactory.getLogger(RawCopies.class);
+
+    //commands are ASCII, and decoding as latin-1 keeps any binary data byte for byte
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    private static final Pattern ZPL_FORMAT = Pattern.compile("\\^XA(.*?)\\^XZ", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern ZPL_QUANTITY = Pattern.compile("\\^PQ(\\d*)", Pattern.CASE_INSENSITIVE);
+    //serial numbers and changed command prefixes would print differently when repeated by the printer
+    private static final Pattern ZPL_UNSAFE = Pattern.compile("[\\^~](SN|SF|CC|CT|DF)", Pattern.CASE_INSENSITIVE);
+    //commands followed by binary data, with the length of the data: ^GFB and ^GFC graphic fields, and ~DY binary or PNG downloads
+    private static final Pattern ZPL_BINARY = Pattern.compile("\\^GF[BC],(\\d+),\\d*,\\d*,|~DY[^,]*,[BCP],[^,]*,(\\d+),[^,]*,", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern EPL_PRINT = Pattern.compile("P(\\d+)(,\\d+)?\r?");
+    private static final Pattern EPL_GRAPHIC = Pattern.compile("GW\\d+,\\d+,(\\d+),(\\d+),");
+    //counters and stored forms would print differently when repeated by the printer
+    private static final Pattern EPL_UNSAFE = Pattern.compile("C\\d|FS");
+
+    public enum Strategy {
+        AUTO, NATIVE, COMMAND, CONCATENATE, LOOP;
+
+        public static Strategy parse(String value, Strategy fallback) {
+            if (value != null && !value.isEmpty()) {
+                try { return Strategy.valueOf(value.trim().toUpperCase(Locale.ENGLISH)); }
+                catch(IllegalArgumentException e) {
+                    log.warn("Unknown copy strategy {}, using {}", value, fallback);
+                }
+            }
+
+            return fallback;
+        }
+    }
+
+
+    private RawCopies() {}
+
+    /**
+     * Rewrites {@code data} so every label prints {@code copies} times, using the language's quantity command
+     *
+     * @return The rewritten data, or {@code null} if the language has no quantity command or the data can't safely be repeated by the printer
+     */
+    public static byte[] withCopies(byte[] data, LanguageType language, int copies) {
+        String rewritten;
+        switch(language) {
+            case ZPL:
+            case ZPLII:
+                rewritten = zplCopies(new String(data, LATIN1), copies);
+                break;
+            case EPL:
+            case EPL2:
+                rewritten = eplCopies(new String(data, LATIN1), copies);
+                break;
+            default:
+                return null;
+        }
+
+        return rewritten == null? null:rewritten.getBytes(LATIN1);
+    }
+
+    /**
+     * Sets or multiplies the {@code ^PQ} quantity of each {@code ^XA ... ^XZ} format, skipping over binary graphic data
+     */
+    private static String zplCopies(String commands, int copies) {
+        //commands are matched against a copy with binary data blanked out, which lines up with the original character for character
+        String scan = blankZplData(commands);
+        if (scan == null || ZPL_UNSAFE.matcher(scan).find()) { return null; }
+
+        StringBuilder out = new StringBuilder(commands.length() + 16);
+        Matcher format = ZPL_FORMAT.matcher(scan);
+        int last = 0;
+        int formats = 0;
+        while(format.find()) {
+            out.append(commands, last, format.start(1));
+
+            Matcher quantity = ZPL_QUANTITY.matcher(scan).region(format.start(1), format.end(1));
+            if (quantity.find()) {
+                long total = (quantity.group(1).isEmpty()? 1:Long.parseLong(quantity.group(1))) * copies;
+                if (total > 99999999) { return null; }
+                out.append(commands, format.start(1), quantity.start()).append("^PQ").append(total);
+
+                int after = quantity.end();
+                if (quantity.find()) { return null; } //more than one quantity in a label
+                out.append(commands, after, format.end(1));
+            } else {
+                out.append(commands, format.start(1), format.end(1)).append("^PQ").append(copies);
+            }
+
+            last = format.end(1);
+            formats++;
+        }
+        out.append(commands, last, commands.length());
+
+        return formats > 0? out.toString():null;
+    }
+
+    /**
+     * Replaces the binary data following {@code ^GFB}, {@code ^GFC} and {@code ~DY} commands with spaces, using their declared lengths
+     *
+     * @return The blanked commands, or {@code null} if a declared length runs past the end of the data
+     */
+    private static String blankZplData(String commands) {
+        Matcher binary = ZPL_BINARY.matcher(commands);
+        if (!binary.find()) { return commands; }
+
+        char[] scan = commands.toCharArray();
+        int from = 0;
+        while(from < scan.length && binary.find(from)) {
+            String length = (binary.group(1) != null? binary.group(1):binary.group(2));
+            if (length.length() > 9 || binary.end() + Long.parseLong(length) > scan.length) { return null; }
+
+            int dataEnd = binary.end() + Integer.parseInt(length);
+
+            Arrays.fill(scan, binary.end(), dataEnd, ' ');
+            from = dataEnd;
+        }
+
+        return new String(scan);
+    }
+
+    /**
+     * Multiplies the quantity of each form's {@code P} print command, skipping over binary {@code GW} graphic data
+     */
+    private static String eplCopies(String commands, int copies) {
+        StringBuilder out = new StringBuilder(commands.length() + 16);
+        int forms = 0;
+
+        int start = 0;
+        while(start < commands.length()) {
+            int end = commands.indexOf('\n', start);
+            if (end < 0) { end = commands.length(); }
+            String line = commands.substring(start, end);
+
+            Matcher graphic = EPL_GRAPHIC.matcher(line);
+            Matcher print = EPL_PRINT.matcher(line);
+            if (graphic.lookingAt()) {
+                //the graphic's bytes follow its parameters, and may contain anything including line feeds
+                long length = Long.parseLong(graphic.group(1)) * Long.parseLong(graphic.group(2));
+                long dataEnd = start + graphic.end() + length;
+                if (dataEnd > commands.length()) { return null; }
+
+                end = commands.indexOf('\n', (int)dataEnd);
+                if (end < 0) { end = commands.length(); }
+                out.append(commands, start, end);
+            } else if (print.matches()) {
+                long total = Long.parseLong(print.group(1)) * copies;
+                if (total > 65535) { return null; }
+
+                out.append('P').append(total);
+                if (print.group(2) != null) { out.append(print.group(2)); }
+                if (line.endsWith("\r")) { out.append('\r'); }
+                forms++;
+            } else if (EPL_UNSAFE.matcher(line).lookingAt()) {
+                return null;
+            } else {
+                out.append(line);
+            }
+
+            if (end < commands.length()) { out.append('\n'); }
+            start = end + 1;
+        }
+
+        return forms > 0? out.toString():null;
+    }
+
+}
@@ -0,0 +1,208 @@
+package qz.printer;
+
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+
+/**
+ * Builds ZPL {@code ^GFA} graphic fields from packed monochrome rows, using ZPL's compression schemes to keep them small.
+ * <ul>
+ * <li><code>NONE</code>: ASCII hex, two characters per byte</li>
+ * <li><code>ACS</code>: Alternative compression scheme, hex with run-length counts, <code>,</code> and <code>!</code> to fill the rest of a row
+ * with zeros or ones, and <code>:</code> to repeat the previous row</li>
+ * <li><code>B64</code>: Base64 of the bytes, as <code>:B64:data:crc</code>, requires firmware x.14 or newer</li>
+ * <li><code>Z64</code>: Base64 of the zlib compressed bytes, as <code>:Z64:data:crc</code>, requires firmware x.14 or newer</li>
+ * <li><code>AUTO</code>: Whichever of <code>NONE</code> and <code>ACS</code> is smaller for the image, the default.
+ * Both are plain ZPL II, so unlike <code>B64</code> and <code>Z64</code> this works on any firmware</li>
+ * </ul>
+ */
+public class ZplGraphic {
+
+    private static final Logger log = LoggerFactory.getLogger(ZplGraphic.class);
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    public enum Compression {
+        NONE, ACS, B64, Z64, AUTO;
+
+        public static Compression parse(String value, Compression fallback) {
+            if (value != null && !value.isEmpty()) {
+                try { return Compression.valueOf(value.trim().toUpperCase()); }
+                catch(IllegalArgumentException e) {
+                    log.warn("Unknown ZPL compression {}, using {}", value, fallback);
+                }
+            }
+
+            return fallback;
+        }
+    }
+
+
+    private ZplGraphic() {}
+
+    /**
+     * @param packed   Image rows, packed one bit per dot
+     * @param rowBytes Bytes per row
+     * @return The complete {@code ^GFA} command
+     */
+    public static String encode(byte[] packed, int rowBytes, Compression compression) {
+        String data;
+        switch(compression) {
+            case NONE:
+                data = hex(packed);
+                break;
+            case ACS:
+                data = acs(packed, rowBytes);
+                break;
+            case B64:
+                data = b64(packed);
+                break;
+            case Z64:
+                data = z64(packed);
+                break;
+            case AUTO:
+            default:
+                //hex length is known up front, so only ACS needs encoding to compare
+                data = acs(packed, rowBytes);
+                if (data.length() > packed.length * 2) { data = hex(packed); }
+                break;
+        }
+
+        log.debug("Encoded {} byte graphic as {} characters", packed.length, data.length());
+
+        return "^GFA," + packed.length + "," + packed.length + "," + rowBytes + "," + data;
+    }
+
+    public static String hex(byte[] packed) {
+        char[] chars = new char[packed.length * 2];
+        for(int i = 0; i < packed.length; i++) {
+            chars[i * 2] = HEX[(packed[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX[packed[i] & 0x0F];
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Run-length encodes the hex form of each row
+     */
+    public static String acs(byte[] packed, int rowBytes) {
+        StringBuilder out = new StringBuilder(packed.length / 2);
+        char[] row = new char[rowBytes * 2];
+
+        for(int start = 0; start < packed.length; start += rowBytes) {
+            if (start > 0 && sameRow(packed, start - rowBytes, start, rowBytes)) {
+                out.append(':');
+                continue;
+            }
+
+            for(int i = 0; i < rowBytes; i++) {
+                byte b = packed[start + i];
+                row[i * 2] = HEX[(b >> 4) & 0x0F];
+                row[i * 2 + 1] = HEX[b & 0x0F];
+            }
+
+            //a trailing run of zeros or ones can be replaced with a single fill character
+            int end = row.length;
+            char fill = row[end - 1];
+            if (fill == '0' || fill == 'F') {
+                while(end > 0 && row[end - 1] == fill) { end--; }
+            }
+
+            int i = 0;
+            while(i < end) {
+                char c = row[i];
+                int run = 1;
+                while(i + run < end && row[i + run] == c) { run++; }
+
+                if (run > 2) {
+                    appendCount(out, run);
+                    out.append(c);
+                } else {
+                    out.append(c);
+                    if (run == 2) { out.append(c); }
+                }
+                i += run;
+            }
+
+            if (end < row.length) {
+                out.append(fill == '0'? ',':'!');
+            }
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Repeat counts are <code>G</code>-<code>Y</code> for 1-19 and <code>g</code>-<code>z</code> for 20-400, added together
+     */
+    private static void appendCount(StringBuilder out, int count) {
+        while(count > 400) {
+            out.append('z');
+            count -= 400;
+        }
+        if (count >= 20) {
+            out.append((char)('g' + count / 20 - 1));
+            count %= 20;
+        }
+        if (count > 0) {
+            out.append((char)('G' + count - 1));
+        }
+    }
+
+    private static boolean sameRow(byte[] packed, int previous, int current, int rowBytes) {
+        for(int i = 0; i < rowBytes; i++) {
+            if (packed[previous + i] != packed[current + i]) { return false; }
+        }
+
+        return true;
+    }
+
+    public static String b64(byte[] packed) {
+        return withCrc(":B64:", new String(Base64.encodeBase64(packed, false), ASCII));
+    }
+
+    public static String z64(byte[] packed) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(packed.length / 4 + 64);
+        try {
+            deflater.setInput(packed);
+            deflater.finish();
+
+            byte[] buffer = new byte[8192];
+            while(!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+        finally {
+            deflater.end();
+        }
+
+        return withCrc(":Z64:", new String(Base64.encodeBase64(compressed.toByteArray(), false), ASCII));
+    }
+
+    private static String withCrc(String header, String data) {
+        return header + data + ":" + String.format("%04X", crc16(data));
+    }
+
+    /**
+     * CRC-16/XMODEM (CCITT polynomial, zero initial value) of the encoded data, which the printer checks the data against
+     */
+    private static int crc16(String data) {
+        int crc = 0;
+        for(int i = 0; i < data.length(); i++) {
+            crc ^= data.charAt(i) << 8;
+            for(int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0? (crc << 1) ^ 0x1021:crc << 1;
+            }
+        }
+
+        return crc & 0xFFFF;
+    }
+
+}
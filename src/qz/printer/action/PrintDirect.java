@@ -1,12 +1,12 @@
 package qz.printer.action;
 
-import org.apache.commons.codec.binary.Base64InputStream;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qz.common.Constants;
+import qz.common.SpooledData;
 import qz.printer.PrintOptions;
 import qz.printer.PrintOutput;
 import qz.utils.PrintingUtilities;
@@ -18,7 +18,6 @@ import javax.print.SimpleDoc;
 import javax.print.attribute.HashPrintRequestAttributeSet;
 import javax.print.attribute.PrintRequestAttributeSet;
 import javax.print.attribute.standard.JobName;
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,7 +29,7 @@ public class PrintDirect extends PrintRaw {
 
     private static final Logger log = LoggerFactory.getLogger(PrintDirect.class);
 
-    private ArrayList<String> prints = new ArrayList<>();
+    private ArrayList<Object> prints = new ArrayList<>();
     private ArrayList<PrintingUtilities.Format> formats = new ArrayList<>();
 
 
@@ -45,13 +44,13 @@ public class PrintDirect extends PrintRaw {
             JSONObject data = printData.optJSONObject(i);
             if (data == null) { continue; }
 
-            prints.add(data.getString("data"));
+            prints.add(data.get("data"));
             formats.add(PrintingUtilities.Format.valueOf(data.optString("format", "PLAIN").toUpperCase(Locale.ENGLISH)));
         }
     }
 
     @Override
-    public void print(PrintOutput output, PrintOptions options) throws PrintException {
+    public JSONObject print(PrintOutput output, PrintOptions options) throws PrintException {
         PrintRequestAttributeSet attributes = new HashPrintRequestAttributeSet();
         attributes.add(new JobName(options.getRawOptions().getJobName(Constants.RAW_PRINT), Locale.getDefault()));
 
@@ -62,20 +61,20 @@ public class PrintDirect extends PrintRaw {
             try {
                 switch(formats.get(i)) {
                     case BASE64:
-                        stream = new Base64InputStream(new ByteArrayInputStream(prints.get(i).getBytes("UTF-8")));
+                        stream = SpooledData.openBase64(prints.get(i));
                         break;
                     case FILE:
-                        stream = new DataInputStream(new URL(prints.get(i)).openStream());
+                        stream = new DataInputStream(new URL(prints.get(i).toString()).openStream());
                         break;
                     case PLAIN:
                     default:
-                        stream = new ByteArrayInputStream(prints.get(i).getBytes("UTF-8"));
+                        stream = SpooledData.openStream(prints.get(i));
                         break;
                 }
 
                 SimpleDoc doc = new SimpleDoc(stream, DocFlavor.INPUT_STREAM.AUTOSENSE, null);
 
-                waitForPrint(printJob, doc, attributes);
+                waitForPrint(printJob, doc, attributes, options.getRawOptions().getWaitTimeout());
             }
             catch(IOException e) {
                 throw new PrintException(e);
@@ -86,6 +85,8 @@ public class PrintDirect extends PrintRaw {
                 }
             }
         }
+
+        return null;
     }
 
     @Override
@@ -24,6 +24,7 @@ import qz.utils.PrintingUtilities;
 import javax.print.attribute.PrintRequestAttributeSet;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.awt.print.PageFormat;
 import java.awt.print.Printable;
 import java.awt.print.PrinterException;
@@ -34,6 +35,8 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class PrintHTML extends PrintImage implements PrintProcessor, Printable {
 
@@ -103,28 +106,49 @@ public class PrintHTML extends PrintImage implements PrintProcessor, Printable {
     }
 
     @Override
-    public void print(PrintOutput output, PrintOptions options) throws PrinterException {
+    public JSONObject print(PrintOutput output, PrintOptions options) throws PrinterException {
         if (options.getPixelOptions().isLegacy()) {
             printLegacy(output, options);
+            return null;
         } else {
+            //tall pages are only captured in as much detail as the printed page can show, which is print density for
+            //pages fit to the paper, or dpiScale pixels per point for pages printed as is and cut off at its edge
+            double printSize = getPrintSize(output, options.getPixelOptions());
             for(WebAppModel model : models) {
+                model.setPrintSize(printSize * (model.isScaled()? model.getZoom():dpiScale));
+            }
+
+            //every page is started at once, on as many renderers as are idle, then collected in order
+            List<Future<BufferedImage>> captures;
+            try {
+                captures = WebApp.capture(models);
+            }
+            catch(IOException e) {
+                throw new PrinterException(e.getMessage());
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UnsupportedOperationException("Interrupted while capturing HTML", e);
+            }
+
+            for(Future<BufferedImage> capture : captures) {
                 try {
-                    images.add(WebApp.capture(model));
+                    try {
+                        images.add(capture.get());
+                    }
+                    catch(ExecutionException e) {
+                        throw e.getCause();
+                    }
                 }
-                catch(IllegalArgumentException | IOException e) {
+                catch(IllegalArgumentException e) {
                     //JavaFX image loader becomes null if webView is too large, throwing an IllegalArgumentException on screen capture attempt
-                    if (e instanceof IllegalArgumentException || (e.getCause() != null && e.getCause() instanceof IllegalArgumentException)) {
-                        try {
-                            log.warn("HTML capture failed due to size, attempting at default zoom");
-                            model.setZoom(1.0);
-                            images.add(WebApp.capture(model));
-                        }
-                        catch(Throwable re) {
-                            throw new UnsupportedOperationException("Image or Density is too large for HTML printing", re);
-                        }
-                    } else {
-                        throw new PrinterException(e.getMessage());
+                    throw new UnsupportedOperationException("Image or Density is too large for HTML printing", e);
+                }
+                catch(IOException e) {
+                    if (e.getCause() instanceof IllegalArgumentException) {
+                        throw new UnsupportedOperationException("Image or Density is too large for HTML printing", e);
                     }
+                    throw new PrinterException(e.getMessage());
                 }
                 catch(Throwable t) {
                     throw new UnsupportedOperationException("Failed to capture HTML", t);
@@ -132,9 +156,36 @@ public class PrintHTML extends PrintImage implements PrintProcessor, Printable {
             }
 
             super.print(output, options);
+
+            //how long each page took to settle after loading, for tuning html.ready.timeout
+            JSONArray readyTimes = new JSONArray();
+            for(WebAppModel model : models) {
+                readyTimes.put(model.getReadyTime());
+            }
+
+            try {
+                return new JSONObject().put("readyTimes", readyTimes);
+            }
+            catch(JSONException e) {
+                log.warn("Failed to build print result", e);
+                return null;
+            }
         }
     }
 
+    /**
+     * Longest side of the printable area, in points, for either orientation
+     */
+    private double getPrintSize(PrintOutput output, PrintOptions.Pixel pxlOpts) throws PrinterException {
+        PrinterJob job = PrinterJob.getPrinterJob();
+        job.setPrintService(output.getPrintService());
+        PageFormat page = job.getPageFormat(null);
+        applyDefaultSettings(pxlOpts, page);
+        page = job.validatePage(page);
+
+        return Math.max(page.getImageableWidth(), page.getImageableHeight());
+    }
+
     private void printLegacy(PrintOutput output, PrintOptions options) throws PrinterException {
         PrintOptions.Pixel pxlOpts = options.getPixelOptions();
 
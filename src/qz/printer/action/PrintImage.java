@@ -10,13 +10,14 @@
  */
 package qz.printer.action;
 
-import net.sourceforge.iharder.Base64;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qz.common.Constants;
+import qz.common.SpooledData;
+import qz.printer.PageCache;
 import qz.printer.PrintOptions;
 import qz.printer.PrintOutput;
 import qz.utils.PrintingUtilities;
@@ -33,7 +34,6 @@ import java.awt.print.PageFormat;
 import java.awt.print.Printable;
 import java.awt.print.PrinterException;
 import java.awt.print.PrinterJob;
-import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
@@ -50,6 +50,8 @@ public class PrintImage extends PrintPixel implements PrintProcessor, Printable
     private static final Logger log = LoggerFactory.getLogger(PrintImage.class);
 
     protected List<BufferedImage> images;
+    //transformed images, reused across the print calls made for each page
+    protected PageCache pages = new PageCache();
 
     protected double dpiScale = 1;
     protected boolean scaleImage = false;
@@ -78,7 +80,7 @@ public class PrintImage extends PrintPixel implements PrintProcessor, Printable
             try {
                 BufferedImage bi;
                 if (format == PrintingUtilities.Format.BASE64) {
-                    bi = ImageIO.read(new ByteArrayInputStream(Base64.decode(data.getString("data"))));
+                    bi = ImageIO.read(SpooledData.openBase64(data.get("data")));
                 } else {
                     bi = ImageIO.read(new URL(data.getString("data")));
                 }
@@ -101,10 +103,10 @@ public class PrintImage extends PrintPixel implements PrintProcessor, Printable
     }
 
     @Override
-    public void print(PrintOutput output, PrintOptions options) throws PrinterException {
+    public JSONObject print(PrintOutput output, PrintOptions options) throws PrinterException {
         if (images.isEmpty()) {
             log.warn("Nothing to print");
-            return;
+            return null;
         }
 
         PrinterJob job = PrinterJob.getPrinterJob();
@@ -129,6 +131,7 @@ public class PrintImage extends PrintPixel implements PrintProcessor, Printable
         job.setPrintable(this, job.validatePage(page));
 
         printCopies(output, pxlOpts, job, attributes);
+        return null;
     }
 
 
@@ -151,10 +154,7 @@ public class PrintImage extends PrintPixel implements PrintProcessor, Printable
         //allows pages view to rotate in different orientations
         graphics.drawString(" ", 0, 0);
 
-        BufferedImage imgToPrint = fixColorModel(images.get(pageIndex));
-        if (imageRotation % 360 != 0) {
-            imgToPrint = rotate(imgToPrint, imageRotation);
-        }
+        BufferedImage imgToPrint = transform(pageIndex, pageFormat);
 
         // apply image scaling
         double boundW = pageFormat.getImageableWidth();
@@ -164,18 +164,6 @@ public class PrintImage extends PrintPixel implements PrintProcessor, Printable
         double imgH = imgToPrint.getHeight() / dpiScale;
 
         if (scaleImage) {
-            //scale up to print density (using less of a stretch if image is already larger than page)
-            double upScale = dpiScale * Math.min((pageFormat.getImageableWidth() / imgToPrint.getWidth()), (pageFormat.getImageableHeight() / imgToPrint.getHeight()));
-            if (upScale > dpiScale) { upScale = dpiScale; } else if (upScale < 1) { upScale = 1; }
-            log.debug("Scaling image up by x{}", upScale);
-
-            BufferedImage scaled = new BufferedImage((int)(imgToPrint.getWidth() * upScale), (int)(imgToPrint.getHeight() * upScale), BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2d = withRenderHints(scaled.createGraphics(), interpolation);
-            g2d.drawImage(imgToPrint, 0, 0, (int)(imgToPrint.getWidth() * upScale), (int)(imgToPrint.getHeight() * upScale), null);
-            g2d.dispose();
-
-            imgToPrint = scaled;
-
             // scale image to smallest edge, keeping size ratio
             if (((float)imgToPrint.getWidth() / (float)imgToPrint.getHeight()) >= (boundW / boundH)) {
                 imgW = boundW;
@@ -210,6 +198,43 @@ public class PrintImage extends PrintPixel implements PrintProcessor, Printable
         return PAGE_EXISTS;
     }
 
+    /**
+     * Color fixes, rotates and scales up the image for a page, or reuses the result from an earlier call for the same page
+     */
+    private BufferedImage transform(int pageIndex, PageFormat pageFormat) {
+        BufferedImage cached = pages.get(pageIndex, pageFormat);
+        if (cached != null) {
+            return cached;
+        }
+
+        BufferedImage source = images.get(pageIndex);
+        BufferedImage imgToPrint = fixColorModel(source);
+        if (imageRotation % 360 != 0) {
+            imgToPrint = rotate(imgToPrint, imageRotation);
+        }
+
+        if (scaleImage) {
+            //scale up to print density (using less of a stretch if image is already larger than page)
+            double upScale = dpiScale * Math.min((pageFormat.getImageableWidth() / imgToPrint.getWidth()), (pageFormat.getImageableHeight() / imgToPrint.getHeight()));
+            if (upScale > dpiScale) { upScale = dpiScale; } else if (upScale < 1) { upScale = 1; }
+            log.debug("Scaling image up by x{}", upScale);
+
+            BufferedImage scaled = new BufferedImage((int)(imgToPrint.getWidth() * upScale), (int)(imgToPrint.getHeight() * upScale), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = withRenderHints(scaled.createGraphics(), interpolation);
+            g2d.drawImage(imgToPrint, 0, 0, (int)(imgToPrint.getWidth() * upScale), (int)(imgToPrint.getHeight() * upScale), null);
+            g2d.dispose();
+
+            imgToPrint = scaled;
+        }
+
+        //nothing to save if the source prints as is
+        if (imgToPrint != source) {
+            pages.put(pageIndex, pageFormat, imgToPrint);
+        }
+
+        return imgToPrint;
+    }
+
     /**
      * Rotates {@code image} by the specified {@code angle}.
      *
@@ -257,6 +282,7 @@ public class PrintImage extends PrintPixel implements PrintProcessor, Printable
     @Override
     public void cleanup() {
         images.clear();
+        pages.clear();
 
         dpiScale = 1.0;
         scaleImage = false;
@@ -1,35 +1,27 @@
 package qz.printer.action;
 
 import com.github.zafarkhaja.semver.Version;
-import net.sourceforge.iharder.Base64;
-import org.apache.pdfbox.io.IOUtils;
-import org.apache.pdfbox.multipdf.Splitter;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
-import org.apache.pdfbox.printing.Scaling;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qz.common.Constants;
-import qz.printer.BookBundle;
-import qz.printer.PDFWrapper;
+import qz.common.SpooledData;
+import qz.printer.PDFPageable;
 import qz.printer.PrintOptions;
 import qz.printer.PrintOutput;
 import qz.utils.PrintingUtilities;
 import qz.utils.SystemUtilities;
 
 import javax.print.attribute.PrintRequestAttributeSet;
-import java.awt.geom.AffineTransform;
 import java.awt.print.PageFormat;
-import java.awt.print.Paper;
 import java.awt.print.PrinterException;
 import java.awt.print.PrinterJob;
 import java.io.*;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
@@ -39,14 +31,11 @@ public class PrintPDF extends PrintPixel implements PrintProcessor {
 
     private static final Logger log = LoggerFactory.getLogger(PrintPDF.class);
 
-    private List<PDDocument> originals;
-    private List<PDDocument> printables;
-    private Splitter splitter = new Splitter();
+    private List<PDDocument> documents;
 
 
     public PrintPDF() {
-        originals = new ArrayList<>();
-        printables = new ArrayList<>();
+        documents = new ArrayList<>();
     }
 
     @Override
@@ -62,15 +51,27 @@ public class PrintPDF extends PrintPixel implements PrintProcessor {
             PrintingUtilities.Format format = PrintingUtilities.Format.valueOf(data.optString("format", "FILE").toUpperCase(Locale.ENGLISH));
 
             try {
+                //keep only part of each document on the heap, pages are read back from the scratch file as they print
+                MemoryUsageSetting memory = MemoryUsageSetting.setupMixed(Constants.PDF_MAIN_MEMORY);
+
                 PDDocument doc;
                 if (format == PrintingUtilities.Format.BASE64) {
-                    doc = PDDocument.load(new ByteArrayInputStream(Base64.decode(data.getString("data"))));
+                    doc = PDDocument.load(SpooledData.openBase64(data.get("data")), memory);
                 } else {
-                    doc = PDDocument.load(new URL(data.getString("data")).openStream());
+                    URL url = new URL(data.getString("data"));
+                    File file = toFile(url);
+                    if (file != null) {
+                        //local files are read in place rather than copied
+                        doc = PDDocument.load(file, memory);
+                    } else {
+                        doc = PDDocument.load(url.openStream(), memory);
+                    }
                 }
 
-                originals.add(doc);
-                printables.addAll(splitter.split(doc));
+                documents.add(doc);
+            }
+            catch(IllegalArgumentException e) {
+                throw new UnsupportedOperationException(String.format("Cannot parse (%s)%s as a PDF file", format, data.getString("data")), e);
             }
             catch(FileNotFoundException e) {
                 throw new UnsupportedOperationException("PDF file specified could not be found.", e);
@@ -80,7 +81,23 @@ public class PrintPDF extends PrintPixel implements PrintProcessor {
             }
         }
 
-        log.debug("Parsed {} files for printing", printables.size());
+        log.debug("Parsed {} files for printing", documents.size());
+    }
+
+    /**
+     * @return The local file of a {@code file:} URL, or {@code null} if it isn't one or can't be converted,
+     * such as with unencoded spaces or a UNC host, in which case the URL is read as a stream instead
+     */
+    private static File toFile(URL url) {
+        if (!"file".equalsIgnoreCase(url.getProtocol())) { return null; }
+
+        try {
+            return new File(url.toURI());
+        }
+        catch(URISyntaxException | IllegalArgumentException e) {
+            log.debug("Reading {} as a stream: {}", url, e.getMessage());
+            return null;
+        }
     }
 
     @Override
@@ -94,10 +111,10 @@ public class PrintPDF extends PrintPixel implements PrintProcessor {
     }
 
     @Override
-    public void print(PrintOutput output, PrintOptions options) throws PrinterException {
-        if (printables.isEmpty()) {
+    public JSONObject print(PrintOutput output, PrintOptions options) throws PrinterException {
+        if (documents.isEmpty()) {
             log.warn("Nothing to print");
-            return;
+            return null;
         }
 
         PrinterJob job = PrinterJob.getPrinterJob();
@@ -112,87 +129,27 @@ public class PrintPDF extends PrintPixel implements PrintProcessor {
             attributes.clear();
         }
 
-        Scaling scale = (pxlOpts.isScaleContent()? Scaling.SCALE_TO_FIT:Scaling.ACTUAL_SIZE);
-
-        BookBundle bundle = new BookBundle();
-
-        for(PDDocument doc : printables) {
-            PageFormat page = job.getPageFormat(null);
-            applyDefaultSettings(pxlOpts, page);
-
-            for(PDPage pd : doc.getPages()) {
-                if (pxlOpts.getRotation() % 360 != 0) {
-                    rotatePage(doc, pd, pxlOpts.getRotation());
-                }
-
-                if (pxlOpts.getOrientation() == null) {
-                    PDRectangle bounds = pd.getBBox();
-                    if (bounds.getWidth() > bounds.getHeight() || (pd.getRotation() / 90) % 2 == 1) {
-                        log.info("Adjusting orientation to print landscape PDF source");
-                        page.setOrientation(PrintOptions.Orientation.LANDSCAPE.getAsFormat());
-                    }
-                } else if (pxlOpts.getOrientation() != PrintOptions.Orientation.PORTRAIT) {
-                    //flip imageable area dimensions when in landscape
-                    Paper repap = page.getPaper();
-                    repap.setImageableArea(repap.getImageableX(), repap.getImageableY(), repap.getImageableHeight(), repap.getImageableWidth());
-                    page.setPaper(repap);
-
-                    //reverse fix for OSX
-                    if (SystemUtilities.isMac() && pxlOpts.getOrientation() == PrintOptions.Orientation.REVERSE_LANDSCAPE) {
-                        pd.setRotation(pd.getRotation() + 180);
-                    }
-                }
-            }
+        PageFormat page = job.getPageFormat(null);
+        applyDefaultSettings(pxlOpts, page);
 
-            bundle.append(new PDFWrapper(doc, scale, false, (float)(pxlOpts.getDensity() * pxlOpts.getUnits().as1Inch()), false, pxlOpts.getOrientation()), page, doc.getNumberOfPages());
+        PDFPageable pageable = new PDFPageable(page, pxlOpts);
+        for(PDDocument doc : documents) {
+            pageable.append(doc);
         }
 
         job.setJobName(pxlOpts.getJobName(Constants.PDF_PRINT));
-        job.setPageable(bundle.wrapAndPresent());
+        job.setPageable(pageable.wrapAndPresent());
 
         printCopies(output, pxlOpts, job, attributes);
-    }
-
-    private void rotatePage(PDDocument doc, PDPage page, double rotation) {
-        try {
-            //copy page to object for manipulation
-            PDFormXObject xobject = new PDFormXObject(doc);
-            InputStream src = page.getContents();
-            OutputStream dest = xobject.getStream().createOutputStream();
-
-            try { IOUtils.copy(src, dest); }
-            finally {
-                IOUtils.closeQuietly(src);
-                IOUtils.closeQuietly(dest);
-            }
-
-            xobject.setResources(page.getResources());
-            xobject.setBBox(page.getBBox());
-
-            //draw our object at a rotated angle
-            AffineTransform transform = new AffineTransform();
-            transform.rotate(Math.toRadians(360 - rotation), xobject.getBBox().getWidth() / 2.0, xobject.getBBox().getHeight() / 2.0);
-            xobject.setMatrix(transform);
-
-            PDPageContentStream stream = new PDPageContentStream(doc, page);
-            stream.drawForm(xobject);
-            stream.close();
-        }
-        catch(IOException e) {
-            log.warn("Failed to rotate PDF page for printing");
-        }
+        return null;
     }
 
     @Override
     public void cleanup() {
-        for(PDDocument doc : printables) {
-            try { doc.close(); } catch(IOException ignore) {}
-        }
-        for(PDDocument doc : originals) {
+        for(PDDocument doc : documents) {
             try { doc.close(); } catch(IOException ignore) {}
         }
 
-        originals.clear();
-        printables.clear();
+        documents.clear();
     }
 }
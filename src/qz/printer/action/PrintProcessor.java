@@ -2,6 +2,7 @@ package qz.printer.action;
 
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
 import qz.printer.PrintOptions;
 import qz.printer.PrintOutput;
 import qz.utils.PrintingUtilities;
@@ -16,6 +17,7 @@ public interface PrintProcessor {
 
     /**
      * Used to parse information passed from the web API for printing.
+     * Large {@code data} values are given as {@link qz.common.SpooledData}, which should be streamed rather than loaded when possible.
      *
      * @param printData JSON Array of printer data
      * @param options   Printing options to use for the print job
@@ -28,8 +30,9 @@ public interface PrintProcessor {
      *
      * @param output  Destination used for printing
      * @param options Printing options to use for the print job
+     * @return Details of how the job was printed, such as the copy strategy used, or {@code null} if there are none
      */
-    void print(PrintOutput output, PrintOptions options) throws PrintException, PrinterException;
+    JSONObject print(PrintOutput output, PrintOptions options) throws PrintException, PrinterException;
 
     /**
      * Reset a processor back to it's initial state.
@@ -18,30 +18,33 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qz.common.ByteArrayBuilder;
 import qz.common.Constants;
+import qz.common.SpooledData;
+import qz.exception.InvalidRawImageException;
 import qz.exception.NullCommandException;
 import qz.exception.NullPrintServiceException;
+import qz.printer.HostConnectionPool;
+import qz.printer.ImageCommandCache;
 import qz.printer.ImageWrapper;
+import qz.printer.IppClient;
 import qz.printer.LanguageType;
+import qz.printer.PrintJobWatcher;
 import qz.printer.PrintOptions;
 import qz.printer.PrintOutput;
+import qz.printer.Quantizer;
+import qz.printer.RawCopies;
 import qz.utils.*;
 
 import javax.imageio.ImageIO;
 import javax.print.*;
 import javax.print.attribute.HashPrintRequestAttributeSet;
 import javax.print.attribute.PrintRequestAttributeSet;
+import javax.print.attribute.standard.Copies;
 import javax.print.attribute.standard.JobName;
-import javax.print.event.PrintJobEvent;
-import javax.print.event.PrintJobListener;
 import java.awt.image.BufferedImage;
 import java.io.*;
-import java.net.Socket;
-import java.net.URL;
+import java.net.ConnectException;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -78,7 +81,7 @@ public class PrintRaw implements PrintProcessor {
                 data.put("format", "PLAIN");
             }
 
-            String cmd = data.getString("data");
+            Object value = data.get("data");
             JSONObject opt = data.optJSONObject("options");
             if (opt == null) { opt = new JSONObject(); }
 
@@ -91,23 +94,23 @@ public class PrintRaw implements PrintProcessor {
             try {
                 switch(format) {
                     case BASE64:
-                        commands.append(Base64.decodeBase64(cmd));
+                        appendBase64(value);
                         break;
                     case FILE:
-                        commands.append(FileUtilities.readRawFile(cmd));
+                        commands.append(FileUtilities.readRawFile(value.toString()));
                         break;
                     case IMAGE:
-                        commands.append(getImageWrapper(cmd, opt).getImageCommand(opt));
+                        commands.append(getImageCommand(value.toString(), opt));
                         break;
                     case HEX:
-                        commands.append(ByteUtilities.hexStringToByteArray(cmd));
+                        commands.append(ByteUtilities.hexStringToByteArray(value.toString()));
                         break;
                     case XML:
-                        commands.append(Base64.decodeBase64(FileUtilities.readXMLFile(cmd, opt.optString("xmlTag"))));
+                        commands.append(Base64.decodeBase64(FileUtilities.readXMLFile(value.toString(), opt.optString("xmlTag"))));
                         break;
                     case PLAIN:
                     default:
-                        commands.append(cmd.getBytes(encoding));
+                        commands.append(value.toString().getBytes(encoding));
                         break;
                 }
             }
@@ -117,20 +120,55 @@ public class PrintRaw implements PrintProcessor {
         }
     }
 
-    private ImageWrapper getImageWrapper(String cmd, JSONObject opt) throws IOException, JSONException {
-        BufferedImage buf;
+    /**
+     * Decodes base64 data into the commands, streaming it if it was spooled to disk or sent as binary
+     */
+    private void appendBase64(Object value) throws IOException {
+        if (value instanceof SpooledData) {
+            try(InputStream in = SpooledData.openBase64(value)) {
+                byte[] buffer = new byte[Constants.BYTE_BUFFER_SIZE];
+                int len;
+                while((len = in.read(buffer)) != -1) {
+                    commands.append(buffer, 0, len);
+                }
+            }
+        } else {
+            commands.append(Base64.decodeBase64(value.toString()));
+        }
+    }
 
+    /**
+     * Converts an image to printer commands, reusing the commands from an earlier conversion of the same image and options
+     */
+    private byte[] getImageCommand(String cmd, JSONObject opt) throws IOException, JSONException, InvalidRawImageException {
         if (cmd.startsWith("data:image/") && cmd.contains(";base64,")) {
             String[] parts = cmd.split(";base64,");
             cmd = parts[parts.length - 1];
         }
 
+        byte[] content;
         if (Base64.isArrayByteBase64(cmd.getBytes())) {
-            buf = ImageIO.read(new ByteArrayInputStream(Base64.decodeBase64(cmd)));
+            content = Base64.decodeBase64(cmd);
         } else {
-            buf = ImageIO.read(new URL(cmd));
+            content = FileUtilities.readRawFile(cmd);
+        }
+
+        String key = ImageCommandCache.key(content, encoding + opt.toString());
+        byte[] imageCommand = ImageCommandCache.get(key);
+        if (imageCommand == null) {
+            BufferedImage buf = ImageIO.read(new ByteArrayInputStream(content));
+            if (buf == null) {
+                throw new InvalidRawImageException("Unsupported image format");
+            }
+
+            imageCommand = getImageWrapper(buf, opt).getImageCommand(opt);
+            ImageCommandCache.put(key, imageCommand);
         }
 
+        return imageCommand;
+    }
+
+    private ImageWrapper getImageWrapper(BufferedImage buf, JSONObject opt) throws JSONException {
         ImageWrapper iw = new ImageWrapper(buf, LanguageType.getType(opt.optString("language")));
         iw.setCharset(Charset.forName(encoding));
 
@@ -150,6 +188,14 @@ public class PrintRaw implements PrintProcessor {
         }
         iw.setDotDensity(density);
 
+        String dithering = opt.optString("dithering", null);
+        if (dithering != null && !dithering.isEmpty()) {
+            iw.setDithering(Quantizer.Type.getType(dithering));
+            if (iw.getDithering() == null) {
+                log.warn("Unknown dithering {}, printing without dithering", dithering);
+            }
+        }
+
         //EPL only
         iw.setxPos(opt.optInt("x", 0));
         iw.setyPos(opt.optInt("y", 0));
@@ -158,59 +204,168 @@ public class PrintRaw implements PrintProcessor {
     }
 
     @Override
-    public void print(PrintOutput output, PrintOptions options) throws PrintException {
+    public JSONObject print(PrintOutput output, PrintOptions options) throws PrintException {
         PrintOptions.Raw rawOpts = options.getRawOptions();
 
-        List<ByteArrayBuilder> pages;
+        byte[] endOfDoc = null;
         if (rawOpts.getPerSpool() > 0 && rawOpts.getEndOfDoc() != null && !rawOpts.getEndOfDoc().isEmpty()) {
             try {
-                pages = ByteUtilities.splitByteArray(commands.getByteArray(), rawOpts.getEndOfDoc().getBytes(encoding), rawOpts.getPerSpool());
+                endOfDoc = rawOpts.getEndOfDoc().getBytes(encoding);
             }
             catch(UnsupportedEncodingException e) {
                 throw new PrintException(e);
             }
-        } else {
-            pages = new ArrayList<>();
-            pages.add(commands);
         }
 
-        for(int i = 0; i < rawOpts.getCopies(); i++) {
-            for(ByteArrayBuilder bab : pages) {
-                try {
+        int copies = Math.max(rawOpts.getCopies(), 1);
+        ByteArrayBuilder data = commands;
+        int passes = 1;
+        int jobCopies = 1;
+
+        //take the cheapest way of making copies the output and data allow, starting from the requested one
+        RawCopies.Strategy strategy = RawCopies.Strategy.LOOP;
+        if (copies > 1) {
+            RawCopies.Strategy requested = rawOpts.getCopyStrategy();
+            RawCopies.Strategy[] order = {RawCopies.Strategy.NATIVE, RawCopies.Strategy.COMMAND, RawCopies.Strategy.CONCATENATE, RawCopies.Strategy.LOOP};
+            boolean reached = requested == RawCopies.Strategy.AUTO;
+
+            for(RawCopies.Strategy candidate : order) {
+                reached |= candidate == requested;
+                if (!reached) { continue; }
+
+                strategy = candidate;
+                if (candidate == RawCopies.Strategy.NATIVE && supportsNativeCopies(output, rawOpts, copies)) {
+                    jobCopies = copies;
+                    break;
+                }
+                if (candidate == RawCopies.Strategy.COMMAND && rawOpts.getLanguage() != null) {
+                    byte[] rewritten = RawCopies.withCopies(commands.getByteArray(), LanguageType.getType(rawOpts.getLanguage()), copies);
+                    if (rewritten != null) {
+                        data = new ByteArrayBuilder(rewritten);
+                        break;
+                    }
+                }
+                if (candidate == RawCopies.Strategy.CONCATENATE) {
+                    if (output.isSetHost() || output.isSetFile()) {
+                        //every copy goes over the one connection or stream
+                        passes = copies;
+                        break;
+                    }
+                    if (endOfDoc == null && (long)commands.getLength() * copies < Integer.MAX_VALUE - 8) {
+                        //a single spool job holding every copy
+                        data = new ByteArrayBuilder(commands.getLength() * copies);
+                        for(int i = 0; i < copies; i++) {
+                            data.append(commands);
+                        }
+                        break;
+                    }
+                    //spools split for the OS printer are separate jobs, so they can't be joined
+                }
+                if (candidate == RawCopies.Strategy.LOOP) {
+                    passes = copies;
+                    break;
+                }
+
+                if (candidate == requested) {
+                    log.warn("Cannot print copies using {} copy strategy, trying the next one", requested);
+                }
+            }
+
+            log.debug("Printing {} copies using {} copy strategy", copies, strategy);
+        }
+
+        JSONArray jobs = new JSONArray();
+        boolean sharedConnection = rawOpts.isSingleConnection() || strategy == RawCopies.Strategy.CONCATENATE;
+        HostConnectionPool.Connection connection = null;
+        OutputStream file = null;
+        try {
+            if (output.isSetFile()) {
+                log.debug("Printing to file: {}", output.getFile().getName());
+                file = new FileOutputStream(output.getFile());
+            }
+
+            for(int i = 0; i < passes; i++) {
+                //each spool is sent as soon as it is split off, so only one is held at a time
+                ByteSplitter pages = null;
+                if (endOfDoc != null) {
+                    pages = new ByteSplitter(data.asByteBuffer(), endOfDoc, rawOpts.getPerSpool());
+                }
+
+                ByteArrayBuilder bab = pages == null? data:pages.next();
+                while(bab != null) {
                     if (output.isSetHost()) {
-                        printToHost(output.getHost(), output.getPort(), bab.getByteArray());
-                    } else if (output.isSetFile()) {
-                        printToFile(output.getFile(), bab.getByteArray());
+                        if (connection == null) {
+                            log.debug("Printing to host {}:{}", output.getHost(), output.getPort());
+                            connection = HostConnectionPool.borrow(output.getHost(), output.getPort(), rawOpts.getKeepAlive());
+                        }
+                        connection = HostConnectionPool.write(connection, bab);
+
+                        //without a single connection, each spool gets its own, as if sent separately
+                        if (!sharedConnection) {
+                            HostConnectionPool.release(connection);
+                            connection = null;
+                        }
+                    } else if (file != null) {
+                        bab.writeTo(file);
                     } else {
                         if (rawOpts.isAltPrinting()) {
-                            printToAlternate(output.getPrintService(), bab.getByteArray());
+                            IppClient.Job job = printToAlternate(output.getPrintService(), bab, rawOpts, jobCopies);
+                            if (job != null) {
+                                jobs.put(job.toJSON());
+                            }
                         } else {
-                            printToPrinter(output.getPrintService(), bab.getByteArray(), rawOpts);
+                            printToPrinter(output.getPrintService(), bab.getByteArray(), rawOpts, jobCopies);
                         }
                     }
-                }
-                catch(IOException e) {
-                    throw new PrintException(e);
+
+                    bab = pages == null? null:pages.next();
                 }
             }
+
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        }
+        catch(IOException | JSONException e) {
+            if (connection != null) {
+                HostConnectionPool.invalidate(connection);
+                connection = null;
+            }
+            throw new PrintException(e);
+        }
+        finally {
+            if (connection != null) {
+                HostConnectionPool.release(connection);
+            }
+            if (file != null) {
+                try { file.close(); } catch(IOException ignore) {}
+            }
         }
-    }
 
+        try {
+            JSONObject result = new JSONObject()
+                    .put("copies", copies)
+                    .put("copyStrategy", strategy.name());
+            if (jobs.length() > 0) {
+                result.put("jobs", jobs);
+            }
+
+            return result;
+        }
+        catch(JSONException e) {
+            throw new PrintException(e);
+        }
+    }
 
     /**
-     * A brute-force, however surprisingly elegant way to send a file to a networked printer.
-     * <p/>
-     * Please note that this will completely bypass the Print Spooler,
-     * so the Operating System will have absolutely no printer information.
-     * This is printing "blind".
+     * Whether the print job can be given a copy count.
+     * The Windows spooler leaves raw data to the driver, which ignores the copy count, so copies are only native with CUPS.
      */
-    private void printToHost(String host, int port, byte[] cmds) throws IOException {
-        log.debug("Printing to host {}:{}", host, port);
+    private boolean supportsNativeCopies(PrintOutput output, PrintOptions.Raw rawOpts, int copies) {
+        if (!output.isSetService() || SystemUtilities.isWindows()) { return false; }
 
-        //throws any exception and auto-closes socket and stream
-        try(Socket socket = new Socket(host, port); DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
-            out.write(cmds);
-        }
+        return rawOpts.isAltPrinting() || output.getPrintService().isAttributeValueSupported(new Copies(copies), DocFlavor.BYTE_ARRAY.AUTOSENSE, null);
     }
 
     /**
@@ -218,19 +373,19 @@ public class PrintRaw implements PrintProcessor {
      *
      * @param file File to be written
      */
-    private void printToFile(File file, byte[] cmds) throws IOException {
+    private void printToFile(File file, ByteArrayBuilder cmds) throws IOException {
         log.debug("Printing to file: {}", file.getName());
 
         //throws any exception and auto-closes stream
         try(OutputStream out = new FileOutputStream(file)) {
-            out.write(cmds);
+            cmds.writeTo(out);
         }
     }
 
     /**
      * Constructs a {@code SimpleDoc} with the {@code commands} byte array.
      */
-    private void printToPrinter(PrintService service, byte[] cmds, PrintOptions.Raw rawOpts) throws PrintException {
+    private void printToPrinter(PrintService service, byte[] cmds, PrintOptions.Raw rawOpts, int copies) throws PrintException {
         if (service == null) { throw new NullPrintServiceException("Service cannot be null"); }
         if (cmds == null || cmds.length == 0) { throw new NullCommandException("No commands found to send to the printer"); }
 
@@ -238,71 +393,54 @@ public class PrintRaw implements PrintProcessor {
 
         PrintRequestAttributeSet attributes = new HashPrintRequestAttributeSet();
         attributes.add(new JobName(rawOpts.getJobName(Constants.RAW_PRINT), Locale.getDefault()));
+        if (copies > 1) {
+            attributes.add(new Copies(copies));
+        }
 
         DocPrintJob printJob = service.createPrintJob();
 
-        waitForPrint(printJob, doc, attributes);
+        waitForPrint(printJob, doc, attributes, rawOpts.getWaitTimeout());
     }
 
-    protected void waitForPrint(DocPrintJob printJob, Doc doc, PrintRequestAttributeSet attributes) throws PrintException {
-        final AtomicBoolean finished = new AtomicBoolean(false);
-        printJob.addPrintJobListener(new PrintJobListener() {
-            @Override
-            public void printDataTransferCompleted(PrintJobEvent printJobEvent) {
-                log.debug("{}", printJobEvent);
-                finished.set(true);
-            }
-
-            @Override
-            public void printJobCompleted(PrintJobEvent printJobEvent) {
-                log.debug("{}", printJobEvent);
-                finished.set(true);
-            }
-
-            @Override
-            public void printJobFailed(PrintJobEvent printJobEvent) {
-                log.error("{}", printJobEvent);
-                finished.set(true);
-            }
-
-            @Override
-            public void printJobCanceled(PrintJobEvent printJobEvent) {
-                log.warn("{}", printJobEvent);
-                finished.set(true);
-            }
-
-            @Override
-            public void printJobNoMoreEvents(PrintJobEvent printJobEvent) {
-                log.debug("{}", printJobEvent);
-                finished.set(true);
-            }
-
-            @Override
-            public void printJobRequiresAttention(PrintJobEvent printJobEvent) {
-                log.info("{}", printJobEvent);
-            }
-        });
+    protected void waitForPrint(DocPrintJob printJob, Doc doc, PrintRequestAttributeSet attributes, int timeout) throws PrintException {
+        PrintJobWatcher watcher = new PrintJobWatcher(printJob);
 
         log.trace("Sending print job to printer");
         printJob.print(doc, attributes);
 
-        while(!finished.get()) {
-            try { Thread.sleep(100); } catch(Exception ignore) {}
-        }
-
+        watcher.awaitSuccess(timeout);
         log.trace("Print job received by printer");
     }
 
     /**
-     * Alternate printing mode for CUPS capable OSs, issues lp via command line
-     * on Linux, BSD, Solaris, OSX, etc. This will never work on Windows.
+     * Alternate printing mode for CUPS capable OSs, on Linux, BSD, Solaris, OSX, etc. This will never work on Windows.
+     * Sends the job straight to the CUPS scheduler over IPP, or issues lp via command line if the scheduler can't be reached.
+     *
+     * @return The job created by the scheduler, or {@code null} if it was sent with lp
      */
-    public void printToAlternate(PrintService service, byte[] cmds) throws IOException, PrintException {
+    public IppClient.Job printToAlternate(PrintService service, ByteArrayBuilder cmds, PrintOptions.Raw rawOpts, int copies) throws IOException, PrintException {
+        String printerId = PrintingUtilities.getPrinterId(service.getName());
+
+        if (IppClient.isAvailable()) {
+            try {
+                IppClient.Job job = IppClient.printJob(printerId, rawOpts.getJobName(Constants.RAW_PRINT), copies, cmds);
+                if (job.isFailed()) {
+                    throw new PrintException("Alternate printing failed: job " + job);
+                }
+
+                return job;
+            }
+            catch(ConnectException e) {
+                //the scheduler was never reached, so nothing was printed yet
+                log.warn("Falling back to lp for alternate printing", e);
+            }
+        }
+
         File tmp = File.createTempFile("qz_raw_", null);
         try {
             printToFile(tmp, cmds);
             String[] lpCmd = new String[] {
-                    "lp", "-d", PrintingUtilities.getPrinterId(service.getName()), "-o", "raw", tmp.getAbsolutePath()
+                    "lp", "-d", printerId, "-n", String.valueOf(copies), "-o", "raw", tmp.getAbsolutePath()
             };
             boolean success = ShellUtilities.execute(lpCmd);
 
@@ -315,6 +453,8 @@ public class PrintRaw implements PrintProcessor {
                 tmp.deleteOnExit();
             }
         }
+
+        return null;
     }
 
     @Override
@@ -0,0 +1,108 @@
+package qz.printer.action;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed set of renderers handed out one job at a time, with callers waiting in turn for the next idle one.
+ * <p/>
+ * Tracks how long renderers are busy, so utilization can be reported.
+ */
+public class RendererPool<T> {
+
+    private final BlockingQueue<T> idle;
+    private final int size;
+    private final long created;
+
+    //renderer -> time it was acquired
+    private final Map<T,Long> busy = new ConcurrentHashMap<>();
+
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    private final AtomicLong jobs = new AtomicLong(0);
+    private final AtomicLong busyTime = new AtomicLong(0);
+    private final AtomicLong waitTime = new AtomicLong(0);
+
+
+    public RendererPool(List<T> renderers) {
+        idle = new LinkedBlockingQueue<>(renderers);
+        size = renderers.size();
+        created = System.currentTimeMillis();
+    }
+
+    /**
+     * Waits for an idle renderer, which must be given back with {@link #release(Object)}
+     */
+    public T acquire() throws InterruptedException {
+        long start = System.currentTimeMillis();
+
+        waiting.incrementAndGet();
+        T renderer;
+        try { renderer = idle.take(); }
+        finally { waiting.decrementAndGet(); }
+
+        long now = System.currentTimeMillis();
+        waitTime.addAndGet(now - start);
+        busy.put(renderer, now);
+        jobs.incrementAndGet();
+
+        return renderer;
+    }
+
+    /**
+     * Takes an idle renderer without waiting, which must be given back with {@link #release(Object)}
+     *
+     * @return The renderer, or {@code null} if all of them are busy
+     */
+    public T tryAcquire() {
+        T renderer = idle.poll();
+        if (renderer != null) {
+            busy.put(renderer, System.currentTimeMillis());
+            jobs.incrementAndGet();
+        }
+
+        return renderer;
+    }
+
+    public void release(T renderer) {
+        Long since = busy.remove(renderer);
+        if (since != null) {
+            busyTime.addAndGet(System.currentTimeMillis() - since);
+        }
+
+        idle.offer(renderer);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public JSONObject getStatsJSON() throws JSONException {
+        long now = System.currentTimeMillis();
+
+        //include the time renderers have spent on jobs still running
+        long used = busyTime.get();
+        for(Long since : busy.values()) {
+            used += now - since;
+        }
+
+        long available = size * Math.max(1, now - created);
+        long total = jobs.get();
+
+        return new JSONObject()
+                .put("renderers", size)
+                .put("busy", busy.size())
+                .put("waiting", waiting.get())
+                .put("jobs", total)
+                .put("averageWait", total == 0? 0:waitTime.get() / total)
+                .put("utilization", Math.min(1.0, (double)used / available));
+    }
+
+}
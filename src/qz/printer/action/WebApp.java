@@ -1,20 +1,19 @@
 package qz.printer.action;
 
-import javafx.animation.PauseTransition;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.concurrent.Worker;
 import javafx.embed.swing.SwingFXUtils;
-import javafx.event.ActionEvent;
-import javafx.event.EventHandler;
 import javafx.scene.Scene;
 import javafx.scene.SnapshotParameters;
 import javafx.scene.image.WritableImage;
 import javafx.scene.web.WebView;
 import javafx.stage.Stage;
-import javafx.util.Duration;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
 import org.joor.Reflect;
 import org.joor.ReflectException;
 import org.slf4j.Logger;
@@ -23,228 +22,809 @@ import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import qz.common.Constants;
+import qz.ws.PrintSocketServer;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * JavaFX container for taking HTML snapshots.
  * Used by PrintHTML to generate printable images.
  * <p/>
+ * Pages are rendered by a pool of {@code html.renderers} WebViews, each on its own stage, so several captures can
+ * load at once. A job's pages are started on every idle renderer, then collected in order as each snapshot completes.
+ * <p/>
+ * After loading, a page is captured as soon as its images and fonts have loaded and its layout stops changing, or
+ * after {@code html.ready.timeout} milliseconds regardless. Pages taller than {@code html.tile.height} pixels are
+ * captured a tile at a time by scrolling a tile sized view, since a single snapshot that large fails. Each tile is
+ * shrunk or cut to what the printed page can show as it is captured, so a tall page needs no more memory than the page.
+ * <p/>
  * Do not use constructor (used by JavaFX), instead call {@code WebApp.initialize()}
  */
 public class WebApp extends Application {
 
     private static final Logger log = LoggerFactory.getLogger(WebApp.class);
 
-    private static final int SLEEP = 250;
-    private static final int TIMEOUT = 60; //total paused seconds before failing
+    private static final int TIMEOUT = 60; //seconds to wait for JavaFX to start before failing
+
+    private static final String WARM_UP_HTML = "<html><body><p>QZ</p></body></html>";
+
+    //frames the page height must hold, with images and fonts loaded, before it is considered laid out
+    private static final int STABLE_FRAMES = 3;
+    private static final String HEIGHT_SCRIPT = "Math.max(document.body.offsetHeight, document.body.scrollHeight)";
+    private static final String READY_SCRIPT = "(function() {"
+            + " if (document.readyState !== 'complete') { return false; }"
+            + " for (var i = 0; i < document.images.length; i++) { if (!document.images[i].complete) { return false; } }"
+            + " return !document.fonts || document.fonts.status === 'loaded';"
+            + "})()";
 
-    private static WebApp instance = null;
+    private static boolean launched = false;
+    private static long launchStart;
+    private static volatile Throwable launchError;
 
-    private static Stage stage;
-    private static WebView webView;
-    private static double pageWidth;
-    private static double pageHeight;
-    private static double pageZoom;
+    private static volatile RendererPool<Renderer> renderers;
 
     private static final AtomicBoolean started = new AtomicBoolean(false);
-    private static final AtomicBoolean complete = new AtomicBoolean(false);
-    private static final AtomicReference<Throwable> thrown = new AtomicReference<>();
+    private static final CountDownLatch startup = new CountDownLatch(1);
 
-    private static PauseTransition snap;
+    private static volatile long startupTime = -1;
+    private static volatile boolean preloaded = false;
+    //first capture, which loads WebKit, then the captures after it
+    private static final AtomicLong coldRender = new AtomicLong(-1);
+    private static final AtomicLong warmRenders = new AtomicLong(0);
+    private static final AtomicLong warmRenderTime = new AtomicLong(0);
 
-    //listens for a Succeeded state to activate image capture
-    private static ChangeListener<Worker.State> stateListener = new ChangeListener<Worker.State>() {
-        @Override
-        public void changed(ObservableValue<? extends Worker.State> ov, Worker.State oldState, Worker.State newState) {
-            log.trace("New state: {} > {}", oldState, newState);
-
-            if (newState == Worker.State.SUCCEEDED) {
-                //ensure html tag doesn't use scrollbars, clipping page instead
-                Document doc = webView.getEngine().getDocument();
-                NodeList tags = doc.getElementsByTagName("html");
-                if (tags != null && tags.getLength() > 0) {
-                    Node base = tags.item(0);
-                    Attr applied = (Attr)base.getAttributes().getNamedItem("style");
-                    if (applied == null) {
-                        applied = doc.createAttribute("style");
+    private static long readyTimeout;
+    private static double tileHeight;
+    private static final AtomicLong tiles = new AtomicLong(0);
+    //time from load to capture, and captures that gave up waiting for the layout to settle
+    private static final AtomicLong readyChecks = new AtomicLong(0);
+    private static final AtomicLong readyTime = new AtomicLong(0);
+    private static final AtomicLong readyTimeouts = new AtomicLong(0);
+
+    private static long captureTimeout;
+    //captures abandoned after html.capture.timeout
+    private static final AtomicLong captureTimeouts = new AtomicLong(0);
+
+
+    /** Called by JavaFX thread */
+    public WebApp() {}
+
+    /** Starts JavaFX thread if not already running, and waits for it to be ready */
+    public static void initialize() throws IOException {
+        synchronized(WebApp.class) {
+            if (!launched) {
+                launched = true;
+                launchStart = System.currentTimeMillis();
+
+                new Thread() {
+                    public void run() {
+                        try {
+                            Application.launch(WebApp.class);
+                        }
+                        catch(Throwable t) {
+                            launchError = t;
+                            startup.countDown();
+                        }
                     }
-                    applied.setValue(applied.getValue() + "; overflow: hidden;");
-                    base.getAttributes().setNamedItem(applied);
-                }
+                }.start();
+            }
+        }
 
+        log.trace("Waiting for JavaFX..");
+        try {
+            if (!startup.await(TIMEOUT, TimeUnit.SECONDS)) {
+                throw new IOException("JavaFX did not start");
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for JavaFX", e);
+        }
+
+        if (launchError != null) {
+            throw new IOException("JavaFX did not start", launchError);
+        }
+    }
+
+    /**
+     * Starts JavaFX in the background and renders a trivial page on every renderer, so WebKit is loaded and compiled
+     * before the first HTML print
+     */
+    public static void preload() {
+        Thread preloader = new Thread("html-preload") {
+            public void run() {
                 try {
-                    Reflect.on(webView).call("setZoom", pageZoom);
-                    log.trace("Zooming in by x{} for increased quality", pageZoom);
+                    initialize();
+                    warmUp();
                 }
-                catch(ReflectException e) {
-                    log.warn("Unable zoom, using default quality");
-                    pageZoom = 1; //only zoom affects webView scaling
+                catch(Throwable t) {
+                    log.warn("Failed to preload HTML printing", t);
                 }
+            }
+        };
+        preloader.setDaemon(true);
+        preloader.start();
+    }
 
-                log.trace("Setting HTML page width to {}", (pageWidth * pageZoom));
-                webView.setMinWidth(pageWidth * pageZoom);
-                webView.setPrefWidth(pageWidth * pageZoom);
-                webView.autosize();
-
-                //we have to resize the width first, for responsive html, then calculate the best fit height
-                final PauseTransition resize = new PauseTransition(Duration.millis(100));
-                resize.setOnFinished(new EventHandler<ActionEvent>() {
-                    @Override
-                    public void handle(ActionEvent actionEvent) {
-                        if (pageHeight <= 0) {
-                            String heightText = webView.getEngine().executeScript("Math.max(document.body.offsetHeight, document.body.scrollHeight)").toString();
-                            pageHeight = Double.parseDouble(heightText);
-                        }
+    private static void warmUp() throws Throwable {
+        long start = System.currentTimeMillis();
+        WebAppModel model = new WebAppModel(WARM_UP_HTML, true, 72, 72, true, 1.0);
 
-                        log.trace("Setting HTML page height to {}", (pageHeight * pageZoom));
-                        webView.setMinHeight(pageHeight * pageZoom);
-                        webView.setPrefHeight(pageHeight * pageZoom);
-                        webView.autosize();
+        //take every renderer at once, so each one loads the page
+        List<Renderer> taken = new ArrayList<>();
+        try {
+            for(int i = 0; i < renderers.size(); i++) {
+                taken.add(renderers.acquire());
+            }
 
-                        snap.playFromStart();
-                    }
-                });
+            List<Capture> captures = new ArrayList<>();
+            for(Renderer renderer : taken) {
+                captures.add(renderer.render(model));
+            }
+            for(int i = 0; i < captures.size(); i++) {
+                await(taken.get(i), captures.get(i));
+                try { captures.get(i).get(); }
+                catch(ExecutionException e) { throw e.getCause(); }
+            }
 
-                resize.playFromStart();
+            //later captures, including the first print, start warm
+            coldRender.compareAndSet(-1, System.currentTimeMillis() - start);
+        }
+        finally {
+            for(Renderer renderer : taken) {
+                renderers.release(renderer);
             }
         }
-    };
 
-    //listens for load progress
-    private static ChangeListener<Number> workDoneListener = new ChangeListener<Number>() {
-        @Override
-        public void changed(ObservableValue<? extends Number> ov, Number oldWork, Number newWork) {
-            log.trace("Done: {} > {}", oldWork, newWork);
-        }
-    };
+        preloaded = true;
+        log.info("Preloaded {} HTML renderers in {}ms", taken.size(), System.currentTimeMillis() - start);
+    }
 
+    @Override
+    public void start(Stage st) throws Exception {
+        try {
+            int count = getRendererCount();
+            readyTimeout = getTimeout("html.ready.timeout", Constants.HTML_READY_TIMEOUT);
+            captureTimeout = getTimeout("html.capture.timeout", Constants.HTML_CAPTURE_TIMEOUT);
+            tileHeight = getTileHeight();
+
+            List<Renderer> created = new ArrayList<>(count);
+            created.add(new Renderer(st));
+            for(int i = 1; i < count; i++) {
+                created.add(new Renderer(new Stage()));
+            }
+            renderers = new RendererPool<>(created);
 
-    /** Called by JavaFX thread */
-    public WebApp() {
-        instance = this;
-    }
+            //prevents JavaFX from shutting down when hiding window
+            Platform.setImplicitExit(false);
 
-    /** Starts JavaFX thread if not already running */
-    public static synchronized void initialize() throws IOException {
-        if (instance == null) {
-            new Thread() {
-                public void run() {
-                    Application.launch(WebApp.class);
-                }
-            }.start();
+            startupTime = System.currentTimeMillis() - launchStart;
+            started.set(true);
+            log.debug("Started JavaFX with {} HTML renderers in {}ms", count, startupTime);
+        }
+        catch(Exception e) {
+            launchError = e;
+            throw e;
+        }
+        finally {
+            startup.countDown();
         }
+    }
 
-        for(int i = 0; i < (TIMEOUT * 1000); i += SLEEP) {
-            if (started.get()) { break; }
+    private static long getTimeout(String property, long fallback) {
+        long timeout = fallback;
 
-            log.trace("Waiting for JavaFX..");
-            try { Thread.sleep(SLEEP); } catch(Exception ignore) {}
+        Properties props = PrintSocketServer.getTrayProperties();
+        if (props != null && props.containsKey(property)) {
+            try { timeout = Long.parseLong(props.getProperty(property).trim()); }
+            catch(NumberFormatException e) {
+                log.warn("Invalid {} {}, using {}", property, props.getProperty(property), timeout);
+            }
         }
 
-        if (!started.get()) {
-            throw new IOException("JavaFX did not start");
-        }
+        return timeout;
     }
 
-    @Override
-    public void start(Stage st) throws Exception {
-        started.set(true);
-        log.debug("Started JavaFX");
+    private static int getTileHeight() {
+        int height = Constants.HTML_TILE_HEIGHT;
 
-        webView = new WebView();
-        Scene sc = new Scene(webView);
+        Properties props = PrintSocketServer.getTrayProperties();
+        if (props != null && props.containsKey("html.tile.height")) {
+            try { height = Integer.parseInt(props.getProperty("html.tile.height").trim()); }
+            catch(NumberFormatException e) {
+                log.warn("Invalid html.tile.height {}, using {}", props.getProperty("html.tile.height"), height);
+            }
+        }
 
-        stage = st;
-        stage.setScene(sc);
+        return Math.max(100, height);
+    }
 
-        Worker<Void> worker = webView.getEngine().getLoadWorker();
-        worker.stateProperty().addListener(stateListener);
-        worker.workDoneProperty().addListener(workDoneListener);
+    private static int getRendererCount() {
+        int count = Constants.HTML_RENDERERS;
 
-        //prevents JavaFX from shutting down when hiding window
-        Platform.setImplicitExit(false);
+        Properties props = PrintSocketServer.getTrayProperties();
+        if (props != null && props.containsKey("html.renderers")) {
+            try { count = Integer.parseInt(props.getProperty("html.renderers").trim()); }
+            catch(NumberFormatException e) {
+                log.warn("Invalid html.renderers {}, using {}", props.getProperty("html.renderers"), count);
+            }
+        }
+
+        return Math.max(1, count);
     }
 
 
     /**
-     * Sets up capture to run on JavaFX thread and returns snapshot of rendered page
+     * Runs capture on an idle renderer and returns snapshot of rendered page
      *
      * @param model Data about the html to be rendered for capture
      * @return BufferedImage of the rendered html
      */
-    public static synchronized BufferedImage capture(final WebAppModel model) throws Throwable {
-        final AtomicReference<BufferedImage> capture = new AtomicReference<>();
-        complete.set(false);
-        thrown.set(null);
+    public static BufferedImage capture(WebAppModel model) throws Throwable {
+        try {
+            return capture(Collections.singletonList(model)).get(0).get();
+        }
+        catch(ExecutionException e) {
+            throw e.getCause();
+        }
+    }
 
+    /**
+     * Captures several pages, starting each one as soon as a renderer is idle so they load at the same time.
+     * Only waits for a renderer when none of these pages are still loading, so a job never waits on its own pages.
+     *
+     * @param models Data about each html page to be rendered for capture
+     * @return Snapshot of each page in the same order, completed with either the image or the reason it was not captured
+     */
+    public static List<Future<BufferedImage>> capture(List<WebAppModel> models) throws IOException, InterruptedException {
         //ensure JavaFX has started before we run
         if (!started.get()) {
             throw new IOException("JavaFX has not been started");
         }
 
-        // run these actions on the JavaFX thread
-        Platform.runLater(new Thread() {
-            public void run() {
+        List<Capture> captures = new ArrayList<>(models.size());
+        Renderer[] rendering = new Renderer[models.size()];
+        try {
+            for(int i = 0; i < models.size(); i++) {
+                //start as many of the remaining pages as there are idle renderers
+                while(captures.size() < models.size()) {
+                    Renderer renderer;
+                    if (captures.size() == i) {
+                        log.trace("Waiting on an HTML renderer..");
+                        renderer = renderers.acquire();
+                    } else if ((renderer = renderers.tryAcquire()) == null) {
+                        break;
+                    }
+
+                    rendering[captures.size()] = renderer;
+                    captures.add(renderer.render(models.get(captures.size())));
+                }
+
+                Capture capture = captures.get(i);
+                await(rendering[i], capture);
+                renderers.release(rendering[i]);
+                rendering[i] = null;
+
+                if (capture.isCaptured()) {
+                    long elapsed = capture.getElapsed();
+                    if (!coldRender.compareAndSet(-1, elapsed)) {
+                        warmRenders.incrementAndGet();
+                        warmRenderTime.addAndGet(elapsed);
+                    }
+                }
+            }
+        }
+        finally {
+            //only left over when interrupted, so stop those pages before giving their renderers back
+            for(int i = 0; i < captures.size(); i++) {
+                if (rendering[i] != null) {
+                    rendering[i].reset(captures.get(i));
+                    renderers.release(rendering[i]);
+                }
+            }
+        }
+
+        return new ArrayList<Future<BufferedImage>>(captures);
+    }
+
+    /**
+     * Waits until {@code html.capture.timeout} after a capture started, failing it and resetting its renderer if the
+     * page never finishes. The reset is queued on the JavaFX thread ahead of anything the renderer is given next.
+     */
+    private static void await(Renderer renderer, Capture capture) throws InterruptedException {
+        long remaining = capture.getStarted() + captureTimeout - System.currentTimeMillis();
+        try {
+            capture.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+        }
+        catch(ExecutionException ignore) {
+            //kept in the capture for the caller
+        }
+        catch(TimeoutException e) {
+            captureTimeouts.incrementAndGet();
+            capture.fail(new IOException("HTML was not captured within " + captureTimeout + "ms"));
+            renderer.reset(capture);
+        }
+    }
+
+    /**
+     * @return Usage of the HTML renderers and how long JavaFX took to start and render, empty if JavaFX has not been started
+     */
+    public static JSONObject getStatsJSON() throws JSONException {
+        RendererPool<Renderer> current = renderers;
+        if (current == null) { return new JSONObject(); }
+
+        long warm = warmRenders.get();
+        long checks = readyChecks.get();
+        return current.getStatsJSON()
+                .put("preloaded", preloaded)
+                .put("startupTime", startupTime)
+                .put("coldRender", coldRender.get())
+                .put("warmRender", warm == 0? -1:warmRenderTime.get() / warm)
+                .put("averageReadyWait", checks == 0? -1:readyTime.get() / checks)
+                .put("readyTimeouts", readyTimeouts.get())
+                .put("captureTimeouts", captureTimeouts.get())
+                .put("tiles", tiles.get());
+    }
+
+
+    /**
+     * Result of a single capture, completed from the JavaFX thread. Only the first result counts.
+     */
+    private static class Capture implements Future<BufferedImage> {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final long started = System.currentTimeMillis();
+
+        private volatile BufferedImage image;
+        private volatile Throwable error;
+        private volatile long elapsed = -1;
+
+        void complete(BufferedImage image) {
+            finish(image, null);
+        }
+
+        void fail(Throwable t) {
+            finish(null, t);
+        }
+
+        private synchronized void finish(BufferedImage result, Throwable thrown) {
+            if (isDone()) { return; }
+
+            image = result;
+            error = thrown;
+            elapsed = System.currentTimeMillis() - started;
+            latch.countDown();
+        }
+
+        long getStarted() {
+            return started;
+        }
+
+        /**
+         * @return Millis from starting the capture to its result
+         */
+        long getElapsed() {
+            return elapsed;
+        }
+
+        boolean isCaptured() {
+            return isDone() && error == null;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false; //renderers are reset instead, see Renderer#reset
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        @Override
+        public BufferedImage get() throws InterruptedException, ExecutionException {
+            latch.await();
+            return result();
+        }
+
+        @Override
+        public BufferedImage get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!latch.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return result();
+        }
+
+        private BufferedImage result() throws ExecutionException {
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return image;
+        }
+
+    }
+
+    /**
+     * A WebView on its own stage, rendering one page at a time. Everything but {@link #render(WebAppModel)} runs on the JavaFX thread.
+     */
+    private static class Renderer {
+
+        private final Stage stage;
+        private final WebView webView;
+
+        private double pageWidth;
+        private double pageHeight;
+        private double pageZoom;
+
+        private WebAppModel model;
+        private Capture capture;
+
+        //readiness of the loaded page, checked every frame
+        private long readyStart;
+        private boolean sized;
+        private boolean ready;
+        private double lastHeight;
+        private int stableFrames;
+
+        //height the view is sized to, which is a single tile for tall pages
+        private double viewHeight;
+        private boolean tiled;
+        private BufferedImage tiledImage;
+        private int nextTile;
+        private boolean scrolled;
+        //part of a tiled page kept for printing, and how much it is shrunk by
+        private double keptWidth;
+        private double keptHeight;
+        private double tileScale;
+
+        private final AnimationTimer readiness = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
                 try {
-                    pageWidth = model.getWebWidth();
-                    pageHeight = model.getWebHeight();
-                    pageZoom = model.getZoom();
-
-                    webView.setMinSize(100, 100);
-                    webView.setPrefSize(100, 100);
-                    webView.autosize();
-
-                    stage.show(); //FIXME - will not capture without showing stage
-                    stage.toBack();
-
-                    //ran when engine reaches SUCCEEDED state, takes snapshot of loaded html
-                    snap = new PauseTransition(Duration.millis(100));
-                    snap.setOnFinished(new EventHandler<ActionEvent>() {
-                        @Override
-                        public void handle(ActionEvent actionEvent) {
-                            try {
-                                log.debug("Attempting image capture");
-
-                                WritableImage snapshot = webView.snapshot(new SnapshotParameters(), null);
-                                capture.set(SwingFXUtils.fromFXImage(snapshot, null));
-
-                                complete.set(true);
-                            }
-                            catch(Throwable t) {
-                                thrown.set(t);
-                            }
-                            finally {
-                                stage.hide(); //hide stage so users won't have to manually close it
-                            }
+                    checkReadiness();
+                }
+                catch(Throwable t) {
+                    finish(null, t);
+                }
+            }
+        };
+
+        //listens for a Succeeded state to activate image capture
+        private final ChangeListener<Worker.State> stateListener = new ChangeListener<Worker.State>() {
+            @Override
+            public void changed(ObservableValue<? extends Worker.State> ov, Worker.State oldState, Worker.State newState) {
+                log.trace("New state: {} > {}", oldState, newState);
+
+                if (capture == null) { return; }
+
+                if (newState == Worker.State.SUCCEEDED) {
+                    try {
+                        loaded();
+                    }
+                    catch(Throwable t) {
+                        finish(null, t);
+                    }
+                } else if (newState == Worker.State.FAILED || newState == Worker.State.CANCELLED) {
+                    Throwable cause = webView.getEngine().getLoadWorker().getException();
+                    finish(null, new IOException("Failed to load HTML: " + (cause == null? newState:cause.getMessage()), cause));
+                }
+            }
+        };
+
+        //listens for load progress
+        private final ChangeListener<Number> workDoneListener = new ChangeListener<Number>() {
+            @Override
+            public void changed(ObservableValue<? extends Number> ov, Number oldWork, Number newWork) {
+                log.trace("Done: {} > {}", oldWork, newWork);
+            }
+        };
+
+
+        Renderer(Stage stage) {
+            this.stage = stage;
+
+            webView = new WebView();
+            stage.setScene(new Scene(webView));
+
+            Worker<Void> worker = webView.getEngine().getLoadWorker();
+            worker.stateProperty().addListener(stateListener);
+            worker.workDoneProperty().addListener(workDoneListener);
+        }
+
+        /**
+         * Starts loading the html on the JavaFX thread
+         *
+         * @return Future of the snapshot, completed once the page is loaded and captured
+         */
+        Capture render(final WebAppModel model) {
+            final Capture result = new Capture();
+
+            // run these actions on the JavaFX thread
+            Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        capture = result;
+                        Renderer.this.model = model;
+
+                        pageWidth = model.getWebWidth();
+                        pageHeight = model.getWebHeight();
+                        pageZoom = model.getZoom();
+
+                        webView.setMinSize(100, 100);
+                        webView.setPrefSize(100, 100);
+                        webView.autosize();
+
+                        stage.show(); //FIXME - will not capture without showing stage
+                        stage.toBack();
+
+                        //actually begin loading the html
+                        if (model.isPlainText()) {
+                            webView.getEngine().loadContent(model.getSource(), "text/html");
+                        } else {
+                            webView.getEngine().load(model.getSource());
                         }
-                    });
+                    }
+                    catch(Throwable t) {
+                        finish(null, t);
+                    }
+                }
+            });
+
+            return result;
+        }
+
+        /**
+         * Abandons a capture that was given up on, stopping its page from loading so the renderer is free for the next one
+         */
+        void reset(final Capture stale) {
+            Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (capture != stale) { return; }
+
+                    log.warn("Abandoning HTML capture that did not finish in time");
+                    finish(null, new TimeoutException("HTML capture was abandoned"));
+                    webView.getEngine().getLoadWorker().cancel();
+                }
+            });
+        }
+
+        private void loaded() {
+            //ensure html tag doesn't use scrollbars, clipping page instead
+            Document doc = webView.getEngine().getDocument();
+            NodeList tags = doc.getElementsByTagName("html");
+            if (tags != null && tags.getLength() > 0) {
+                Node base = tags.item(0);
+                Attr applied = (Attr)base.getAttributes().getNamedItem("style");
+                if (applied == null) {
+                    applied = doc.createAttribute("style");
+                }
+                applied.setValue(applied.getValue() + "; overflow: hidden;");
+                base.getAttributes().setNamedItem(applied);
+            }
+
+            try {
+                Reflect.on(webView).call("setZoom", pageZoom);
+                log.trace("Zooming in by x{} for increased quality", pageZoom);
+            }
+            catch(ReflectException e) {
+                log.warn("Unable zoom, using default quality");
+                pageZoom = 1; //only zoom affects webView scaling
+            }
 
-                    //actually begin loading the html
-                    if (model.isPlainText()) {
-                        webView.getEngine().loadContent(model.getSource(), "text/html");
+            log.trace("Setting HTML page width to {}", (pageWidth * pageZoom));
+            webView.setMinWidth(pageWidth * pageZoom);
+            webView.setPrefWidth(pageWidth * pageZoom);
+            webView.autosize();
+
+            //we have to resize the width first, for responsive html, then calculate the best fit height once layout settles
+            readyStart = System.currentTimeMillis();
+            sized = false;
+            ready = false;
+            lastHeight = -1;
+            stableFrames = 0;
+            readiness.start();
+        }
+
+        /**
+         * Called each frame after loading. Waits for images and fonts to load and the page height to hold for
+         * {@code STABLE_FRAMES} frames, sizes the page to fit, then captures once the new size has been laid out.
+         */
+        private void checkReadiness() {
+            if (capture == null) {
+                readiness.stop();
+                return;
+            }
+
+            long waited = System.currentTimeMillis() - readyStart;
+            boolean expired = waited > readyTimeout;
+
+            if (!sized) {
+                double height = ((Number)webView.getEngine().executeScript(HEIGHT_SCRIPT)).doubleValue();
+                boolean loaded = Boolean.TRUE.equals(webView.getEngine().executeScript(READY_SCRIPT));
+
+                if (loaded && height == lastHeight) {
+                    stableFrames++;
+                } else {
+                    stableFrames = 0;
+                }
+                lastHeight = height;
+
+                if (stableFrames < STABLE_FRAMES && !expired) { return; }
+                if (expired) {
+                    log.warn("HTML layout did not settle within {}ms, capturing anyway", readyTimeout);
+                    readyTimeouts.incrementAndGet();
+                }
+
+                if (pageHeight <= 0) {
+                    pageHeight = height;
+                }
+
+                //pages taller than a tile are shown a tile at a time and scrolled, so the view never exceeds a tile
+                double fullWidth = Math.ceil(pageWidth * pageZoom);
+                double fullHeight = pageHeight * pageZoom;
+                tiled = fullHeight > tileHeight;
+
+                keptWidth = fullWidth;
+                keptHeight = fullHeight;
+                tileScale = 1;
+                double printSize = model.getPrintSize();
+                if (tiled && printSize > 0) {
+                    if (model.isScaled()) {
+                        //fit to the page when printed, so more pixels than the page can show are wasted
+                        tileScale = Math.min(1, printSize / Math.max(fullWidth, fullHeight));
                     } else {
-                        webView.getEngine().load(model.getSource());
+                        //printed at full size, so anything past the page is cut off anyway
+                        keptWidth = Math.min(fullWidth, printSize);
+                        keptHeight = Math.min(fullHeight, printSize);
                     }
                 }
-                catch(Throwable t) {
-                    thrown.set(t);
+
+                viewHeight = tiled? tileHeight:fullHeight;
+
+                log.trace("Setting HTML page height to {}{}", fullHeight, tiled? " in tiles of " + tileHeight:"");
+                webView.setMinHeight(viewHeight);
+                webView.setPrefHeight(viewHeight);
+                webView.autosize();
+
+                sized = true;
+                stableFrames = 0;
+                return;
+            }
+
+            if (!ready) {
+                //give the resize a frame to reach the page before capturing
+                if (webView.getHeight() < Math.floor(viewHeight) && !expired) { return; }
+                if (++stableFrames < 2 && !expired) { return; }
+
+                ready = true;
+                model.setReadyTime(waited);
+                readyTime.addAndGet(waited);
+                readyChecks.incrementAndGet();
+                log.debug("HTML ready after {}ms, attempting image capture", waited);
+
+                if (!tiled) {
+                    readiness.stop();
+                    WritableImage snapshot = webView.snapshot(new SnapshotParameters(), null);
+                    finish(SwingFXUtils.fromFXImage(snapshot, null), null);
+                    return;
                 }
+
+                tiledImage = null;
+                nextTile = 0;
+                scrolled = false;
+            }
+
+            captureTile();
+        }
+
+        /**
+         * Scrolls to the next tile, then on a later frame, once it has been painted, shrinks it into the page image
+         */
+        private void captureTile() {
+            if (!scrolled) {
+                webView.getEngine().executeScript("window.scrollTo(0, " + (nextTile / pageZoom) + ")");
+                scrolled = true;
+                stableFrames = 0;
+                return;
+            }
+            if (++stableFrames < 2) { return; }
+
+            //scrolling stops short at the bottom of the page, so place the tile where the page actually scrolled to
+            double offset = ((Number)webView.getEngine().executeScript("window.pageYOffset")).doubleValue();
+            int top = (int)Math.round(offset * pageZoom);
+
+            WritableImage snapshot = webView.snapshot(new SnapshotParameters(), null);
+            BufferedImage tile = SwingFXUtils.fromFXImage(snapshot, null);
+
+            if (tiledImage == null) {
+                int width = (int)Math.ceil(Math.min(tile.getWidth(), keptWidth) * tileScale);
+                tiledImage = new BufferedImage(Math.max(1, width), Math.max(1, (int)Math.ceil(keptHeight * tileScale)), BufferedImage.TYPE_INT_ARGB);
+            }
+
+            //whole pixel edges, so neighbouring tiles meet without a seam
+            int end = top + tile.getHeight();
+            int y1 = (int)Math.round(top * tileScale);
+            int y2 = Math.max(y1 + 1, (int)Math.round(end * tileScale));
+            int x2 = Math.max(1, (int)Math.round(tile.getWidth() * tileScale));
+            if (y1 < tiledImage.getHeight()) {
+                BufferedImage shrunk = shrink(tile, x2, y2 - y1);
+                Graphics2D g2d = tiledImage.createGraphics();
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g2d.drawImage(shrunk, 0, y1, x2, y2, 0, 0, shrunk.getWidth(), shrunk.getHeight(), null);
+                g2d.dispose();
+            }
+
+            log.trace("Captured HTML tile at {} of {}", top, keptHeight);
+            tiles.incrementAndGet();
+
+            if (end >= keptHeight || end <= nextTile) {
+                //reached the bottom, or the page can't scroll any further
+                readiness.stop();
+                BufferedImage image = tiledImage;
+                tiledImage = null;
+                finish(image, null);
+                return;
             }
-        });
 
-        Throwable t = null;
-        while(!complete.get() && (t = thrown.get()) == null) {
-            log.trace("Waiting on capture..");
-            try { Thread.sleep(1000); } catch(Exception ignore) {}
+            nextTile = end;
+            scrolled = false;
         }
 
-        if (t != null) { throw t; }
+        /**
+         * Halves {@code tile} until a single step reaches the given size, since one bilinear step past half size
+         * skips pixels and drops thin lines and text
+         */
+        private static BufferedImage shrink(BufferedImage tile, int width, int height) {
+            BufferedImage shrunk = tile;
+            while(shrunk.getWidth() / 2 >= width && shrunk.getHeight() / 2 >= height) {
+                BufferedImage half = new BufferedImage(shrunk.getWidth() / 2, shrunk.getHeight() / 2, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g2d = half.createGraphics();
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g2d.drawImage(shrunk, 0, 0, half.getWidth(), half.getHeight(), null);
+                g2d.dispose();
+                shrunk = half;
+            }
+
+            return shrunk;
+        }
+
+        /**
+         * Completes the current capture and frees the stage for the next one
+         */
+        private void finish(BufferedImage image, Throwable thrown) {
+            Capture current = capture;
+            capture = null;
+            model = null;
+            tiledImage = null;
+            readiness.stop();
+
+            stage.hide(); //hide stage so users won't have to manually close it
+
+            if (current == null) { return; }
+            if (thrown != null) {
+                current.fail(thrown);
+            } else {
+                current.complete(image);
+            }
+        }
 
-        return capture.get();
     }
 
 }
@@ -9,6 +9,9 @@ public class WebAppModel {
     private double webHeight = 0.0;
     private boolean isScaled = true;
     private double zoom = 1.0;
+    private double printSize = 0;
+
+    private long readyTime = -1;
 
     public WebAppModel(String source, boolean plainText, double webWidth, double webHeight, boolean isScaled, double zoom) {
         //values supplied are at print dpi, scale up to web dpi here
@@ -50,4 +53,26 @@ public class WebAppModel {
         this.zoom = zoom;
     }
 
+    /**
+     * @return Longest side of the printed page, in pixels of the captured image, or {@code 0} for no limit
+     */
+    public double getPrintSize() {
+        return printSize;
+    }
+
+    public void setPrintSize(double printSize) {
+        this.printSize = printSize;
+    }
+
+    /**
+     * @return Milliseconds between the page loading and it being ready to capture, or {@code -1} if it hasn't been captured
+     */
+    public long getReadyTime() {
+        return readyTime;
+    }
+
+    public void setReadyTime(long readyTime) {
+        this.readyTime = readyTime;
+    }
+
 }
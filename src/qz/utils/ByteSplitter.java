@@ -0,0 +1,181 @@
+package qz.utils;
+
+import qz.common.ByteArrayBuilder;
+import qz.common.Constants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a stream of bytes after every {@code count}-th instance of a pattern, reading only as far as the next chunk.
+ * <p/>
+ * This is useful for large print batches that need to be split up, (for example) after the P1 or ^XO command has been
+ * issued, since each chunk can be sent as soon as it is read.  Only one chunk is held at a time, along with the start
+ * of the next one up to its first match.
+ * <p/>
+ * Bytes after the last match, such as the line ending after a final {@code ^XZ}, are added to the end of the last chunk
+ * instead of becoming a chunk of their own, so they never turn into a separate print job.
+ * <p/>
+ * Matches are found with Knuth–Morris–Pratt, which never looks back at bytes already read, so a pattern split across
+ * two reads is still found.  Matches do not overlap; searching resumes after the end of each match.
+ */
+public class ByteSplitter {
+
+    private final InputStream in;
+    private final ByteBuffer source;
+    private final byte[] pattern;
+    private final int[] fallback;
+    private final int count;
+
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean finished;
+
+    //length of the pattern prefix matched so far
+    private int matched;
+
+    //start of the next chunk, read through its first match to learn that it is not just a trailing remainder
+    private ByteArrayBuilder lookahead;
+
+
+    /**
+     * @param in      Stream to split, which is not closed
+     * @param pattern Pattern to determine where split should occur, or {@code null} to read the whole stream as one chunk
+     * @param count   Number of matches between splits
+     */
+    public ByteSplitter(InputStream in, byte[] pattern, int count) {
+        this(in, null, pattern, count);
+    }
+
+    /**
+     * @param source  Bytes to split, read from its position to its limit
+     * @param pattern Pattern to determine where split should occur, or {@code null} to read the whole buffer as one chunk
+     * @param count   Number of matches between splits
+     */
+    public ByteSplitter(ByteBuffer source, byte[] pattern, int count) {
+        this(null, source, pattern, count);
+    }
+
+    private ByteSplitter(InputStream in, ByteBuffer source, byte[] pattern, int count) {
+        if (count < 1) { throw new IllegalArgumentException("Count cannot be less than 1"); }
+
+        this.in = in;
+        this.source = source;
+        this.pattern = pattern == null? new byte[0]:pattern;
+        this.fallback = failureTable(this.pattern);
+        this.count = count;
+        this.buffer = new byte[Constants.BYTE_BUFFER_SIZE];
+    }
+
+    /**
+     * For each prefix of the pattern, the length of the longest proper prefix that is also its suffix
+     */
+    private static int[] failureTable(byte[] pattern) {
+        int[] table = new int[pattern.length];
+        int k = 0;
+        for(int i = 1; i < pattern.length; i++) {
+            while(k > 0 && pattern[i] != pattern[k]) { k = table[k - 1]; }
+            if (pattern[i] == pattern[k]) { k++; }
+            table[i] = k;
+        }
+
+        return table;
+    }
+
+    /**
+     * Reads up to and including the {@code count}-th next match, or to the end of the stream.
+     * Bytes after the last match are part of the final chunk rather than a chunk of their own.
+     *
+     * @return The next chunk, or {@code null} once the stream is exhausted
+     */
+    public ByteArrayBuilder next() throws IOException {
+        ByteArrayBuilder chunk;
+        int found;
+        if (lookahead != null) {
+            //already read through the first match of this chunk
+            chunk = lookahead;
+            lookahead = null;
+            found = 1;
+        } else {
+            chunk = new ByteArrayBuilder(buffer.length);
+            found = 0;
+        }
+        if (found < count) {
+            found += scan(chunk, count - found);
+        }
+
+        if (chunk.getLength() == 0) { return null; }
+
+        if (found == count) {
+            //a trailing remainder with no match of its own, such as a final line ending, stays with this chunk
+            ByteArrayBuilder ahead = new ByteArrayBuilder(buffer.length);
+            if (scan(ahead, 1) > 0) {
+                lookahead = ahead;
+            } else {
+                chunk.append(ahead);
+            }
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Appends bytes to {@code chunk} up to and including the {@code wanted}-th next match, or to the end of the stream
+     *
+     * @return The number of matches found
+     */
+    private int scan(ByteArrayBuilder chunk, int wanted) throws IOException {
+        int found = 0;
+
+        while(found < wanted) {
+            if (position == limit && !fill()) { break; }
+
+            int start = position;
+            if (pattern.length == 0) {
+                position = limit;
+            } else {
+                while(position < limit) {
+                    byte b = buffer[position++];
+
+                    if (matched == 0) {
+                        //skip straight to the next byte that can start a match
+                        while(b != pattern[0] && position < limit) { b = buffer[position++]; }
+                        if (b != pattern[0]) { break; }
+                    } else {
+                        while(matched > 0 && b != pattern[matched]) { matched = fallback[matched - 1]; }
+                    }
+                    if (b == pattern[matched]) { matched++; }
+
+                    if (matched == pattern.length) {
+                        matched = 0;
+                        if (++found == wanted) { break; }
+                    }
+                }
+            }
+
+            chunk.append(buffer, start, position - start);
+        }
+
+        return found;
+    }
+
+    private boolean fill() throws IOException {
+        if (finished) { return false; }
+
+        int read;
+        if (source != null) {
+            read = Math.min(source.remaining(), buffer.length);
+            source.get(buffer, 0, read);
+        } else {
+            read = in.read(buffer);
+        }
+
+        position = 0;
+        limit = Math.max(read, 0);
+        finished = read <= 0;
+        return !finished;
+    }
+
+}
@@ -12,6 +12,8 @@ package qz.utils;
 import qz.common.ByteArrayBuilder;
 import qz.common.Constants;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -123,48 +125,27 @@ public class ByteUtilities {
      * <p/>
      * This is useful for large print batches that need to be split up,
      * (for example) after the P1 or ^XO command has been issued.
-     * <p/>
-     * TODO:
-     * A rewrite of this would be a proper {@code Iteratable} interface
-     * paired with an {@code Iterator} that does this automatically
-     * and would eliminate the need for a {@code indicesOfMatches()} function.
+     * Any bytes after the last match are kept at the end of the last chunk rather than dropped or split off on their own,
+     * and data without any match is returned as a single chunk.
+     * To send each chunk as soon as it is found instead of collecting them all, use {@link ByteSplitter} directly.
      *
      * @param src     Array to split.
      * @param pattern Pattern to determine where split should occur.
      * @param count   Number of matches between splits.
      */
     public static List<ByteArrayBuilder> splitByteArray(byte[] src, byte[] pattern, int count) throws NullPointerException, IndexOutOfBoundsException, ArrayStoreException {
-        if (count < 1) { throw new IllegalArgumentException("Count cannot be less than 1"); }
-
         List<ByteArrayBuilder> byteArrayList = new ArrayList<>();
-        ByteArrayBuilder builder = new ByteArrayBuilder();
-
-        Integer[] split = indicesOfMatches(src, pattern);
-
-        int counted = 1;
-        int prev = 0;
 
-        for(int i : split) {
-            //copy everything from the last pattern (or the start) to the end of this pattern
-            byte[] temp = new byte[i - prev + pattern.length];
-            System.arraycopy(src, prev, temp, 0, temp.length);
-            builder.append(temp);
-
-            //if we have 'count' matches, add it to list and start a new builder
-            if (counted < count) {
-                counted++;
-            } else {
+        try {
+            ByteSplitter splitter = new ByteSplitter(ByteBuffer.wrap(src), pattern, count);
+            ByteArrayBuilder builder;
+            while((builder = splitter.next()) != null) {
                 byteArrayList.add(builder);
-                builder = new ByteArrayBuilder();
-                counted = 1;
             }
-
-            prev = i + pattern.length;
         }
-
-        //include any builder matches below 'count'
-        if (!byteArrayList.contains(builder) && builder.getLength() > 0 ) {
-            byteArrayList.add(builder);
+        catch(IOException e) {
+            //never thrown when reading from memory
+            throw new IllegalStateException(e);
         }
 
         return byteArrayList;
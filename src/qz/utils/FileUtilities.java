@@ -110,9 +110,7 @@ public class FileUtilities {
 
         int len;
         while((len = in.read(buffer)) > -1) {
-            byte[] temp = new byte[len];
-            System.arraycopy(buffer, 0, temp, 0, len);
-            cmds.append(temp);
+            cmds.append(buffer, 0, len);
         }
         in.close();
 
@@ -8,18 +8,20 @@ import org.eclipse.jetty.websocket.api.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qz.common.Constants;
+import qz.printer.CupsMetadata;
 import qz.printer.PrintOptions;
 import qz.printer.PrintOutput;
 import qz.printer.action.PrintProcessor;
 import qz.printer.action.ProcessorFactory;
 import qz.ws.PrintSocketClient;
 
+import javax.print.PrintException;
 import javax.print.PrintService;
 import javax.print.attribute.ResolutionSyntax;
 import javax.print.attribute.standard.PrinterResolution;
 import java.awt.print.PrinterAbortException;
+import java.awt.print.PrinterException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 
@@ -27,9 +29,6 @@ public class PrintingUtilities {
 
     private static final Logger log = LoggerFactory.getLogger(PrintingUtilities.class);
 
-    private static HashMap<String,String> CUPS_DESC; //name -> description
-    private static HashMap<String,PrinterResolution> CUPS_DPI; //description -> default dpi
-
     private static GenericKeyedObjectPool<Type,PrintProcessor> processorPool;
 
 
@@ -92,19 +91,7 @@ public class PrintingUtilities {
      * @return Id of the printer for use with CUPS commands
      */
     public static String getPrinterId(String printerName) {
-        if (CUPS_DESC == null || !CUPS_DESC.containsValue(printerName)) {
-            CUPS_DESC = ShellUtilities.getCupsPrinters();
-        }
-
-        if (SystemUtilities.isMac()) {
-            for(String name : CUPS_DESC.keySet()) {
-                if (CUPS_DESC.get(name).equals(printerName)) {
-                    return name;
-                }
-            }
-            log.warn("Could not locate printerId matching {}", printerName);
-        }
-        return printerName;
+        return CupsMetadata.getPrinterId(printerName);
     }
 
     public static PrinterResolution getNativeDensity(PrintService service) {
@@ -113,13 +100,7 @@ public class PrintingUtilities {
         PrinterResolution pRes = (PrinterResolution)service.getDefaultAttributeValue(PrinterResolution.class);
 
         if (pRes == null && !SystemUtilities.isWindows()) {
-            String printerId = getPrinterId(service.getName());
-
-            if (CUPS_DPI == null || !CUPS_DPI.containsKey(printerId)) {
-                CUPS_DPI = ShellUtilities.getCupsDensities(CUPS_DESC);
-            }
-
-            return CUPS_DPI.get(printerId);
+            return CupsMetadata.getDensity(getPrinterId(service.getName()));
         }
 
         log.debug("Found Resolution: {}", pRes);
@@ -148,18 +129,11 @@ public class PrintingUtilities {
      * @param params  Params of call from web API
      */
     public static void processPrintRequest(Session session, String UID, JSONObject params) throws JSONException {
-        PrintProcessor processor = PrintingUtilities.getPrintProcessor(params.getJSONArray("data"));
-        log.debug("Using {} to print", processor.getClass().getName());
-
         try {
-            PrintOutput output = new PrintOutput(params.optJSONObject("printer"));
-            PrintOptions options = new PrintOptions(params.optJSONObject("options"), output);
-
-            processor.parseData(params.getJSONArray("data"), options);
-            processor.print(output, options);
+            JSONObject result = print(new PrintOutput(params.optJSONObject("printer")), params);
             log.info("Printing complete");
 
-            PrintSocketClient.sendResult(session, UID, null);
+            PrintSocketClient.sendResult(session, UID, result);
         }
         catch(PrinterAbortException e) {
             log.warn("Printing cancelled");
@@ -169,6 +143,25 @@ public class PrintingUtilities {
             log.error("Failed to print", e);
             PrintSocketClient.sendError(session, UID, e);
         }
+    }
+
+    /**
+     * Parses and prints the data of a print call on the current thread
+     *
+     * @param output Destination used for printing
+     * @param params Params of call from web API
+     * @return Details of how the job was printed, or {@code null} if there are none
+     */
+    public static JSONObject print(PrintOutput output, JSONObject params) throws JSONException, PrintException, PrinterException {
+        PrintProcessor processor = PrintingUtilities.getPrintProcessor(params.getJSONArray("data"));
+        log.debug("Using {} to print", processor.getClass().getName());
+
+        try {
+            PrintOptions options = new PrintOptions(params.optJSONObject("options"), output);
+
+            processor.parseData(params.getJSONArray("data"), options);
+            return processor.print(output, options);
+        }
         finally {
             PrintingUtilities.releasePrintProcessor(processor);
         }
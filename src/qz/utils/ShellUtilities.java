@@ -167,81 +167,78 @@ public class ShellUtilities {
     }
 
     /**
-     * Returns a <code>HashMap</code> of name value pairs of printer name and printer description
-     * On Linux, the description field is intentionally mapped to the printer name to match the Linux Desktop/<code>.ppd</code> behavior
-     * On Mac, the description field is fetched separately to match the Mac Desktop/<code>.ppd</code> behavior
-     * @return <code>HashMap</code> of name value pairs of printer name and printer description
+     * Lists the CUPS printer names using <code>lpstat -a</code>
      */
-    public static HashMap<String, String> getCupsPrinters() {
-        HashMap<String, String> descMap = new HashMap<String, String>();
+    public static ArrayList<String> getCupsPrinterIds() {
+        ArrayList<String> ids = new ArrayList<String>();
         String devices = ShellUtilities.executeRaw(new String[] {"lpstat", "-a"});
 
-        // Descriptions default to printer names
         for (String line : devices.split("\\r?\\n")) {
-            String device = line.split(" ")[0];
-            descMap.put(device, device);
+            ids.add(line.split(" ")[0]);
         }
 
-        // Mac uses description as printer name, fetch it using lpstat
-        if (SystemUtilities.isMac()) {
-            String lookFor = "Description:";
-
-            for (Map.Entry<String, String> entry : descMap.entrySet()) {
-                String props = ShellUtilities.execute(new String[] {"lpstat", "-l", "-p", entry.getKey()}, new String[] {lookFor});
-                if (!props.isEmpty()) {
-                    for(String prop : props.split("\\r?\\n")) {
-                        if (prop.startsWith(lookFor)) {
-                            String[] desc = prop.split(lookFor);
-                            if (desc.length > 0) {
-                                // cache the description so we can map it to the actual printer name
-                                descMap.put(entry.getKey(), desc[desc.length - 1].trim());
-                                log.info(entry.getKey() + ": " + desc[desc.length - 1].trim());
-                            }
-                        }
+        return ids;
+    }
+
+    /**
+     * Fetches the description of a single CUPS printer using <code>lpstat -l -p</code>
+     * @return The printer's description, or <code>null</code> if none was found
+     */
+    public static String getCupsDescription(String printerId) {
+        String lookFor = "Description:";
+        String desc = null;
+
+        String props = ShellUtilities.execute(new String[] {"lpstat", "-l", "-p", printerId}, new String[] {lookFor});
+        if (!props.isEmpty()) {
+            for(String prop : props.split("\\r?\\n")) {
+                if (prop.startsWith(lookFor)) {
+                    String[] parts = prop.split(lookFor);
+                    if (parts.length > 0) {
+                        // cache the description so we can map it to the actual printer name
+                        desc = parts[parts.length - 1].trim();
+                        log.info(printerId + ": " + desc);
                     }
                 }
             }
         }
 
-        return descMap;
+        return desc;
     }
 
     /**
-     * Fetches a <code>HashMap</code> of name value pairs of printer name and default density for CUPS enabled systems
-     * @return <code>HashMap</code> of name value pairs of printer name and default density
+     * Fetches the default density of a single CUPS printer using <code>lpoptions -l</code>
+     * @return The default density, or <code>null</code> if none was found or it could not be parsed
      */
-    public static HashMap<String, PrinterResolution> getCupsDensities(HashMap<String, String> descMap) {
-        HashMap<String, PrinterResolution> densityMap = new HashMap<String, PrinterResolution>();
-        for (Map.Entry<String, String> entry : descMap.entrySet()) {
-            String out = ShellUtilities.execute(
-                new String[]{"lpoptions", "-p", entry.getKey(), "-l"},
-                new String[] {
-                        "Resolution/",
-                        "Printer Resolution:",
-                        "Output Resolution:"
-                }
-            );
-            if (!out.isEmpty()) {
-                String[] parts = out.split("\\s+");
-                for (String part : parts) {
-                    // parse default, i.e. [200dpi *300x300dpi 600dpi]
-                    if (part.startsWith("*")) {
-                        int type = part.toLowerCase().contains("dpi")? PrinterResolution.DPI:PrinterResolution.DPCM;
-
-                        try {
-                            int density = Integer.parseInt(part.split("x")[0].replaceAll("\\D+", ""));
-                            densityMap.put(entry.getKey(), new PrinterResolution(density, density, type));
-                            log.debug("Parsed default density from CUPS {}: {}{}", entry.getKey(), density,
-                                      type == PrinterResolution.DPI? "dpi":"dpcm");
-                        } catch(NumberFormatException e) {
-                            densityMap.put(entry.getKey(), null);
-                            log.warn("Error parsing default density from CUPS {}: {}", entry.getKey(), part);
-                        }
+    public static PrinterResolution getCupsDensity(String printerId) {
+        PrinterResolution density = null;
+        String out = ShellUtilities.execute(
+            new String[]{"lpoptions", "-p", printerId, "-l"},
+            new String[] {
+                    "Resolution/",
+                    "Printer Resolution:",
+                    "Output Resolution:"
+            }
+        );
+        if (!out.isEmpty()) {
+            String[] parts = out.split("\\s+");
+            for (String part : parts) {
+                // parse default, i.e. [200dpi *300x300dpi 600dpi]
+                if (part.startsWith("*")) {
+                    int type = part.toLowerCase().contains("dpi")? PrinterResolution.DPI:PrinterResolution.DPCM;
+
+                    try {
+                        int value = Integer.parseInt(part.split("x")[0].replaceAll("\\D+", ""));
+                        density = new PrinterResolution(value, value, type);
+                        log.debug("Parsed default density from CUPS {}: {}{}", printerId, value,
+                                  type == PrinterResolution.DPI? "dpi":"dpcm");
+                    } catch(NumberFormatException e) {
+                        density = null;
+                        log.warn("Error parsing default density from CUPS {}: {}", printerId, part);
                     }
                 }
             }
         }
-        return densityMap;
+        return density;
     }
 
     /**
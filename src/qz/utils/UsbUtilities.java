@@ -187,12 +187,7 @@ public class UsbUtilities {
                         try {
                             while(usb.isOpen() && usb.isStreaming()) {
                                 byte[] response = usb.readData(size, endpoint);
-                                JSONArray hex = new JSONArray();
-                                for(byte b : response) {
-                                    hex.put(UsbUtil.toHexString(b));
-                                }
-
-                                PrintSocketClient.sendStream(session, event.withData("output", hex));
+                                PrintSocketClient.sendStream(session, event.withBinary("output", response));
 
                                 try { Thread.sleep(interval); } catch(Exception ignore) {}
                             }
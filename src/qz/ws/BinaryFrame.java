@@ -0,0 +1,187 @@
+package qz.ws;
+
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import qz.common.SpooledData;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Binary WebSocket frames, which carry a JSON message alongside raw data that would otherwise need to be text encoded.
+ * <p/>
+ * A frame holds a 4 byte big-endian header length, the UTF-8 JSON header, then the raw data.  Values in the header
+ * of the form <code>{"$binary": [offset, length]}</code> refer to a range of the data, with offsets starting after the header.
+ * <p/>
+ * Binary frames are only sent to clients that asked for the {@link #CAPABILITY} when connecting.
+ */
+public class BinaryFrame {
+
+    public static final String CAPABILITY = "binary";
+
+    private static final String PLACEHOLDER = "$binary";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+    private BinaryFrame() {}
+
+    /**
+     * Reads a message from a binary frame, streaming the referenced data into {@code SpooledData} values
+     */
+    public static JSONObject read(InputStream stream) throws IOException, JSONException {
+        DataInputStream in = new DataInputStream(stream);
+
+        int headerLength = in.readInt();
+        if (headerLength <= 0) {
+            throw new IOException("Invalid binary frame header length " + headerLength);
+        }
+        byte[] header = new byte[headerLength];
+        in.readFully(header);
+
+        JSONObject json = new JSONObject(new String(header, UTF8));
+
+        List<Reference> references = new ArrayList<>();
+        findReferences(json, references);
+        Collections.sort(references);
+
+        //data is read in a single pass, so references are resolved in order of their offset
+        long position = 0;
+        try {
+            for(Reference ref : references) {
+                if (ref.offset < position) {
+                    throw new IOException("Overlapping binary data references");
+                }
+                IOUtils.skipFully(in, ref.offset - position);
+
+                ref.replace(SpooledData.readBinary(in, ref.length));
+                position = ref.offset + ref.length;
+            }
+        }
+        catch(IOException e) {
+            SpooledData.releaseAll(json);
+            throw e;
+        }
+
+        return json;
+    }
+
+    /**
+     * Writes a message and the data its placeholders refer to as a single binary frame
+     *
+     * @param payloads Data in order of their offsets, as made by {@link #placeholder(long, long)}
+     */
+    public static ByteBuffer write(JSONObject message, byte[]... payloads) {
+        byte[] header = message.toString().getBytes(UTF8);
+
+        int size = 4 + header.length;
+        for(byte[] payload : payloads) {
+            size += payload.length;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        frame.putInt(header.length);
+        frame.put(header);
+        for(byte[] payload : payloads) {
+            frame.put(payload);
+        }
+        frame.flip();
+
+        return frame;
+    }
+
+    /**
+     * Reference to {@code length} bytes at {@code offset} of a frame's data
+     */
+    public static JSONObject placeholder(long offset, long length) throws JSONException {
+        return new JSONObject().put(PLACEHOLDER, new JSONArray().put(offset).put(length));
+    }
+
+
+    private static void findReferences(Object json, List<Reference> references) throws JSONException {
+        if (json instanceof JSONObject) {
+            JSONObject obj = (JSONObject)json;
+            Iterator keys = obj.keys();
+            while(keys.hasNext()) {
+                String key = (String)keys.next();
+                Object value = obj.get(key);
+
+                Reference ref = Reference.parse(value, obj, key, -1);
+                if (ref != null) {
+                    references.add(ref);
+                } else {
+                    findReferences(value, references);
+                }
+            }
+        } else if (json instanceof JSONArray) {
+            JSONArray arr = (JSONArray)json;
+            for(int i = 0; i < arr.length(); i++) {
+                Object value = arr.get(i);
+
+                Reference ref = Reference.parse(value, arr, null, i);
+                if (ref != null) {
+                    references.add(ref);
+                } else {
+                    findReferences(value, references);
+                }
+            }
+        }
+    }
+
+
+    private static class Reference implements Comparable<Reference> {
+
+        private final Object parent;
+        private final String key;
+        private final int index;
+
+        private final long offset;
+        private final long length;
+
+        private Reference(Object parent, String key, int index, long offset, long length) {
+            this.parent = parent;
+            this.key = key;
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        static Reference parse(Object value, Object parent, String key, int index) throws JSONException {
+            if (value instanceof JSONObject && ((JSONObject)value).length() == 1) {
+                JSONArray range = ((JSONObject)value).optJSONArray(PLACEHOLDER);
+                if (range != null) {
+                    long offset = range.getLong(0);
+                    long length = range.getLong(1);
+                    if (offset < 0 || length < 0) {
+                        throw new JSONException("Invalid binary data reference " + range);
+                    }
+
+                    return new Reference(parent, key, index, offset, length);
+                }
+            }
+
+            return null;
+        }
+
+        void replace(SpooledData data) throws JSONException {
+            if (parent instanceof JSONObject) {
+                ((JSONObject)parent).put(key, data);
+            } else {
+                ((JSONArray)parent).put(index, data);
+            }
+        }
+
+        @Override
+        public int compareTo(Reference other) {
+            return Long.compare(offset, other.offset);
+        }
+
+    }
+
+}
@@ -13,8 +13,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qz.auth.Certificate;
 import qz.common.Constants;
+import qz.common.SpooledData;
 import qz.common.TrayManager;
 import qz.communication.*;
+import qz.printer.PrintJob;
+import qz.printer.PrintJobQueue;
 import qz.printer.PrintServiceMatcher;
 import qz.utils.*;
 
@@ -23,9 +26,16 @@ import javax.security.cert.CertificateParsingException;
 import javax.usb.util.UsbUtil;
 import java.awt.*;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 @WebSocket
@@ -36,13 +46,24 @@ public class PrintSocketClient {
     private final TrayManager trayManager = PrintSocketServer.getTrayManager();
     private static final Semaphore dialogAvailable = new Semaphore(1, true);
 
-    //websocket port -> Connection
-    private static final HashMap<Integer,SocketConnection> openConnections = new HashMap<>();
+    //session -> Connection
+    private static final ConcurrentHashMap<Session,SocketConnection> openConnections = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger peakConnections = new AtomicInteger(0);
+    private static final AtomicLong totalOpened = new AtomicLong(0);
+    private static final AtomicLong totalClosed = new AtomicLong(0);
+    private static final AtomicLong totalLifetime = new AtomicLong(0);
+
+    //a new instance is created for each websocket, so its connection is kept here and needs no lookup
+    private SocketConnection connection;
 
     private enum Method {
         PRINTERS_GET_DEFAULT("printers.getDefault", true, "access connected printers"),
         PRINTERS_FIND("printers.find", true, "access connected printers"),
         PRINT("print", true, "print to %s"),
+        PRINT_QUEUE("print.queue", true, "print to %s"),
+        PRINT_STATUS("print.status", false),
+        PRINT_CANCEL("print.cancel", false),
 
         SERIAL_FIND_PORTS("serial.findPorts", true, "access serial ports"),
         SERIAL_OPEN_PORT("serial.openPort", true, "open a serial port"),
@@ -118,7 +139,15 @@ public class PrintSocketClient {
         trayManager.displayInfoMessage("Client connected");
 
         //new connections are unknown until they send a proper certificate
-        openConnections.put(session.getRemoteAddress().getPort(), new SocketConnection(Certificate.UNKNOWN));
+        connection = new SocketConnection(Certificate.UNKNOWN, new SessionWriter(session));
+        openConnections.put(session, connection);
+
+        totalOpened.incrementAndGet();
+        int open = openConnections.size();
+        int peak = peakConnections.get();
+        while(open > peak && !peakConnections.compareAndSet(peak, open)) {
+            peak = peakConnections.get();
+        }
     }
 
     @OnWebSocketClose
@@ -126,9 +155,14 @@ public class PrintSocketClient {
         log.info("Connection closed: {} - {}", closeCode, reason);
         trayManager.displayInfoMessage("Client disconnected");
 
-        Integer port = session.getRemoteAddress().getPort();
-        SocketConnection closed = openConnections.remove(port);
+        PrintJobQueue.cancelAll(session);
+
+        SocketConnection closed = openConnections.remove(session);
         if (closed != null) {
+            totalClosed.incrementAndGet();
+            totalLifetime.addAndGet(System.currentTimeMillis() - closed.getOpened());
+
+            closed.getWriter().clear();
             try {
                 closed.disconnect();
             }
@@ -146,7 +180,9 @@ public class PrintSocketClient {
 
     @OnWebSocketMessage
     public void onMessage(Session session, Reader reader) throws IOException {
-        String message = IOUtils.toString(reader);
+        //large values (like print data) are spooled to disk as they are read, rather than held as one string
+        Map<String,SpooledData> spools = new HashMap<>();
+        String message = SpooledData.readMessage(reader, spools);
 
         if (message == null || message.isEmpty()) {
             sendError(session, null, "Message is empty");
@@ -159,14 +195,48 @@ public class PrintSocketClient {
         }
         if ("ping".equals(message)) { return; } //keep-alive call / no need to process
 
-        String UID = null;
+        JSONObject json;
         try {
             log.debug("Message: {}", message);
-            JSONObject json = new JSONObject(message);
-            UID = json.optString("uid");
+            json = new JSONObject(message);
+            SpooledData.resolve(json, spools);
+        }
+        catch(JSONException e) {
+            SpooledData.releaseAll(spools);
+            log.error("Bad JSON: {}", e.getMessage());
+            sendError(session, null, e);
+            return;
+        }
 
-            Integer connectionPort = session.getRemoteAddress().getPort();
-            SocketConnection connection = openConnections.get(connectionPort);
+        //values the parser dropped, such as those under duplicate keys
+        SpooledData.releaseAll(spools);
+
+        handleMessage(session, json);
+    }
+
+    @OnWebSocketMessage
+    public void onBinaryMessage(Session session, InputStream stream) {
+        JSONObject json;
+        try {
+            json = BinaryFrame.read(stream);
+            log.debug("Binary message: {}", json.optString("call"));
+        }
+        catch(JSONException | IOException e) {
+            log.error("Bad binary message: {}", e.getMessage());
+            sendError(session, null, e);
+            return;
+        }
+
+        handleMessage(session, json);
+    }
+
+    private void handleMessage(Session session, JSONObject json) {
+        String UID = json.optString("uid");
+        try {
+            if (connection == null) {
+                sendError(session, UID, "Connection is not open");
+                return;
+            }
             Certificate certificate = connection.getCertificate();
 
             //if sent a certificate use that instead for this connection
@@ -175,13 +245,13 @@ public class PrintSocketClient {
                     certificate = new Certificate(json.optString("certificate"));
 
                     connection.setCertificate(certificate);
-                    log.debug("Received new certificate from connection through {}", connectionPort);
+                    log.debug("Received new certificate from connection through {}", session.getRemoteAddress());
                 }
                 catch(CertificateParsingException ignore) {}
 
                 if (allowedFromDialog(certificate, "connect to " + Constants.ABOUT_TITLE,
                                       findDialogPosition(session, json.optJSONObject("position")))) {
-                    sendResult(session, UID, null);
+                    sendResult(session, UID, negotiate(json.optJSONArray("capabilities")));
                 } else {
                     sendError(session, UID, "Connection blocked by client");
                     session.disconnect();
@@ -218,13 +288,41 @@ public class PrintSocketClient {
             log.error("Problem processing message", e);
             sendError(session, UID, e);
         }
+        finally {
+            //queued jobs clean up their own data once finished
+            if (!PrintJobQueue.isQueued(json.optJSONObject("params"))) {
+                SpooledData.releaseAll(json);
+            }
+        }
     }
 
-    private boolean validSignature(Certificate certificate, JSONObject message) throws JSONException {
+    /**
+     * Enables the optional features a client asked for while connecting
+     *
+     * @param requested Capabilities supported by the client, {@code null} for older clients
+     * @return The capabilities both sides will use, or {@code null} if the client didn't ask
+     */
+    private JSONObject negotiate(JSONArray requested) throws JSONException {
+        if (requested == null) { return null; }
+
+        JSONArray agreed = new JSONArray();
+        for(int i = 0; i < requested.length(); i++) {
+            if (BinaryFrame.CAPABILITY.equals(requested.optString(i))) {
+                connection.setBinary(true);
+                agreed.put(BinaryFrame.CAPABILITY);
+            }
+        }
+        log.debug("Negotiated capabilities {}", agreed);
+
+        return new JSONObject().put("capabilities", agreed);
+    }
+
+    private boolean validSignature(Certificate certificate, JSONObject message) throws JSONException, IOException {
         JSONObject copy = new JSONObject(message, new String[] {"call", "params", "timestamp"});
         String signature = message.optString("signature");
 
-        return certificate.isSignatureValid(signature, copy.toString().replaceAll("\\\\/", "/"));
+        //spooled data is streamed into the hash, escaped slashes are removed along the way
+        return certificate.isHashSignatureValid(signature, SpooledData.sha256Hex(copy.toString()));
     }
 
     /**
@@ -246,7 +344,7 @@ public class PrintSocketClient {
         }
 
         String prompt = call.getDialogPrompt();
-        if (call == Method.PRINT) {
+        if (call == Method.PRINT || call == Method.PRINT_QUEUE) {
             //special formatting for print dialogs
             JSONObject pr = params.optJSONObject("printer");
             if (pr != null) {
@@ -288,6 +386,39 @@ public class PrintSocketClient {
             case PRINT:
                 PrintingUtilities.processPrintRequest(session, UID, params);
                 break;
+            case PRINT_QUEUE:
+                try {
+                    sendResult(session, UID, PrintJobQueue.submit(session, params).getId());
+                }
+                catch(RejectedExecutionException | IllegalArgumentException e) {
+                    sendError(session, UID, e);
+                }
+                break;
+            case PRINT_STATUS:
+                if (params.has("jobId")) {
+                    PrintJob job = PrintJobQueue.getJob(params.optString("jobId"));
+                    if (job != null && job.getSession() == session) {
+                        sendResult(session, UID, job.toJSON());
+                    } else {
+                        sendError(session, UID, String.format("Print job [%s] could not be found.", params.optString("jobId")));
+                    }
+                } else {
+                    sendResult(session, UID, PrintJobQueue.getStatsJSON());
+                }
+                break;
+            case PRINT_CANCEL: {
+                PrintJob job = PrintJobQueue.getJob(params.optString("jobId"));
+                if (job != null && job.getSession() == session) {
+                    if (PrintJobQueue.cancel(job)) {
+                        sendResult(session, UID, null);
+                    } else {
+                        sendError(session, UID, String.format("Print job [%s] has already started printing.", job.getId()));
+                    }
+                } else {
+                    sendError(session, UID, String.format("Print job [%s] could not be found.", params.optString("jobId")));
+                }
+                break;
+            }
 
             case SERIAL_FIND_PORTS:
                 sendResult(session, UID, SerialUtilities.getSerialPortsJSON());
@@ -397,7 +528,19 @@ public class PrintSocketClient {
             case HID_SEND_DATA: {
                 DeviceIO usb = connection.getDevice(dOpts);
                 if (usb != null) {
-                    usb.sendData(StringUtils.getBytesUtf8(params.optString("data")), dOpts.getEndpoint());
+                    byte[] data;
+                    if ("base64".equalsIgnoreCase(params.optString("format"))) {
+                        try(InputStream in = SpooledData.openBase64(params.opt("data"))) {
+                            data = IOUtils.toByteArray(in);
+                        }
+                        catch(IOException e) {
+                            throw new DeviceException(e);
+                        }
+                    } else {
+                        data = StringUtils.getBytesUtf8(params.optString("data"));
+                    }
+
+                    usb.sendData(data, dOpts.getEndpoint());
                     sendResult(session, UID, null);
                 } else {
                     sendError(session, UID, String.format("USB Device [v:%s p:%s] must be claimed first.", params.opt("vendorId"), params.opt("productId")));
@@ -566,8 +709,26 @@ public class PrintSocketClient {
         try {
             JSONObject stream = new JSONObject();
             stream.put("type", event.getStreamType());
-            stream.put("event", event.toJSON());
-            send(session, stream);
+
+            SocketConnection connection = getConnection(session);
+            if (event.hasBinary() && connection.isBinary()) {
+                stream.put("event", event.toJSON(true));
+                ByteBuffer frame = BinaryFrame.write(stream, event.getBinaryData());
+
+                if (event.isDroppable()) {
+                    connection.getWriter().sendDroppable(event.getSourceKey(), frame);
+                } else {
+                    connection.getWriter().send(frame);
+                }
+            } else {
+                stream.put("event", event.toJSON());
+
+                if (event.isDroppable()) {
+                    connection.getWriter().sendDroppable(event.getSourceKey(), stream.toString());
+                } else {
+                    connection.getWriter().send(stream.toString());
+                }
+            }
         }
         catch(JSONException e) {
             log.error("Send stream failed", e);
@@ -580,13 +741,40 @@ public class PrintSocketClient {
      * @param session WebSocket session
      * @param reply   JSON Object of reply to web API
      */
-    private static synchronized void send(Session session, JSONObject reply) throws WebSocketException {
-        try {
-            session.getRemote().sendString(reply.toString());
+    private static void send(Session session, JSONObject reply) throws WebSocketException {
+        getWriter(session).send(reply.toString());
+    }
+
+    private static SessionWriter getWriter(Session session) throws WebSocketException {
+        return getConnection(session).getWriter();
+    }
+
+    private static SocketConnection getConnection(Session session) throws WebSocketException {
+        SocketConnection connection = openConnections.get(session);
+        if (connection == null) {
+            throw new WebSocketException("Session is closed");
         }
-        catch(IOException e) {
-            log.error("Could not send message", e);
+
+        return connection;
+    }
+
+    /**
+     * Connection counts and outbound queue statistics for each open connection
+     */
+    public static JSONObject getConnectionStatsJSON() throws JSONException {
+        JSONArray outbound = new JSONArray();
+        for(Map.Entry<Session,SocketConnection> entry : openConnections.entrySet()) {
+            outbound.put(entry.getValue().getWriter().getStatsJSON().put("remote", String.valueOf(entry.getKey().getRemoteAddress())));
         }
+
+        long closed = totalClosed.get();
+        return new JSONObject()
+                .put("open", openConnections.size())
+                .put("peak", peakConnections.get())
+                .put("opened", totalOpened.get())
+                .put("closed", closed)
+                .put("averageLifetime", closed == 0? 0:totalLifetime.get() / closed)
+                .put("outbound", outbound);
     }
 
 }
@@ -32,6 +32,7 @@ import qz.common.Constants;
 import qz.common.SecurityInfo;
 import qz.common.TrayManager;
 import qz.deploy.DeployUtilities;
+import qz.printer.action.WebApp;
 import qz.utils.SystemUtilities;
 
 import javax.swing.*;
@@ -130,6 +131,15 @@ public class PrintSocketServer {
 
         trayProperties = getTrayProperties();
 
+        if (trayProperties != null && Boolean.parseBoolean(trayProperties.getProperty("html.preload", "false"))) {
+            try {
+                WebApp.preload();
+            }
+            catch(NoClassDefFoundError e) {
+                log.warn("JavaFX libraries not found, HTML printing will not be preloaded");
+            }
+        }
+
         while(!running.get() && securePortIndex.get() < SECURE_PORTS.size() && insecurePortIndex.get() < INSECURE_PORTS.size()) {
             Server server = new Server(getInsecurePortInUse());
 
@@ -163,6 +173,7 @@ public class PrintSocketServer {
                     }
                 });
                 filter.getFactory().getPolicy().setMaxTextMessageSize(MAX_MESSAGE_SIZE);
+                filter.getFactory().getPolicy().setMaxBinaryMessageSize(MAX_MESSAGE_SIZE);
 
                 // Handle HTTP landing page
                 ServletHolder httpServlet = new ServletHolder(new HttpAboutServlet());
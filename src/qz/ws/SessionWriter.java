@@ -0,0 +1,369 @@
+package qz.ws;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketException;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qz.common.Constants;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Outbound message queue for a single WebSocket session.
+ * <p/>
+ * Messages are sent one at a time with Jetty's async writes, so a slow client only ever delays its own messages.
+ * Replies and control events are always delivered; received stream data past the backlog limit is handled by the {@link Policy}.
+ */
+public class SessionWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionWriter.class);
+
+    public enum Policy {
+        /** Discard new stream data while the backlog is full */
+        DROP_NEWEST,
+        /** Discard the oldest waiting stream data to make room */
+        DROP_OLDEST,
+        /** Replace waiting stream data from the same source with the newest, dropping new data when nothing can be replaced */
+        COALESCE;
+
+        public static Policy parse(String value, Policy fallback) {
+            if (value != null) {
+                try { return Policy.valueOf(value.trim().toUpperCase().replace('-', '_')); }
+                catch(IllegalArgumentException e) {
+                    log.warn("Unknown outbound policy {}, using {}", value, fallback);
+                }
+            }
+
+            return fallback;
+        }
+    }
+
+    private static Policy defaultPolicy;
+    private static int defaultBacklog = -1;
+
+    private final Session session;
+    private final Policy policy;
+    private final int backlog;
+
+    private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+    //coalescing key -> waiting message
+    private final ConcurrentHashMap<String,Message> waiting = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+
+    private final AtomicInteger depth = new AtomicInteger(0);
+    private final AtomicInteger maxDepth = new AtomicInteger(0);
+    private final AtomicLong sent = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+
+
+    public SessionWriter(Session session) {
+        this(session, getDefaultPolicy(), getDefaultBacklog());
+    }
+
+    public SessionWriter(Session session, Policy policy, int backlog) {
+        this.session = session;
+        this.policy = policy;
+        this.backlog = backlog;
+    }
+
+    /**
+     * Queues a message that must reach the client, such as a call reply
+     */
+    public void send(String text) throws WebSocketException {
+        enqueue(new Message(null, false, text));
+    }
+
+    /**
+     * Queues a binary frame that must reach the client
+     */
+    public void send(ByteBuffer frame) throws WebSocketException {
+        enqueue(new Message(null, false, frame));
+    }
+
+    /**
+     * Queues stream data that may be dropped or coalesced when the client falls behind
+     *
+     * @param key Identifies the source of the data, newer data replaces older data with the same key when coalescing
+     */
+    public void sendDroppable(String key, String text) throws WebSocketException {
+        droppable(key, text);
+    }
+
+    /**
+     * Queues stream data sent as a binary frame, see {@link #sendDroppable(String, String)}
+     */
+    public void sendDroppable(String key, ByteBuffer frame) throws WebSocketException {
+        droppable(key, frame);
+    }
+
+    private void droppable(String key, Object payload) throws WebSocketException {
+        if (depth.get() >= backlog) {
+            switch(policy) {
+                case COALESCE:
+                    Message pending = waiting.get(key);
+                    if (pending != null && pending.replace(payload)) {
+                        coalesced.incrementAndGet();
+                        return;
+                    }
+                    dropped.incrementAndGet();
+                    return;
+                case DROP_OLDEST:
+                    if (!dropOldest()) {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    break;
+                case DROP_NEWEST:
+                default:
+                    dropped.incrementAndGet();
+                    return;
+            }
+        }
+
+        enqueue(new Message(key, true, payload));
+    }
+
+    private void enqueue(Message message) throws WebSocketException {
+        if (!session.isOpen()) {
+            throw new WebSocketException("Session is closed");
+        }
+
+        if (message.key != null) {
+            waiting.put(message.key, message);
+        }
+        queue.add(message);
+
+        int current = depth.incrementAndGet();
+        int max = maxDepth.get();
+        while(current > max && !maxDepth.compareAndSet(max, current)) {
+            max = maxDepth.get();
+        }
+
+        if (writing.compareAndSet(false, true)) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Discards the oldest droppable message still waiting
+     *
+     * @return {@code true} if room was made
+     */
+    private boolean dropOldest() {
+        for(Message message : queue) {
+            if (message.droppable && message.take() != null) {
+                depth.decrementAndGet();
+                dropped.incrementAndGet();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Sends waiting messages until one is left to complete asynchronously or the queue is empty.
+     * Only the thread that set {@code writing} may call this.
+     */
+    private void writeNext() {
+        while(true) {
+            Object payload = null;
+            Message message;
+            while(payload == null && (message = queue.poll()) != null) {
+                payload = message.take();
+                if (message.key != null) { waiting.remove(message.key, message); }
+            }
+
+            if (payload == null) {
+                writing.set(false);
+                //a message may have been added after the poll but before writing was cleared
+                if (queue.isEmpty() || !writing.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            depth.decrementAndGet();
+
+            Write write = new Write();
+            try {
+                if (payload instanceof ByteBuffer) {
+                    session.getRemote().sendBytes((ByteBuffer)payload, write);
+                } else {
+                    session.getRemote().sendString((String)payload, write);
+                }
+            }
+            catch(Exception e) {
+                write.writeFailed(e);
+            }
+
+            //callbacks that finish during the send continue the loop here, rather than recursing
+            if (!write.returned()) { return; }
+        }
+    }
+
+    private void writeSucceeded() {
+        sent.incrementAndGet();
+    }
+
+    private void writeFailed(Throwable error) {
+        failed.incrementAndGet();
+        log.error("Could not send message", error);
+
+        if (!session.isOpen()) {
+            clear();
+        }
+    }
+
+    /**
+     * Discards anything still waiting to be sent, used once the session closes
+     */
+    public void clear() {
+        Message message;
+        while((message = queue.poll()) != null) {
+            if (message.take() != null) { depth.decrementAndGet(); }
+        }
+        waiting.clear();
+    }
+
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public JSONObject getStatsJSON() throws JSONException {
+        return new JSONObject()
+                .put("depth", depth.get())
+                .put("maxDepth", maxDepth.get())
+                .put("sent", sent.get())
+                .put("dropped", dropped.get())
+                .put("coalesced", coalesced.get())
+                .put("failed", failed.get());
+    }
+
+
+    private static synchronized Policy getDefaultPolicy() {
+        if (defaultPolicy == null) {
+            Properties props = PrintSocketServer.getTrayProperties();
+            defaultPolicy = Policy.parse(Constants.OUTBOUND_STREAM_POLICY, Policy.COALESCE);
+            if (props != null && props.containsKey("websocket.stream.policy")) {
+                defaultPolicy = Policy.parse(props.getProperty("websocket.stream.policy"), defaultPolicy);
+            }
+        }
+
+        return defaultPolicy;
+    }
+
+    private static synchronized int getDefaultBacklog() {
+        if (defaultBacklog < 0) {
+            defaultBacklog = Constants.OUTBOUND_BACKLOG;
+
+            Properties props = PrintSocketServer.getTrayProperties();
+            if (props != null && props.containsKey("websocket.stream.backlog")) {
+                try { defaultBacklog = Integer.parseInt(props.getProperty("websocket.stream.backlog").trim()); }
+                catch(NumberFormatException e) {
+                    log.warn("Invalid websocket.stream.backlog {}, using {}", props.getProperty("websocket.stream.backlog"), defaultBacklog);
+                }
+            }
+        }
+
+        return defaultBacklog;
+    }
+
+
+    /**
+     * Callback for a single send, which hands writing on to whichever of the sending thread or the callback finishes last
+     */
+    private class Write implements WriteCallback {
+
+        private static final int SENDING = 0, RETURNED = 1, COMPLETED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(SENDING);
+        //guards against the write being reported twice, such as by both a callback and a thrown exception
+        private final AtomicBoolean reported = new AtomicBoolean(false);
+
+        @Override
+        public void writeSuccess() {
+            if (reported.compareAndSet(false, true)) {
+                writeSucceeded();
+                complete();
+            }
+        }
+
+        @Override
+        public void writeFailed(Throwable error) {
+            if (reported.compareAndSet(false, true)) {
+                SessionWriter.this.writeFailed(error);
+                complete();
+            }
+        }
+
+        private void complete() {
+            //the sending thread already moved on, so this callback continues writing
+            if (!state.compareAndSet(SENDING, COMPLETED)) {
+                writeNext();
+            }
+        }
+
+        /**
+         * Called by the sending thread once the send call returns
+         *
+         * @return {@code true} if the write already completed, and the sending thread should write the next message
+         */
+        boolean returned() {
+            return !state.compareAndSet(SENDING, RETURNED);
+        }
+
+    }
+
+
+    private static class Message {
+
+        private final String key;
+        private final boolean droppable;
+        //text or binary frame
+        private final AtomicReference<Object> payload;
+
+        Message(String key, boolean droppable, Object payload) {
+            this.key = key;
+            this.droppable = droppable;
+            this.payload = new AtomicReference<>(payload);
+        }
+
+        /**
+         * Claims the message payload for sending or dropping, {@code null} if already claimed
+         */
+        Object take() {
+            return payload.getAndSet(null);
+        }
+
+        /**
+         * Swaps in a newer payload, failing if the message was already claimed
+         */
+        boolean replace(Object newer) {
+            Object current;
+            do {
+                current = payload.get();
+                if (current == null) { return false; }
+            } while(!payload.compareAndSet(current, newer));
+
+            return true;
+        }
+
+    }
+
+}
@@ -6,26 +6,35 @@ import org.slf4j.LoggerFactory;
 import qz.auth.Certificate;
 import qz.communication.*;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SocketConnection {
 
     private static final Logger log = LoggerFactory.getLogger(SocketConnection.class);
 
 
-    private Certificate certificate;
+    private volatile Certificate certificate;
+
+    private final SessionWriter writer;
+    private final long opened;
+
+    //whether the client accepts binary frames
+    private volatile boolean binary = false;
 
     private DeviceListener deviceListener;
 
     // serial port -> open SerialIO
-    private final HashMap<String,SerialIO> openSerialPorts = new HashMap<>();
+    private final ConcurrentHashMap<String,SerialIO> openSerialPorts = new ConcurrentHashMap<>();
 
     // DeviceOptions -> open DeviceIO
-    private final HashMap<DeviceOptions,DeviceIO> openDevices = new HashMap<>();
+    private final ConcurrentHashMap<DeviceOptions,DeviceIO> openDevices = new ConcurrentHashMap<>();
 
 
-    public SocketConnection(Certificate cert) {
+    public SocketConnection(Certificate cert, SessionWriter writer) {
         certificate = cert;
+        this.writer = writer;
+
+        opened = System.currentTimeMillis();
     }
 
     public Certificate getCertificate() {
@@ -36,6 +45,22 @@ public class SocketConnection {
         certificate = newCert;
     }
 
+    public SessionWriter getWriter() {
+        return writer;
+    }
+
+    public long getOpened() {
+        return opened;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
 
     public void addSerialPort(String port, SerialIO io) {
         openSerialPorts.put(port, io);
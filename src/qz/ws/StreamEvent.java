@@ -1,14 +1,17 @@
 package qz.ws;
 
+import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.usb.util.UsbUtil;
+
 public class StreamEvent {
 
     public enum Stream {
-        SERIAL, USB, HID
+        SERIAL, USB, HID, PRINT
     }
 
     public enum Type {
@@ -22,6 +25,10 @@ public class StreamEvent {
 
     private JSONObject eventData;
 
+    //raw output, sent in a binary frame when the client supports it
+    private String binaryKey;
+    private byte[] binaryData;
+
 
     public StreamEvent(Stream streamType, Type eventType) {
         this.streamType = streamType;
@@ -49,6 +56,25 @@ public class StreamEvent {
     }
 
 
+    /**
+     * Adds raw data to the event. Clients that support binary frames receive it as-is,
+     * others receive it as an array of hex strings.
+     */
+    public StreamEvent withBinary(String key, byte[] data) {
+        binaryKey = key;
+        binaryData = data;
+
+        return this;
+    }
+
+    public boolean hasBinary() {
+        return binaryData != null;
+    }
+
+    public byte[] getBinaryData() {
+        return binaryData;
+    }
+
     public String getStreamType() {
         return streamType.name();
     }
@@ -57,8 +83,42 @@ public class StreamEvent {
         return eventType.name();
     }
 
+    /**
+     * Received data can be dropped or coalesced when a client falls behind, errors and actions cannot
+     */
+    public boolean isDroppable() {
+        return eventType == Type.RECEIVE;
+    }
+
+    /**
+     * Identifies the port or device this event came from, so newer data can replace older data from the same source
+     */
+    public String getSourceKey() {
+        return streamType.name() + ":" + eventData.optString("portName") + ":" + eventData.optString("vendorId") + ":" + eventData.optString("productId");
+    }
+
     public String toJSON() throws JSONException {
+        return toJSON(false);
+    }
+
+    /**
+     * @param binary Whether raw data is referenced from a binary frame, rather than written out in hex
+     */
+    public String toJSON(boolean binary) throws JSONException {
         eventData.put("type", getEventType());
+
+        if (binaryData != null) {
+            if (binary) {
+                eventData.put(binaryKey, BinaryFrame.placeholder(0, binaryData.length));
+            } else {
+                JSONArray hex = new JSONArray();
+                for(byte b : binaryData) {
+                    hex.put(UsbUtil.toHexString(b));
+                }
+                eventData.put(binaryKey, hex);
+            }
+        }
+
         return eventData.toString();
     }
 
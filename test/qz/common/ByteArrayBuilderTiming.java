@@ -0,0 +1,138 @@
+package qz.common;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Rough timing of {@link ByteArrayBuilder} against the boxed <code>ArrayList&lt;Byte&gt;</code> builder it replaced.
+ * <p/>
+ * Not a test: it checks nothing and prints the best of several runs per operation over about 20 MB of data.
+ * Run with {@code ant timing}, or pass the number of runs as the first argument.
+ */
+public class ByteArrayBuilderTiming {
+
+    private static final int TOTAL = 20 * 1024 * 1024;
+    private static final int CHUNK = 4096;
+
+    //bytes removed from the front, the way a spool is consumed as it is split and sent
+    private static final int CLEARS = 64;
+
+
+    public static void main(String[] args) {
+        int runs = args.length > 0? Integer.parseInt(args[0]):5;
+
+        byte[] chunk = new byte[CHUNK];
+        new Random(TOTAL).nextBytes(chunk);
+
+        //the old builder is slow enough that a single run is plenty
+        report("append", timeAppend(chunk, 1, true), timeAppend(chunk, runs, false));
+        report("getByteArray", timeGetByteArray(chunk, 1, true), timeGetByteArray(chunk, runs, false));
+        report("clearRange", timeClearRange(chunk, 1, true), timeClearRange(chunk, runs, false));
+    }
+
+    private static void report(String operation, long legacy, long current) {
+        System.out.println(String.format("%-14s ArrayList<Byte> %9.2f ms   ByteArrayBuilder %8.2f ms   %7.1fx", operation,
+                                         legacy / 1e6, current / 1e6, (double)legacy / current));
+    }
+
+    /**
+     * @return Fastest run in nanoseconds of appending {@code TOTAL} bytes in chunks
+     */
+    private static long timeAppend(byte[] chunk, int runs, boolean legacy) {
+        long best = Long.MAX_VALUE;
+        for(int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            fill(chunk, legacy);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return best;
+    }
+
+    /**
+     * @return Fastest run in nanoseconds of copying {@code TOTAL} bytes out of a filled builder
+     */
+    private static long timeGetByteArray(byte[] chunk, int runs, boolean legacy) {
+        Object builder = fill(chunk, legacy);
+
+        long best = Long.MAX_VALUE;
+        int length = 0;
+        for(int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            byte[] bytes = legacy? ((LegacyByteArrayBuilder)builder).getByteArray():((ByteArrayBuilder)builder).getByteArray();
+            best = Math.min(best, System.nanoTime() - start);
+            length += bytes.length;
+        }
+
+        //keep the results alive so the work isn't optimized away
+        if (length < 0) { System.out.println(length); }
+
+        return best;
+    }
+
+    /**
+     * @return Fastest run in nanoseconds of clearing {@code CLEARS} chunks from the front of a filled builder
+     */
+    private static long timeClearRange(byte[] chunk, int runs, boolean legacy) {
+        long best = Long.MAX_VALUE;
+        for(int r = 0; r < runs; r++) {
+            Object builder = fill(chunk, legacy);
+
+            long start = System.nanoTime();
+            for(int i = 0; i < CLEARS; i++) {
+                if (legacy) {
+                    ((LegacyByteArrayBuilder)builder).clearRange(0, CHUNK);
+                } else {
+                    ((ByteArrayBuilder)builder).clearRange(0, CHUNK);
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return best;
+    }
+
+    private static Object fill(byte[] chunk, boolean legacy) {
+        if (legacy) {
+            LegacyByteArrayBuilder builder = new LegacyByteArrayBuilder();
+            for(int i = 0; i < TOTAL; i += CHUNK) {
+                builder.append(chunk);
+            }
+            return builder;
+        } else {
+            ByteArrayBuilder builder = new ByteArrayBuilder();
+            for(int i = 0; i < TOTAL; i += CHUNK) {
+                builder.append(chunk);
+            }
+            return builder;
+        }
+    }
+
+
+    /**
+     * The boxed builder as it was before moving to a primitive array, trimmed to the timed operations
+     */
+    private static class LegacyByteArrayBuilder {
+
+        private List<Byte> buffer = new ArrayList<>(16);
+
+        public void clearRange(int startIndex, int endIndex) {
+            buffer.subList(startIndex, endIndex).clear();
+        }
+
+        public LegacyByteArrayBuilder append(byte[] bytes) {
+            for(byte b : bytes) {
+                buffer.add(b);
+            }
+            return this;
+        }
+
+        public byte[] getByteArray() {
+            return ArrayUtils.toPrimitive(buffer.toArray(new Byte[buffer.size()]));
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package qz.printer;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Checks Evolis ribbon output against golden vectors recorded from the original per-pixel {@code ImageWrapper} encoder.
+ * <p/>
+ * Each vector is the length and SHA-256 of the commands for one image, precision and overlay. Run with {@code --generate}
+ * to print the vectors for the encoder on the classpath instead of checking them.
+ */
+public class EvolisEncoderTest {
+
+    private static final String GOLDEN = "evolis-golden.txt";
+
+    private static final int[] PRECISIONS = {2, 3, 4, 8, 16, 32, 64, 100, 128, 256};
+
+    //small enough to encode on the calling thread, and large enough to encode in parallel
+    private static final int[][] SIZES = {{61, 37}, {530, 510}};
+
+
+    public static void main(String[] args) throws Exception {
+        boolean generate = args.length > 0 && "--generate".equals(args[0]);
+
+        List<String> actual = new ArrayList<>();
+        for(int[] size : SIZES) {
+            BufferedImage image = createImage(size[0], size[1]);
+            for(int precision : PRECISIONS) {
+                actual.add(vector(image, precision, false));
+                actual.add(vector(image, precision, true));
+            }
+        }
+
+        if (generate) {
+            for(String line : actual) {
+                System.out.println(line);
+            }
+            return;
+        }
+
+        List<String> expected = readGolden();
+        int failures = 0;
+        for(int i = 0; i < actual.size(); i++) {
+            String want = i < expected.size()? expected.get(i):null;
+            if (!actual.get(i).equals(want)) {
+                System.err.println("Expected: " + want);
+                System.err.println("  Actual: " + actual.get(i));
+                failures++;
+            }
+        }
+        if (expected.size() != actual.size()) {
+            System.err.println("Expected " + expected.size() + " vectors, encoded " + actual.size());
+            failures++;
+        }
+
+        if (failures > 0) {
+            throw new AssertionError(failures + " Evolis vectors did not match");
+        }
+        System.out.println("EvolisEncoderTest: " + actual.size() + " vectors match");
+    }
+
+    /**
+     * Color gradients with seeded noise, so every color channel covers its whole range
+     */
+    private static BufferedImage createImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31 + height);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int r = x * 255 / Math.max(1, width - 1);
+                int g = y * 255 / Math.max(1, height - 1);
+                int b = random.nextInt(256);
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+
+        return image;
+    }
+
+    private static String vector(BufferedImage image, int precision, boolean overlay) throws Exception {
+        JSONObject opt = new JSONObject();
+        opt.put("precision", precision);
+        if (overlay) {
+            //a coated border and a block reaching past the right edge
+            opt.put("overlay", new JSONArray()
+                    .put(new JSONArray("[0,0," + (image.getWidth() - 1) + ",3]"))
+                    .put(new JSONArray("[" + image.getWidth() / 2 + "," + image.getHeight() / 3 + "," + (image.getWidth() + 10) + "," + image.getHeight() / 2 + "]")));
+        }
+
+        ImageWrapper wrapper = new ImageWrapper(image, LanguageType.EVOLIS);
+        wrapper.setCharset(Charset.forName("US-ASCII"));
+        byte[] commands = wrapper.getImageCommand(opt);
+
+        return String.format("%dx%d precision=%d overlay=%s %d %s", image.getWidth(), image.getHeight(), precision, overlay,
+                             commands.length, sha256(commands));
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for(byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+
+        return hex.toString();
+    }
+
+    private static List<String> readGolden() throws IOException {
+        InputStream in = EvolisEncoderTest.class.getResourceAsStream(GOLDEN);
+        if (in == null) {
+            throw new FileNotFoundException(GOLDEN + " is missing from the test classpath");
+        }
+
+        List<String> lines = new ArrayList<>();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) { lines.add(line); }
+            }
+        }
+
+        return lines;
+    }
+
+}
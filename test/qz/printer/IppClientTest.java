@@ -0,0 +1,333 @@
+package qz.printer;
+
+import qz.common.ByteArrayBuilder;
+
+import javax.print.attribute.standard.PrinterResolution;
+import java.io.*;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Checks the IPP requests {@link IppClient} sends and the responses it reads, against a stand-in CUPS scheduler.
+ * <p/>
+ * The client only talks to the scheduler named by {@code CUPS_SERVER}, so this must run with it set to a free local
+ * port, such as {@code CUPS_SERVER=localhost:16631}, which {@code ant test} does.
+ */
+public class IppClientTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static ServerSocket server;
+
+    //what the stand-in scheduler received and will reply with, one request at a time
+    private static Request received;
+    private static byte[] reply;
+
+
+    public static void main(String[] args) throws Exception {
+        String cupsServer = System.getenv("CUPS_SERVER");
+        if (cupsServer == null || !cupsServer.contains(":")) {
+            throw new IllegalStateException("CUPS_SERVER must be set to a free local port, such as localhost:16631");
+        }
+
+        server = new ServerSocket(Integer.parseInt(cupsServer.substring(cupsServer.lastIndexOf(':') + 1)));
+        Thread scheduler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "IPP stand-in");
+        scheduler.setDaemon(true);
+        scheduler.start();
+
+        testPrintJob();
+        testPrintJobRefused();
+        testGetPrinters();
+
+        //once nothing listens, the scheduler counts as unreachable
+        server.close();
+        testUnreachable();
+
+        System.out.println("IppClientTest: all checks passed");
+    }
+
+    private static void testPrintJob() throws Exception {
+        byte[] data = "^XA^FDHello^FS^XZ".getBytes(UTF8);
+        reply = response(0x0000, new Attribute(0x02, 0x21, "job-id", 42),
+                         new Attribute(0x02, 0x23, "job-state", 3),
+                         new Attribute(0x02, 0x44, "job-state-reasons", "none"));
+
+        IppClient.Job job = IppClient.printJob("Label Printer", "Raw job", 3, new ByteArrayBuilder(data));
+
+        check(received.path.equals("/printers/Label+Printer"), "Print-Job posted to " + received.path);
+        check(received.operation == 0x0002, "Print-Job operation was " + received.operation);
+        check("utf-8".equals(received.get(0x01, "attributes-charset")), "Print-Job charset");
+        check("ipp://localhost/printers/Label+Printer".equals(received.get(0x01, "printer-uri")), "Print-Job printer-uri");
+        check("Raw job".equals(received.get(0x01, "job-name")), "Print-Job job-name");
+        check("application/vnd.cups-raw".equals(received.get(0x01, "document-format")), "Print-Job document-format");
+        check(Integer.valueOf(3).equals(received.get(0x02, "copies")), "Print-Job copies");
+        check(Arrays.equals(data, received.document), "Print-Job document was " + new String(received.document, UTF8));
+
+        check(job.getId() == 42, "Job id was " + job.getId());
+        check("pending".equals(job.getState()), "Job state was " + job.getState());
+        check(!job.isFailed(), "Pending job counted as failed");
+
+        //a single copy is left to the printer's default
+        IppClient.printJob("Label Printer", "Raw job", 1, new ByteArrayBuilder(data));
+        check(received.get(0x02, "copies") == null, "Print-Job sent copies for a single copy");
+    }
+
+    private static void testPrintJobRefused() throws Exception {
+        reply = response(0x0406, new Attribute(0x01, 0x41, "status-message", "No such printer"));
+        try {
+            IppClient.printJob("Missing", "Raw job", 1, new ByteArrayBuilder(new byte[] {1, 2, 3}));
+            check(false, "Refused Print-Job did not throw");
+        }
+        catch(ConnectException e) {
+            check(false, "Refused Print-Job was reported as unreachable");
+        }
+        catch(IOException e) {
+            check(e.getMessage().contains("0x0406 No such printer"), "Refused Print-Job message was " + e.getMessage());
+        }
+    }
+
+    private static void testGetPrinters() throws Exception {
+        reply = response(0x0000,
+                         new Attribute(0x04, 0x42, "printer-name", "Office"),
+                         new Attribute(0x04, 0x41, "printer-info", "Front office laser"),
+                         new Attribute(0x04, 0x32, "printer-resolution-default", resolution(600, 600, 3)),
+                         new Attribute(0x04, 0x36, "printer-name", withLanguage("de", "Lager")),
+                         new Attribute(0x04, 0x35, "printer-info", withLanguage("de", "Etikettendrucker")),
+                         new Attribute(0x04, 0x42, "printer-name", "Bare"));
+
+        List<IppClient.Printer> printers = IppClient.getPrinters();
+
+        check(received.path.equals("/"), "CUPS-Get-Printers posted to " + received.path);
+        check(received.operation == 0x4002, "CUPS-Get-Printers operation was " + received.operation);
+        check(Arrays.asList("printer-name", "printer-info", "printer-resolution-default").equals(received.values(0x01, "requested-attributes")),
+              "CUPS-Get-Printers requested " + received.values(0x01, "requested-attributes"));
+        check(received.document.length == 0, "CUPS-Get-Printers sent a document");
+
+        check(printers.size() == 3, "Listed " + printers.size() + " printers");
+
+        IppClient.Printer office = printers.get(0);
+        check("Office".equals(office.getName()), "First printer was " + office.getName());
+        check("Front office laser".equals(office.getInfo()), "First printer info was " + office.getInfo());
+        PrinterResolution dpi = office.getResolution();
+        check(dpi != null && dpi.getCrossFeedResolution(PrinterResolution.DPI) == 600, "First printer resolution was " + dpi);
+
+        IppClient.Printer warehouse = printers.get(1);
+        check("Lager".equals(warehouse.getName()), "Second printer was " + warehouse.getName());
+        check("Etikettendrucker".equals(warehouse.getInfo()), "Second printer info was " + warehouse.getInfo());
+        check(warehouse.getResolution() == null, "Second printer has no resolution");
+
+        IppClient.Printer bare = printers.get(2);
+        check("Bare".equals(bare.getName()) && bare.getInfo() == null, "Third printer was " + bare.getName() + " " + bare.getInfo());
+
+        //not-found only means there are no queues
+        reply = response(0x0406);
+        check(IppClient.getPrinters().isEmpty(), "Listed printers without any queues");
+    }
+
+    private static void testUnreachable() throws Exception {
+        try {
+            IppClient.printJob("Office", "Raw job", 1, new ByteArrayBuilder(new byte[] {1}));
+            check(false, "Print-Job to a closed port did not throw");
+        }
+        catch(ConnectException e) {
+            check(!IppClient.isAvailable(), "Scheduler still counted as available after failing to connect");
+        }
+    }
+
+
+    private static void check(boolean condition, String message) {
+        if (!condition) { throw new AssertionError(message); }
+    }
+
+    /**
+     * Answers each HTTP request with the current {@code reply}, one request per connection
+     */
+    private static void serve() {
+        while(!server.isClosed()) {
+            try(Socket socket = server.accept()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+                String path = readLine(in).split(" ")[1];
+                int length = 0;
+                String header;
+                while(!(header = readLine(in)).isEmpty()) {
+                    if (header.toLowerCase(Locale.ENGLISH).startsWith("content-length:")) {
+                        length = Integer.parseInt(header.substring(header.indexOf(':') + 1).trim());
+                    }
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                received = Request.parse(path, body);
+
+                OutputStream out = socket.getOutputStream();
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/ipp\r\nContent-Length: " + reply.length
+                        + "\r\nConnection: close\r\n\r\n").getBytes(UTF8));
+                out.write(reply);
+                out.flush();
+            }
+            catch(IOException e) {
+                if (!server.isClosed()) { e.printStackTrace(); }
+            }
+        }
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') { line.append((char)b); }
+        }
+
+        return line.toString();
+    }
+
+    private static byte[] response(int status, Attribute... attributes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(0x0101);
+        out.writeShort(status);
+        out.writeInt(1);
+
+        out.writeByte(0x01);
+        new Attribute(0x01, 0x47, "attributes-charset", "utf-8").write(out);
+        new Attribute(0x01, 0x48, "attributes-natural-language", "en").write(out);
+
+        int group = 0x01;
+        for(Attribute attribute : attributes) {
+            //a new printer starts a new group, as CUPS does
+            if (attribute.group != group || "printer-name".equals(attribute.name)) {
+                group = attribute.group;
+                out.writeByte(group);
+            }
+            attribute.write(out);
+        }
+        out.writeByte(0x03);
+
+        return bytes.toByteArray();
+    }
+
+    private static byte[] resolution(int x, int y, int units) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeByte(units);
+
+        return bytes.toByteArray();
+    }
+
+    private static byte[] withLanguage(String language, String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(language.length());
+        out.write(language.getBytes(UTF8));
+        byte[] encoded = text.getBytes(UTF8);
+        out.writeShort(encoded.length);
+        out.write(encoded);
+
+        return bytes.toByteArray();
+    }
+
+
+    private static class Attribute {
+
+        private final int group;
+        private final int tag;
+        private final String name;
+        private final byte[] value;
+
+        Attribute(int group, int tag, String name, String value) {
+            this(group, tag, name, value.getBytes(UTF8));
+        }
+
+        Attribute(int group, int tag, String name, int value) {
+            this(group, tag, name, new byte[] {(byte)(value >> 24), (byte)(value >> 16), (byte)(value >> 8), (byte)value});
+        }
+
+        Attribute(int group, int tag, String name, byte[] value) {
+            this.group = group;
+            this.tag = tag;
+            this.name = name;
+            this.value = value;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            byte[] encoded = name.getBytes(UTF8);
+            out.writeByte(tag);
+            out.writeShort(encoded.length);
+            out.write(encoded);
+            out.writeShort(value.length);
+            out.write(value);
+        }
+    }
+
+    /**
+     * A decoded IPP request, with integer values as {@link Integer} and everything else as a {@link String}
+     */
+    private static class Request {
+
+        private String path;
+        private int operation;
+        private final Map<String,List<Object>> attributes = new HashMap<>();
+        private byte[] document;
+
+        static Request parse(String path, byte[] body) throws IOException {
+            Request request = new Request();
+            request.path = path;
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            check(in.readShort() == 0x0101, "Request was not IPP/1.1");
+            request.operation = in.readUnsignedShort();
+            in.readInt();
+
+            int group = 0;
+            List<Object> values = null;
+            int tag;
+            while((tag = in.readUnsignedByte()) != 0x03) {
+                if (tag < 0x10) {
+                    group = tag;
+                    continue;
+                }
+
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                byte[] value = new byte[in.readUnsignedShort()];
+                in.readFully(value);
+
+                if (name.length > 0) {
+                    values = new ArrayList<>();
+                    request.attributes.put(group + ":" + new String(name, UTF8), values);
+                }
+                check(values != null, "Additional value without an attribute");
+                if (tag == 0x21 || tag == 0x23) {
+                    values.add(new DataInputStream(new ByteArrayInputStream(value)).readInt());
+                } else {
+                    values.add(new String(value, UTF8));
+                }
+            }
+
+            request.document = new byte[in.available()];
+            in.readFully(request.document);
+
+            return request;
+        }
+
+        Object get(int group, String name) {
+            List<Object> values = values(group, name);
+            return values == null? null:values.get(0);
+        }
+
+        List<Object> values(int group, String name) {
+            return attributes.get(group + ":" + name);
+        }
+    }
+
+}
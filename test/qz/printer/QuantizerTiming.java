@@ -0,0 +1,77 @@
+package qz.printer;
+
+import java.util.Random;
+
+/**
+ * Rough timing of each {@link Quantizer} over common label sizes, for comparing dithering changes.
+ * <p/>
+ * Not a test: it checks nothing and prints the best of several runs per type and size.
+ * Run with {@code ant timing}, or pass the number of runs as the first argument.
+ */
+public class QuantizerTiming {
+
+    //80mm receipt, 4x6" label at 203 and 300 dpi
+    private static final int[][] SIZES = {{576, 800}, {812, 1218}, {1200, 1800}};
+
+
+    public static void main(String[] args) {
+        int runs = args.length > 0? Integer.parseInt(args[0]):10;
+
+        for(int[] size : SIZES) {
+            int[][] image = createImage(size[0], size[1]);
+
+            for(Quantizer.Type type : Quantizer.Type.values()) {
+                //warm up so the compiled code is measured
+                time(type, image, 3);
+
+                long best = time(type, image, runs);
+                double pixels = (double)size[0] * size[1];
+                System.out.println(String.format("%-16s %5dx%-5d %8.2f ms %8.1f Mpx/s", type, size[0], size[1],
+                                                 best / 1e6, pixels / (best / 1e9) / 1e6));
+            }
+        }
+    }
+
+    /**
+     * @return Fastest run in nanoseconds, including the copy of each row the quantizer overwrites
+     */
+    private static long time(Quantizer.Type type, int[][] image, int runs) {
+        int width = image[0].length;
+        int[] row = new int[width];
+        long best = Long.MAX_VALUE;
+        int black = 0;
+
+        for(int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            Quantizer quantizer = Quantizer.create(type, width, 128);
+            for(int y = 0; y < image.length; y++) {
+                System.arraycopy(image[y], 0, row, 0, width);
+                quantizer.quantize(y, row);
+                if (row[y % width] == 0) { black++; }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        //keep the results alive so the work isn't optimized away
+        if (black < 0) { System.out.println(black); }
+
+        return best;
+    }
+
+    /**
+     * Horizontal gray ramp with seeded noise, similar to a scanned photo or logo
+     */
+    private static int[][] createImage(int width, int height) {
+        Random random = new Random(width * 31 + height);
+        int[][] image = new int[height][width];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int gray = x * 255 / (width - 1) + random.nextInt(33) - 16;
+                image[y][x] = Math.max(0, Math.min(255, gray));
+            }
+        }
+
+        return image;
+    }
+
+}